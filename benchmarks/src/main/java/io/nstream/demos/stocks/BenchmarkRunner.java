@@ -0,0 +1,38 @@
+package io.nstream.demos.stocks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Set;
+
+/**
+ * Entry point of {@code benchmarks.jar}. Accepts the regular JMH command line,
+ * always attaches the gc profiler so allocation per operation is reported next
+ * to throughput and average time, and writes JSON results (default
+ * {@code jmh-result.json}) that {@link ResultComparator} can diff.
+ */
+public class BenchmarkRunner {
+  static final Set<String> PASS_THROUGH = Set.of("-h", "-help", "--help", "-l", "-lp", "-lrf", "-lprof");
+
+  public static void main(String[] args) throws Exception {
+    for (String arg : args) {
+      if (PASS_THROUGH.contains(arg)) {
+        Main.main(args);
+        return;
+      }
+    }
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    Options options = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+        .result(commandLine.getResult().orElse("jmh-result.json"))
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,39 @@
+package io.nstream.demos.stocks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class Payloads {
+  public static List<String> lines(String resource) {
+    InputStream input = Payloads.class.getResourceAsStream(resource);
+    if (null == input) {
+      throw new IllegalArgumentException("Missing benchmark resource " + resource);
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+      return reader.lines()
+          .filter(line -> !line.isBlank())
+          .collect(Collectors.toList());
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  /**
+   * Synthetic TwelveData price frames, not a recording: each symbol keeps one
+   * exchange and mic, walks from a plausible price, and carries bid and ask on
+   * some frames. Swap in a {@code FeedRecorder} capture to bench real data.
+   */
+  public static List<String> priceFrames() {
+    return lines("/twelvedata/price-frames.jsonl");
+  }
+
+  public static String subscribeStatus() {
+    return lines("/twelvedata/subscribe-status.json").get(0);
+  }
+}
@@ -0,0 +1,95 @@
+package io.nstream.demos.stocks;
+
+import swim.json.Json;
+import swim.structure.Item;
+import swim.structure.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares two JMH JSON result files and exits with status 1 when any score in
+ * the current run is worse than the baseline by more than the threshold
+ * (percent, default 10). Throughput must not drop; average time and
+ * {@code gc.alloc.rate.norm} must not grow.
+ *
+ * <pre>java -cp target/benchmarks.jar io.nstream.demos.stocks.ResultComparator baseline.json jmh-result.json 10</pre>
+ */
+public class ResultComparator {
+  static final String ALLOCATION = "gc.alloc.rate.norm";
+
+  static final class Score {
+    final double value;
+    final String unit;
+    final boolean higherIsBetter;
+
+    Score(double value, String unit, boolean higherIsBetter) {
+      this.value = value;
+      this.unit = unit;
+      this.higherIsBetter = higherIsBetter;
+    }
+  }
+
+  static Map<String, Score> load(Path path) throws IOException {
+    Map<String, Score> scores = new LinkedHashMap<>();
+    Value results = Json.parse(Files.readString(path));
+    for (Item result : results) {
+      String mode = result.get("mode").stringValue();
+      StringBuilder key = new StringBuilder(result.get("benchmark").stringValue())
+          .append(' ').append(mode);
+      for (Item param : result.get("params")) {
+        key.append(' ').append(param.key().stringValue()).append('=').append(param.toValue().stringValue());
+      }
+      Value primary = result.get("primaryMetric");
+      scores.put(key.toString(), new Score(
+          primary.get("score").doubleValue(), primary.get("scoreUnit").stringValue(), "thrpt".equals(mode)
+      ));
+      for (Item secondary : result.get("secondaryMetrics")) {
+        String name = secondary.key().stringValue().replace("\u00b7", "");
+        if (ALLOCATION.equals(name)) {
+          Value metric = secondary.toValue();
+          scores.put(key + " " + ALLOCATION, new Score(
+              metric.get("score").doubleValue(), metric.get("scoreUnit").stringValue(), false
+          ));
+        }
+      }
+    }
+    return scores;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: ResultComparator <baseline.json> <current.json> [thresholdPercent]");
+      System.exit(2);
+    }
+    double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10D;
+    Map<String, Score> baseline = load(Path.of(args[0]));
+    Map<String, Score> current = load(Path.of(args[1]));
+
+    int regressions = 0;
+    for (Map.Entry<String, Score> entry : current.entrySet()) {
+      Score before = baseline.get(entry.getKey());
+      if (null == before) {
+        continue;
+      }
+      Score after = entry.getValue();
+      double change = before.value == 0D ? 0D : (after.value - before.value) / before.value * 100D;
+      boolean regressed = after.higherIsBetter ? change < -threshold : change > threshold;
+      if (after.value > 0D && before.value == 0D && !after.higherIsBetter) {
+        regressed = true;
+      }
+      System.out.printf("%s %-90s %14.3f -> %14.3f %-10s %+7.1f%%%n",
+          regressed ? "REGRESSED" : "ok       ", entry.getKey(), before.value, after.value, after.unit, change);
+      if (regressed) {
+        regressions++;
+      }
+    }
+    if (regressions > 0) {
+      System.out.printf("%d score(s) regressed by more than %.1f%%%n", regressions, threshold);
+      System.exit(1);
+    }
+  }
+}
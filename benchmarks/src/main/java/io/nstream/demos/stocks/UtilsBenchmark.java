@@ -0,0 +1,54 @@
+package io.nstream.demos.stocks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.json.Json;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UtilsBenchmark {
+  @Param({"50", "500"})
+  int size;
+
+  List<String> symbols;
+  Value items;
+
+  @Setup
+  public void setup() {
+    this.symbols = new ArrayList<>();
+    Json.parse(Payloads.subscribeStatus()).get("success").forEach(item -> {
+      if (this.symbols.size() < this.size) {
+        this.symbols.add(item.get("symbol").stringValue());
+      }
+    });
+    this.items = Utils.toItem(this.symbols);
+  }
+
+  @Benchmark
+  public Value toItem() {
+    return Utils.toItem(this.symbols);
+  }
+
+  @Benchmark
+  public Value join() {
+    return Utils.join(this.items);
+  }
+}
@@ -0,0 +1,96 @@
+package io.nstream.demos.stocks.agents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per tick cost of the {@code indicators} lane as the windows grow.
+ * {@code incremental} is {@link Indicators#tick}; {@code rescan} computes the
+ * windowed standard deviation and high/low by scanning the last
+ * {@code window} ticks, as a client recomputing them on each tick would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IndicatorsBenchmark {
+  static final int TICKS = 1 << 16;
+
+  @Param({"100", "1000", "10000"})
+  int window;
+
+  double[] prices;
+  double[] dayVolumes;
+  Indicators indicators;
+  double[] returns;
+  double[] ring;
+  int next;
+  long time;
+
+  @Setup
+  public void setup() {
+    final SplittableRandom random = new SplittableRandom(42L);
+    this.prices = new double[TICKS];
+    this.dayVolumes = new double[TICKS];
+    double price = 100D;
+    double volume = 0D;
+    for (int i = 0; i < TICKS; i++) {
+      price = Math.max(1D, price + random.nextDouble(-0.05D, 0.05D));
+      volume += random.nextInt(100);
+      this.prices[i] = price;
+      this.dayVolumes[i] = volume;
+    }
+    this.indicators = new Indicators(true, new int[] {9, 21}, this.window, this.window);
+    this.returns = new double[this.window];
+    this.ring = new double[this.window];
+    // Noon UTC, so the run stays within one day.
+    this.time = 1_700_049_600_000L;
+  }
+
+  @Benchmark
+  public double incremental() {
+    final int i = this.next;
+    this.next = (this.next + 1) & (TICKS - 1);
+    this.indicators.tick(this.time++, this.prices[i], this.dayVolumes[i]);
+    return this.indicators.range.max() + this.indicators.returns.stddev();
+  }
+
+  @Benchmark
+  public double rescan() {
+    final int i = this.next;
+    final int previous = (i - 1) & (TICKS - 1);
+    this.next = (this.next + 1) & (TICKS - 1);
+    final int slot = (int) (this.time++ % this.window);
+    this.returns[slot] = Math.log(this.prices[i] / this.prices[previous]);
+    this.ring[slot] = this.prices[i];
+    double mean = 0D;
+    double high = Double.NEGATIVE_INFINITY;
+    double low = Double.POSITIVE_INFINITY;
+    for (int k = 0; k < this.window; k++) {
+      mean += this.returns[k];
+      high = Math.max(high, this.ring[k]);
+      low = Math.min(low, this.ring[k]);
+    }
+    mean /= this.window;
+    double m2 = 0D;
+    for (int k = 0; k < this.window; k++) {
+      final double delta = this.returns[k] - mean;
+      m2 += delta * delta;
+    }
+    return high - low + Math.sqrt(m2 / (this.window - 1));
+  }
+}
@@ -0,0 +1,84 @@
+package io.nstream.demos.stocks.agents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per tick cost of keeping the top and bottom movers as the universe grows.
+ * {@code leaderboard} moves one symbol in the treap; {@code resort} is the
+ * client side approach it replaces, sorting every movement on each tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderboardBenchmark {
+  static final int TICKS = 1 << 16;
+
+  @Param({"500", "10000", "100000"})
+  int universe;
+
+  String[] symbols;
+  double[] movements;
+  double[] sorted;
+  int[] tickSymbols;
+  double[] tickSteps;
+  Leaderboard leaderboard;
+  int next;
+
+  @Setup
+  public void setup() {
+    SplittableRandom random = new SplittableRandom(42L);
+    this.symbols = new String[this.universe];
+    this.movements = new double[this.universe];
+    this.sorted = new double[this.universe];
+    this.leaderboard = new Leaderboard(10);
+    for (int i = 0; i < this.universe; i++) {
+      this.symbols[i] = "S" + i;
+      this.movements[i] = random.nextDouble(-5D, 5D);
+      this.leaderboard.update(this.symbols[i], this.movements[i]);
+    }
+    this.tickSymbols = new int[TICKS];
+    this.tickSteps = new double[TICKS];
+    for (int i = 0; i < TICKS; i++) {
+      this.tickSymbols[i] = random.nextInt(this.universe);
+      this.tickSteps[i] = random.nextDouble(-0.05D, 0.05D);
+    }
+  }
+
+  int advance() {
+    final int symbol = this.tickSymbols[this.next];
+    this.movements[symbol] += this.tickSteps[this.next];
+    this.next = (this.next + 1) & (TICKS - 1);
+    return symbol;
+  }
+
+  @Benchmark
+  public int leaderboard() {
+    final int symbol = advance();
+    return this.leaderboard.update(this.symbols[symbol], this.movements[symbol]);
+  }
+
+  @Benchmark
+  public double resort() {
+    advance();
+    System.arraycopy(this.movements, 0, this.sorted, 0, this.universe);
+    Arrays.sort(this.sorted);
+    return this.sorted[this.universe - 1];
+  }
+}
@@ -0,0 +1,122 @@
+package io.nstream.demos.stocks.agents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per tick cost of keeping screens over 500 symbols. {@code incremental} is
+ * {@link Screener#evaluate}, testing the symbol that ticked against every
+ * screen; {@code rescan} filters the whole table once per screen on each
+ * tick, which is what clients filtering locally do between them, before
+ * counting clients that share a screen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScreenerBenchmark {
+  static final int SYMBOLS = 500;
+  static final int TICKS = 1 << 14;
+
+  @Param({"10", "100", "1000"})
+  int screens;
+
+  String[] symbols;
+  Value[] table;
+  Value[] tickStatuses;
+  int[] tickSymbols;
+  Screener screener;
+  ScreenFilter[] filters;
+  final double[] fields = new double[ScreenFilter.FIELDS.length];
+  int next;
+
+  @Setup
+  public void setup() {
+    final SplittableRandom random = new SplittableRandom(42L);
+    this.symbols = new String[SYMBOLS];
+    this.table = new Value[SYMBOLS];
+    for (int i = 0; i < SYMBOLS; i++) {
+      this.symbols[i] = "S" + i;
+      this.table[i] = status(random);
+    }
+    this.tickSymbols = new int[TICKS];
+    this.tickStatuses = new Value[TICKS];
+    for (int i = 0; i < TICKS; i++) {
+      this.tickSymbols[i] = random.nextInt(SYMBOLS);
+      this.tickStatuses[i] = status(random);
+    }
+
+    this.screener = new Screener();
+    this.filters = new ScreenFilter[this.screens];
+    for (int i = 0; i < this.screens; i++) {
+      final String filter = String.format("movement > %.2f and volume > %dK and spread < %.2f",
+          random.nextDouble(-3D, 3D), random.nextInt(100, 10000), random.nextDouble(0.05D, 1D));
+      this.filters[i] = ScreenFilter.parse(filter);
+      this.screener.add(this.filters[i]);
+    }
+    for (int i = 0; i < SYMBOLS; i++) {
+      this.screener.evaluate(this.symbols[i], this.table[i]);
+    }
+  }
+
+  static Value status(SplittableRandom random) {
+    final double price = random.nextDouble(20D, 500D);
+    final double spread = price * random.nextDouble(0.0001D, 0.01D);
+    return Record.create(6)
+        .slot("price", price)
+        .slot("volume", random.nextDouble(1e5D, 2e7D))
+        .slot("bid", price - spread / 2D)
+        .slot("ask", price + spread / 2D)
+        .slot("movement", random.nextDouble(-5D, 5D));
+  }
+
+  int advance() {
+    final int i = this.next;
+    this.next = (this.next + 1) & (TICKS - 1);
+    this.table[this.tickSymbols[i]] = this.tickStatuses[i];
+    return i;
+  }
+
+  @Benchmark
+  public int incremental() {
+    final int i = advance();
+    this.screener.evaluate(this.symbols[this.tickSymbols[i]], this.tickStatuses[i]);
+    // Flushing is per batch interval, not per tick; clear so the pending maps stay small.
+    int pending = 0;
+    for (Screener.Screen screen : this.screener.screens.values()) {
+      pending += screen.pending.size();
+      screen.pending.clear();
+    }
+    return pending;
+  }
+
+  @Benchmark
+  public int rescan() {
+    advance();
+    int matches = 0;
+    for (ScreenFilter filter : this.filters) {
+      for (Value status : this.table) {
+        if (filter.test(ScreenFilter.fields(status, this.fields))) {
+          matches++;
+        }
+      }
+    }
+    return matches;
+  }
+}
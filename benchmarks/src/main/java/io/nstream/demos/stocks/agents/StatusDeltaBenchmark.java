@@ -0,0 +1,160 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.data.PriceFrameDecoder;
+import io.nstream.demos.stocks.data.pricing.CapturingPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.json.Json;
+import swim.recon.Recon;
+import swim.structure.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * What one subscriber is sent per tick, as the {@code @event} envelope and
+ * Recon body the WARP frame carries: the whole {@code status}, the
+ * {@code statusDelta} encoding, and the whole status through one deflate
+ * context per connection, as permessage-deflate would compress it at
+ * {@code level}. Every benchmark builds the status the same way, so the
+ * difference in time is the cost of the encoding. The bytes per message are
+ * printed at the end of each run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatusDeltaBenchmark {
+  @Param({"32"})
+  int keyframeInterval;
+
+  @Param({"6"})
+  int level;
+
+  Value[] updates;
+  int[] symbolIds;
+  String[] envelopes;
+  String[] deltaEnvelopes;
+  StockQuote[] quotes;
+  StatusDelta[] deltas;
+  Deflater deflater;
+  final byte[] compressed = new byte[4096];
+  int next;
+  long bytes;
+  long messages;
+
+  @Setup
+  public void setup() {
+    List<String> frames = Payloads.priceFrames();
+    PricingHandlerIndex index = new PricingHandlerIndex();
+    CapturingPricingHandler handler = new CapturingPricingHandler();
+    Map<String, Integer> ids = new HashMap<>();
+    for (String frame : frames) {
+      String symbol = Json.parse(frame).get("symbol").stringValue();
+      ids.putIfAbsent(symbol, ids.size());
+      index.put(symbol, handler);
+    }
+
+    PriceFrameDecoder decoder = new PriceFrameDecoder(index);
+    this.updates = new Value[frames.size()];
+    this.symbolIds = new int[frames.size()];
+    for (int i = 0; i < frames.size(); i++) {
+      String frame = frames.get(i);
+      decoder.decode(frame);
+      this.updates[i] = handler.last;
+      this.symbolIds[i] = ids.get(Json.parse(frame).get("symbol").stringValue());
+    }
+
+    this.envelopes = new String[ids.size()];
+    this.deltaEnvelopes = new String[ids.size()];
+    this.quotes = new StockQuote[ids.size()];
+    this.deltas = new StatusDelta[ids.size()];
+    ids.forEach((symbol, id) -> {
+      this.envelopes[id] = "@event(node:\"/stock/" + symbol + "\",lane:status)";
+      this.deltaEnvelopes[id] = "@event(node:\"/stock/" + symbol + "\",lane:statusDelta)";
+      this.quotes[id] = new StockQuote();
+      this.quotes[id].updatePreviousClose(100D + id);
+      this.deltas[id] = new StatusDelta(this.keyframeInterval);
+    });
+    this.deflater = new Deflater(this.level, true);
+    this.bytes = 0L;
+    this.messages = 0L;
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.deflater.end();
+    if (this.messages > 0L) {
+      System.out.printf("%n%.1f bytes per message over %d messages%n", (double) this.bytes / this.messages, this.messages);
+    }
+  }
+
+  int advance() {
+    int current = this.next;
+    this.next = this.next + 1 == this.updates.length ? 0 : this.next + 1;
+    return current;
+  }
+
+  int count(String frame) {
+    this.messages++;
+    this.bytes += frame.length();
+    return frame.length();
+  }
+
+  @Benchmark
+  public int full() {
+    int i = advance();
+    StockQuote quote = this.quotes[this.symbolIds[i]];
+    if (!quote.update(this.updates[i])) {
+      return 0;
+    }
+    return count(this.envelopes[this.symbolIds[i]] + Recon.toString(quote.toValue()));
+  }
+
+  @Benchmark
+  public int delta() {
+    int i = advance();
+    int id = this.symbolIds[i];
+    StockQuote quote = this.quotes[id];
+    if (!quote.update(this.updates[i])) {
+      return 0;
+    }
+    return count(this.deltaEnvelopes[id] + Recon.toString(this.deltas[id].encode(quote.toValue())));
+  }
+
+  @Benchmark
+  public int deflate() {
+    int i = advance();
+    StockQuote quote = this.quotes[this.symbolIds[i]];
+    if (!quote.update(this.updates[i])) {
+      return 0;
+    }
+    byte[] frame = (this.envelopes[this.symbolIds[i]] + Recon.toString(quote.toValue())).getBytes(StandardCharsets.UTF_8);
+    this.deflater.setInput(frame);
+    int length = this.deflater.deflate(this.compressed, 0, this.compressed.length, Deflater.SYNC_FLUSH);
+    // permessage-deflate drops the 4 byte tail of the sync flush.
+    length -= 4;
+    this.messages++;
+    this.bytes += length;
+    return length;
+  }
+}
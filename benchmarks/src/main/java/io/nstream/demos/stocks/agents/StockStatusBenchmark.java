@@ -0,0 +1,182 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.data.PriceFrameDecoder;
+import io.nstream.demos.stocks.data.pricing.CapturingPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.json.Json;
+import swim.structure.Form;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work {@code StockAgent.update} does per tick. {@code valueBuilder} is the
+ * Record based status with the BigDecimal movement it replaced, kept here as
+ * the baseline; {@code stockQuote} is the primitive state the agent uses now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockStatusBenchmark {
+  static class ValueBuilder {
+    private final Value input;
+    public Value output;
+
+    ValueBuilder(Value current, Value input) {
+      this.input = input;
+
+      if (!current.isDefined()) {
+        this.output = Record.of();
+      } else {
+        this.output = current;
+      }
+    }
+
+    public <T> void set(String inputKey, String outputKey, Form<T> form, T defaultValue) {
+      Value inputValue = this.input.getSlot(inputKey);
+      Value outputValue = this.output.getSlot(outputKey);
+
+      if (inputValue.equals(outputValue) && outputValue.isDefined()) {
+        return;
+      }
+
+      if (!inputValue.isDefined() && outputValue.isDefined()) {
+        return;
+      }
+
+      if (null != inputValue && inputValue.isDefined()) {
+        T value = inputValue.cast(form, defaultValue);
+        this.output = this.output.updated(outputKey, Value.fromObject(value));
+      } else if (null == inputValue) {
+        this.output = this.output.updated(outputKey, Value.absent());
+      } else if (!inputValue.isDefined()) {
+        this.output = this.output.updated(outputKey, inputValue);
+      }
+    }
+  }
+
+  static final class LegacyState {
+    Value status = Record.of();
+    Value previousClose;
+  }
+
+  Value[] updates;
+  int[] symbolIds;
+  LegacyState[] legacy;
+  StockQuote[] quotes;
+  int next;
+
+  @Setup
+  public void setup() {
+    List<String> frames = Payloads.priceFrames();
+    PricingHandlerIndex index = new PricingHandlerIndex();
+    CapturingPricingHandler handler = new CapturingPricingHandler();
+    Map<String, Integer> ids = new HashMap<>();
+    for (String frame : frames) {
+      String symbol = Json.parse(frame).get("symbol").stringValue();
+      ids.putIfAbsent(symbol, ids.size());
+      index.put(symbol, handler);
+    }
+
+    PriceFrameDecoder decoder = new PriceFrameDecoder(index);
+    this.updates = new Value[frames.size()];
+    this.symbolIds = new int[frames.size()];
+    for (int i = 0; i < frames.size(); i++) {
+      String frame = frames.get(i);
+      decoder.decode(frame);
+      this.updates[i] = handler.last;
+      this.symbolIds[i] = ids.get(Json.parse(frame).get("symbol").stringValue());
+    }
+
+    this.legacy = new LegacyState[ids.size()];
+    this.quotes = new StockQuote[ids.size()];
+    for (int i = 0; i < ids.size(); i++) {
+      double close = 100D + i;
+      this.legacy[i] = new LegacyState();
+      this.legacy[i].previousClose = Record.of().slot("close", Double.toString(close));
+      this.quotes[i] = new StockQuote();
+      this.quotes[i].updatePreviousClose(close);
+    }
+  }
+
+  int advance() {
+    int current = this.next;
+    this.next = this.next + 1 == this.updates.length ? 0 : this.next + 1;
+    return current;
+  }
+
+  @Benchmark
+  public Value valueBuilder() {
+    int i = advance();
+    Value input = this.updates[i];
+    LegacyState state = this.legacy[this.symbolIds[i]];
+
+    Value priceValue = input.getSlot("price");
+    ValueBuilder valueBuilder = new ValueBuilder(state.status, input);
+    valueBuilder.set("timestamp", "timestamp", Form.forLong(), null);
+    valueBuilder.set("price", "price", Form.forDouble(), null);
+    valueBuilder.set("day_volume", "volume", Form.forDouble(), null);
+    valueBuilder.set("bid", "bid", Form.forDouble(), null);
+    valueBuilder.set("ask", "ask", Form.forDouble(), null);
+
+    Value movementValue;
+    Value closeValue = state.previousClose.getSlot("close");
+    if (priceValue.isDefined() && closeValue.isDefined()) {
+      double close = closeValue.doubleValue();
+      double price = priceValue.doubleValue();
+      double movement = ((price - close) / close) * 100D;
+      movement = new BigDecimal(movement)
+          .setScale(3, RoundingMode.HALF_UP)
+          .doubleValue();
+      movementValue = Value.fromObject(movement);
+    } else {
+      movementValue = Value.absent();
+    }
+
+    state.status = valueBuilder.output.updated("movement", movementValue);
+    return state.status;
+  }
+
+  @Benchmark
+  public Value stockQuote() {
+    int i = advance();
+    StockQuote quote = this.quotes[this.symbolIds[i]];
+    return quote.update(this.updates[i]) ? quote.toValue() : null;
+  }
+
+  @Benchmark
+  public double movementBigDecimal() {
+    Value input = this.updates[advance()];
+    double price = input.getSlot("price").doubleValue();
+    double movement = ((price - 100D) / 100D) * 100D;
+    return new BigDecimal(movement)
+        .setScale(3, RoundingMode.HALF_UP)
+        .doubleValue();
+  }
+
+  @Benchmark
+  public double movementPrimitive() {
+    Value input = this.updates[advance()];
+    return StockQuote.movement(input.getSlot("price").doubleValue(), 100D);
+  }
+}
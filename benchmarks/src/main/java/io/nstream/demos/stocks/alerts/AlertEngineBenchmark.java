@@ -0,0 +1,142 @@
+package io.nstream.demos.stocks.alerts;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per tick cost of evaluating alerts over 500 symbols as the rules grow. A
+ * tenth of the rules are on {@code movement} for every symbol, the rest on
+ * one symbol's price within 5% of where it starts. {@code indexed} is
+ * {@link AlertEngine#evaluate}; {@code scan} checks every rule on every tick,
+ * as the naive approach would. Ticks move a price by up to 5 cents, so most
+ * cross no rule and a few cross several, as at the open.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlertEngineBenchmark {
+  static final int SYMBOLS = 500;
+  static final int TICKS = 1 << 16;
+
+  @Param({"1000", "10000", "100000"})
+  int rules;
+
+  AlertEngine engine;
+  AlertEngine.Watch[] watches;
+  AlertRule[] all;
+  boolean[] armed;
+  int[] ruleSymbols;
+  String[] symbols;
+  double[] prices;
+  double[] lastPrices;
+  double[] closes;
+  int[] tickSymbols;
+  double[] tickSteps;
+  int next;
+
+  @Setup
+  public void setup() {
+    final SplittableRandom random = new SplittableRandom(42L);
+    this.engine = new AlertEngine();
+    this.symbols = new String[SYMBOLS];
+    this.watches = new AlertEngine.Watch[SYMBOLS];
+    this.prices = new double[SYMBOLS];
+    this.lastPrices = new double[SYMBOLS];
+    this.closes = new double[SYMBOLS];
+    for (int i = 0; i < SYMBOLS; i++) {
+      this.symbols[i] = "S" + i;
+      this.watches[i] = this.engine.watch(this.symbols[i]);
+      this.prices[i] = random.nextDouble(20D, 500D);
+      this.lastPrices[i] = this.prices[i];
+      this.closes[i] = this.prices[i];
+    }
+    this.all = new AlertRule[this.rules];
+    this.armed = new boolean[this.rules];
+    this.ruleSymbols = new int[this.rules];
+    for (int i = 0; i < this.rules; i++) {
+      final boolean above = random.nextBoolean();
+      final AlertRule rule;
+      if (i % 10 == 0) {
+        rule = new AlertRule("m" + i, null, AlertRule.MOVEMENT, random.nextDouble(-5D, 5D), above, 0.25D, i);
+        this.ruleSymbols[i] = -1;
+      } else {
+        final int symbol = random.nextInt(SYMBOLS);
+        final double threshold = this.prices[symbol] * random.nextDouble(0.95D, 1.05D);
+        rule = new AlertRule("p" + i, this.symbols[symbol], AlertRule.PRICE, threshold, above, threshold * 0.001D, i);
+        this.ruleSymbols[i] = symbol;
+      }
+      this.engine.add(rule);
+      this.all[i] = rule;
+      this.armed[i] = true;
+    }
+    this.tickSymbols = new int[TICKS];
+    this.tickSteps = new double[TICKS];
+    for (int i = 0; i < TICKS; i++) {
+      this.tickSymbols[i] = random.nextInt(SYMBOLS);
+      this.tickSteps[i] = random.nextInt(-5, 6) * 0.01D;
+    }
+  }
+
+  int advance() {
+    final int symbol = this.tickSymbols[this.next];
+    this.lastPrices[symbol] = this.prices[symbol];
+    this.prices[symbol] += this.tickSteps[this.next];
+    this.next = (this.next + 1) & (TICKS - 1);
+    return symbol;
+  }
+
+  double movement(int symbol, double price) {
+    return (price - this.closes[symbol]) / this.closes[symbol] * 100D;
+  }
+
+  @Benchmark
+  public int indexed() {
+    final int symbol = advance();
+    final double price = this.prices[symbol];
+    return this.engine.evaluate(this.watches[symbol], this.next, price, movement(symbol, price)).size();
+  }
+
+  @Benchmark
+  public int scan() {
+    final int symbol = advance();
+    final double from = this.lastPrices[symbol];
+    final double to = this.prices[symbol];
+    final double fromMovement = movement(symbol, from);
+    final double toMovement = movement(symbol, to);
+    int fired = 0;
+    for (int i = 0; i < this.all.length; i++) {
+      final AlertRule rule = this.all[i];
+      final boolean global = this.ruleSymbols[i] < 0;
+      if (!global && this.ruleSymbols[i] != symbol) {
+        continue;
+      }
+      final double a = global ? fromMovement : from;
+      final double b = global ? toMovement : to;
+      // Per rule rather than per rule and symbol, which only flatters the scan.
+      if (this.armed[i] && (rule.above ? a < rule.threshold && b >= rule.threshold
+          : a > rule.threshold && b <= rule.threshold)) {
+        this.armed[i] = false;
+        fired++;
+      } else if (!this.armed[i] && (rule.above ? b <= rule.rearm.value && a > rule.rearm.value
+          : b >= rule.rearm.value && a < rule.rearm.value)) {
+        this.armed[i] = true;
+      }
+    }
+    return fired;
+  }
+}
@@ -0,0 +1,119 @@
+package io.nstream.demos.stocks.analytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to compute one interval of the correlation agent against the number
+ * of symbols and of pool threads. {@code interval} is
+ * {@link CorrelationMatrix#add} on a full window, including its recompute
+ * once per window; {@code rescan} computes every correlation from the window
+ * of samples on one thread, as recomputing the matrix each interval would.
+ * The returns share a common factor so the top pairs are not all noise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorrelationMatrixBenchmark {
+  static final int SAMPLES = 256;
+
+  @Param({"100", "500", "2000"})
+  int symbols;
+
+  @Param({"1", "2", "4", "8"})
+  int parallelism;
+
+  @Param({"60"})
+  int window;
+
+  @Param({"64"})
+  int tile;
+
+  double[][] returns;
+  double[] indexReturns;
+  ForkJoinPool pool;
+  CorrelationMatrix matrix;
+  int next;
+
+  @Setup
+  public void setup() {
+    final SplittableRandom random = new SplittableRandom(42L);
+    this.returns = new double[SAMPLES][this.symbols];
+    this.indexReturns = new double[SAMPLES];
+    for (int t = 0; t < SAMPLES; t++) {
+      final double market = random.nextDouble(-0.002D, 0.002D);
+      this.indexReturns[t] = market;
+      for (int i = 0; i < this.symbols; i++) {
+        this.returns[t][i] = market * (0.5D + (i % 5) * 0.25D) + random.nextDouble(-0.003D, 0.003D);
+      }
+    }
+    this.pool = new ForkJoinPool(this.parallelism);
+    this.matrix = new CorrelationMatrix(this.symbols, this.window, this.tile, 20, this.pool);
+    for (int t = 0; t < this.window; t++) {
+      interval();
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.pool.shutdown();
+  }
+
+  @Benchmark
+  public CorrelationMatrix.Result interval() {
+    final int t = this.next;
+    this.next = (this.next + 1) & (SAMPLES - 1);
+    return this.matrix.add(this.returns[t], this.symbols, this.indexReturns[t]);
+  }
+
+  @Benchmark
+  public double rescan() {
+    final int end = this.next;
+    this.next = (this.next + 1) & (SAMPLES - 1);
+    final int n = this.symbols;
+    final double[] means = new double[n];
+    final double[] deviations = new double[n];
+    for (int k = 0; k < this.window; k++) {
+      final double[] sample = this.returns[(end - k) & (SAMPLES - 1)];
+      for (int i = 0; i < n; i++) {
+        means[i] += sample[i] / this.window;
+      }
+    }
+    for (int k = 0; k < this.window; k++) {
+      final double[] sample = this.returns[(end - k) & (SAMPLES - 1)];
+      for (int i = 0; i < n; i++) {
+        final double delta = sample[i] - means[i];
+        deviations[i] += delta * delta;
+      }
+    }
+    double best = -1D;
+    for (int i = 0; i < n; i++) {
+      for (int j = i + 1; j < n; j++) {
+        double covariance = 0D;
+        for (int k = 0; k < this.window; k++) {
+          final double[] sample = this.returns[(end - k) & (SAMPLES - 1)];
+          covariance += (sample[i] - means[i]) * (sample[j] - means[j]);
+        }
+        best = Math.max(best, covariance / Math.sqrt(deviations[i] * deviations[j]));
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,79 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.data.pricing.PricingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.structure.Record;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hand off between the feed reader and a dispatch worker: a producer and
+ * a consumer thread passing frames through one {@link IngestRing}, with and
+ * without producer side drops, and the work the reader still does per frame
+ * to pick the worker.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestRingBenchmark {
+  @Param({"false", "true"})
+  boolean producerDrops;
+
+  IngestRing ring;
+  String[] frames;
+  int next;
+  IngestPipeline pipeline;
+
+  @Setup
+  public void setup() {
+    this.ring = new IngestRing(8192, this.producerDrops);
+    final List<String> frames = Payloads.priceFrames();
+    this.frames = frames.toArray(new String[0]);
+    // Never started, so only offer's routing is exercised by route().
+    this.pipeline = new IngestPipeline(
+        new TwelveDataDispatcher(null, PricingContext.direct()),
+        Record.create(1).slot("workers", 4)
+    );
+  }
+
+  @Benchmark
+  @Group("spsc")
+  public boolean offer() {
+    final String frame = this.frames[this.next];
+    this.next = (this.next + 1) % this.frames.length;
+    if (this.ring.offer(frame, 0L)) {
+      return true;
+    }
+    return this.producerDrops && this.ring.dropOldest();
+  }
+
+  @Benchmark
+  @Group("spsc")
+  public String poll() {
+    return this.ring.poll();
+  }
+
+  @Benchmark
+  @Group("route")
+  public int route() {
+    final String frame = this.frames[this.next];
+    this.next = (this.next + 1) % this.frames.length;
+    return this.pipeline.route(frame) ? this.pipeline.partition(frame) : -1;
+  }
+}
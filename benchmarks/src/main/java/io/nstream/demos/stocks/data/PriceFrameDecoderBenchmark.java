@@ -0,0 +1,85 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.data.pricing.AbstractPricingHandler;
+import io.nstream.demos.stocks.data.pricing.CapturingPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import swim.json.Json;
+import swim.structure.Value;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price frame decode and handler lookup, the per tick work on the WebSocket
+ * thread. {@code jsonParse} is the original {@code onMessage} path, run with
+ * {@code -prof gc} to compare {@code gc.alloc.rate.norm} (bytes per tick).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceFrameDecoderBenchmark {
+  String[] frames;
+  int next;
+
+  final Map<String, AbstractPricingHandler> handlerMap = new ConcurrentHashMap<>();
+  final PricingHandlerIndex handlerIndex = new PricingHandlerIndex();
+  PriceFrameDecoder decoder;
+
+  @Setup
+  public void setup() {
+    List<String> lines = Payloads.priceFrames();
+    this.frames = lines.toArray(new String[0]);
+    for (String frame : this.frames) {
+      String symbol = Json.parse(frame).get("symbol").stringValue();
+      if (!this.handlerMap.containsKey(symbol)) {
+        CapturingPricingHandler handler = new CapturingPricingHandler();
+        this.handlerMap.put(symbol, handler);
+        this.handlerIndex.put(symbol, handler);
+      }
+    }
+    this.decoder = new PriceFrameDecoder(this.handlerIndex);
+  }
+
+  String nextFrame() {
+    String frame = this.frames[this.next];
+    this.next = this.next + 1 == this.frames.length ? 0 : this.next + 1;
+    return frame;
+  }
+
+  @Benchmark
+  public void jsonParse(Blackhole blackhole) {
+    String message = nextFrame();
+    Value value = Json.parse(message);
+    String event = value.getSlot("event").stringValue();
+    if ("price".equals(event)) {
+      String symbol = value.get("symbol").stringValue();
+      AbstractPricingHandler handler = this.handlerMap.get(symbol);
+      if (null != handler) {
+        handler.handleUpdate(value);
+      }
+      blackhole.consume(handler);
+    }
+  }
+
+  @Benchmark
+  public boolean streamingDecode() {
+    return this.decoder.decode(nextFrame());
+  }
+}
@@ -0,0 +1,63 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.json.Json;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the REST request URI for one 50 symbol {@code eod} batch. The client
+ * is constructed but never connected.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TwelveDataClientBenchmark {
+  TwelveDataClient client;
+  Value requestParams;
+
+  @Setup
+  public void setup() {
+    this.client = new TwelveDataClient(null, Uri.parse("/adapter/twelvedata"), "benchmark");
+    List<String> symbols = new ArrayList<>();
+    Json.parse(Payloads.subscribeStatus()).get("success").forEach(item -> {
+      if (symbols.size() < 50) {
+        symbols.add(item.get("symbol").stringValue());
+      }
+    });
+    this.requestParams = Record.of()
+        .slot("symbol", Utils.join(Utils.toItem(symbols)))
+        .slot("nodeUri", "/stock/AAPL")
+        .slot("lane", "updatePreviousClose");
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.client.stop();
+  }
+
+  @Benchmark
+  public Uri buildUri() {
+    return this.client.buildUri("eod", this.requestParams);
+  }
+}
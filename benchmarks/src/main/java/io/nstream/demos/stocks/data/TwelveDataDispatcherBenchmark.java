@@ -0,0 +1,83 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.Payloads;
+import io.nstream.demos.stocks.data.pricing.CapturingPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import swim.json.Json;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code TwelveDataDispatcher.onMessage} over the sample price frames with a
+ * heartbeat every 200 frames, and a 500 symbol {@code subscribe-status}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TwelveDataDispatcherBenchmark {
+  static final String HEARTBEAT = "{\"event\":\"heartbeat\",\"status\":\"ok\"}";
+
+  String[] frames;
+  int next;
+  TwelveDataDispatcher dispatcher;
+
+  String subscribeStatusMessage;
+  Value subscribeStatus;
+  TwelveDataDispatcher subscribeDispatcher;
+
+  @Setup
+  public void setup() {
+    List<String> frames = new ArrayList<>();
+    this.dispatcher = new TwelveDataDispatcher(null, PricingContext.direct());
+    CapturingPricingHandler handler = new CapturingPricingHandler();
+    for (String frame : Payloads.priceFrames()) {
+      if (frames.size() % 200 == 199) {
+        frames.add(HEARTBEAT);
+      }
+      frames.add(frame);
+      this.dispatcher.pricingHandlers().put(Json.parse(frame).get("symbol").stringValue(), handler);
+    }
+    this.frames = frames.toArray(new String[0]);
+
+    this.subscribeStatusMessage = Payloads.subscribeStatus();
+    this.subscribeStatus = Json.parse(this.subscribeStatusMessage);
+    this.subscribeDispatcher = new TwelveDataDispatcher(null, PricingContext.direct());
+  }
+
+  @Benchmark
+  public void onMessage() {
+    String frame = this.frames[this.next];
+    this.next = this.next + 1 == this.frames.length ? 0 : this.next + 1;
+    this.dispatcher.onMessage(frame);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int handleSubscribeStatus() {
+    this.subscribeDispatcher.handleSubscribeStatus(this.subscribeStatus);
+    return this.subscribeDispatcher.pricingHandlers().size();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int onMessageSubscribeStatus() {
+    this.subscribeDispatcher.onMessage(this.subscribeStatusMessage);
+    return this.subscribeDispatcher.pricingHandlers().size();
+  }
+}
@@ -0,0 +1,16 @@
+package io.nstream.demos.stocks.data.pricing;
+
+import swim.structure.Value;
+
+public class CapturingPricingHandler extends AbstractPricingHandler {
+  public Value last;
+
+  public CapturingPricingHandler() {
+    super(null, null, null);
+  }
+
+  @Override
+  public void handleUpdate(Value value) {
+    this.last = value;
+  }
+}
@@ -0,0 +1,122 @@
+package io.nstream.demos.stocks.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The tick history's hot paths on one symbol's day of synthetic ticks (prices
+ * in cents, a few ticks per second, a rising day volume): {@code append}
+ * encodes one tick into the open block, {@code decode} reads the whole day
+ * back from its blocks, and {@code lttb} downsamples the day to a chart's
+ * 1000 points. The encoded bytes per tick are printed at the end of each run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickHistoryBenchmark {
+  @Param({"50000"})
+  int ticks;
+
+  @Param({"4096"})
+  int blockTicks;
+
+  long[] times;
+  double[] prices;
+  double[] volumes;
+  final List<long[]> blocks = new ArrayList<>();
+  final List<Integer> blockCounts = new ArrayList<>();
+  TickBlockWriter writer;
+  TickBuffer day;
+  TickBuffer decoded;
+  int next;
+  long bytes;
+
+  @Setup
+  public void setup() {
+    final SplittableRandom random = new SplittableRandom(42L);
+    this.times = new long[this.ticks];
+    this.prices = new double[this.ticks];
+    this.volumes = new double[this.ticks];
+    long time = 1_700_000_000_000L;
+    double price = 187.23D;
+    double volume = 1000D;
+    for (int i = 0; i < this.ticks; i++) {
+      // The feed stamps ticks in whole seconds.
+      time += random.nextInt(3) == 0 ? 1000L : 0L;
+      price = Math.round((price + (random.nextInt(5) - 2) * 0.01D) * 100D) / 100D;
+      volume += random.nextInt(500);
+      this.times[i] = time;
+      this.prices[i] = price;
+      this.volumes[i] = volume;
+    }
+
+    this.day = new TickBuffer(this.ticks);
+    this.bytes = 0L;
+    TickBlockWriter block = null;
+    for (int i = 0; i < this.ticks; i++) {
+      if (null == block) {
+        block = new TickBlockWriter(this.blockTicks);
+      }
+      block.append(this.times[i], this.prices[i], this.volumes[i]);
+      this.day.add(this.times[i], this.prices[i], this.volumes[i]);
+      if (block.count == this.blockTicks || i == this.ticks - 1) {
+        this.blocks.add(block.out.toWords());
+        this.blockCounts.add(block.count);
+        this.bytes += block.bytes();
+        block = null;
+      }
+    }
+    this.decoded = new TickBuffer(this.ticks);
+    this.writer = new TickBlockWriter(this.blockTicks);
+  }
+
+  @TearDown
+  public void tearDown() {
+    System.out.printf("%n%.2f bytes per tick over %d ticks, %d raw%n", (double) this.bytes / this.ticks,
+        this.ticks, 8 * 3);
+  }
+
+  @Benchmark
+  public int append() {
+    final int i = this.next;
+    this.next = this.next + 1 == this.ticks ? 0 : this.next + 1;
+    if (this.writer.count == this.blockTicks || i == 0) {
+      this.writer = new TickBlockWriter(this.blockTicks);
+    }
+    this.writer.append(this.times[i], this.prices[i], this.volumes[i]);
+    return this.writer.count;
+  }
+
+  @Benchmark
+  public int decode() {
+    this.decoded.size = 0;
+    for (int i = 0; i < this.blocks.size(); i++) {
+      TickBlockWriter.decode(this.blocks.get(i), this.blockCounts.get(i), Long.MIN_VALUE, Long.MAX_VALUE,
+          this.decoded);
+    }
+    return this.decoded.size();
+  }
+
+  @Benchmark
+  public int[] lttb() {
+    return Lttb.select(this.day, 1000);
+  }
+}
@@ -0,0 +1,63 @@
+package io.nstream.demos.stocks.loadtest;
+
+import io.nstream.demos.stocks.metrics.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Matches what simulated clients receive back to when the synthetic feed sent
+ * it. Every tick of a symbol carries a price whose last two of four decimals
+ * are its sequence number, so the price alone identifies the tick among the
+ * last {@link #RING} sent for that symbol.
+ */
+final class LatencyTracker {
+  static final int RING = 64;
+
+  static final class Ring {
+    final long[] prices = new long[RING];
+    final long[] sentAt = new long[RING];
+    int next;
+  }
+
+  final Map<String, Ring> rings = new ConcurrentHashMap<>();
+  final LatencyHistogram latency = new LatencyHistogram();
+  final LongAdder received = new LongAdder();
+  final LongAdder unmatched = new LongAdder();
+
+  void sent(String symbol, long price, long nanos) {
+    final Ring ring = this.rings.computeIfAbsent(symbol, key -> new Ring());
+    synchronized (ring) {
+      ring.prices[ring.next] = price;
+      ring.sentAt[ring.next] = nanos;
+      ring.next = (ring.next + 1) % RING;
+    }
+  }
+
+  void received(String symbol, double price) {
+    final long now = System.nanoTime();
+    this.received.increment();
+    final Ring ring = this.rings.get(symbol);
+    if (null == ring || Double.isNaN(price)) {
+      this.unmatched.increment();
+      return;
+    }
+    final long key = Math.round(price * 1e4D);
+    long sentAt = 0L;
+    synchronized (ring) {
+      for (int i = 1; i <= RING; i++) {
+        final int slot = (ring.next - i + RING) % RING;
+        if (ring.prices[slot] == key && ring.sentAt[slot] != 0L) {
+          sentAt = ring.sentAt[slot];
+          break;
+        }
+      }
+    }
+    if (0L == sentAt) {
+      this.unmatched.increment();
+    } else {
+      this.latency.recordValue(now - sentAt);
+    }
+  }
+}
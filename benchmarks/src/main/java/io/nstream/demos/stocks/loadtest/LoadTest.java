@@ -0,0 +1,185 @@
+package io.nstream.demos.stocks.loadtest;
+
+import io.nstream.demos.stocks.metrics.LatencyHistogram;
+import swim.client.ClientRuntime;
+import swim.structure.Value;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end capacity test. Runs a synthetic TwelveData feed for the server to
+ * connect to, opens simulated browser sessions against the server, then steps
+ * the tick rate through {@code --rates}. For every step it reports the ticks
+ * sent, the ticks the server ingested, the updates the sessions received, the
+ * send to receipt latency percentiles and the server heap and CPU from
+ * {@code /metrics}, as one CSV line of a capacity curve.
+ * <pre>
+ * java -cp target/benchmarks.jar io.nstream.demos.stocks.loadtest.LoadTest --rates 1000,5000,20000
+ * </pre>
+ * Start the server with {@code TWELVEDATA_WS_URI=ws://localhost:8765/v1/quotes/price}
+ * and any {@code TOKEN}.
+ */
+public final class LoadTest {
+  static final String HEADER = "offered_tps,sent_tps,server_tps,client_ups,unmatched_ups,"
+      + "p50_ms,p90_ms,p99_ms,p999_ms,max_ms,heap_used_mb,process_cpu";
+
+  static final class ServerMonitor {
+    final ClientRuntime client = new ClientRuntime();
+    double ticks;
+    int samples;
+    long heapUsed;
+    double cpu;
+    int cpuSamples;
+
+    void open(String hostUri) {
+      this.client.start();
+      this.client.downlinkValue().hostUri(hostUri).nodeUri("/metrics").laneUri("throughput")
+          .didSet((newValue, oldValue) -> sample(newValue, null))
+          .open();
+      this.client.downlinkValue().hostUri(hostUri).nodeUri("/metrics").laneUri("jvm")
+          .didSet((newValue, oldValue) -> sample(null, newValue))
+          .open();
+    }
+
+    synchronized void sample(Value throughput, Value jvm) {
+      if (null != throughput && throughput.get("ticksPerSecond").isDefined()) {
+        this.ticks += throughput.get("ticksPerSecond").doubleValue();
+        this.samples++;
+      }
+      if (null != jvm && jvm.get("heapUsed").isDefined()) {
+        this.heapUsed = Math.max(this.heapUsed, jvm.get("heapUsed").longValue());
+        if (jvm.get("processCpuLoad").isDefined()) {
+          this.cpu += jvm.get("processCpuLoad").doubleValue();
+          this.cpuSamples++;
+        }
+      }
+    }
+
+    synchronized String drain() {
+      final String line = String.format(Locale.ROOT, "%.0f,%d,%.3f",
+          this.samples == 0 ? Double.NaN : this.ticks / this.samples,
+          this.heapUsed,
+          this.cpuSamples == 0 ? Double.NaN : this.cpu / this.cpuSamples);
+      this.ticks = 0D;
+      this.samples = 0;
+      this.heapUsed = 0L;
+      this.cpu = 0D;
+      this.cpuSamples = 0;
+      return line;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> options = options(args);
+    final String hostUri = options.getOrDefault("host", "warp://localhost:9001");
+    final int port = Integer.parseInt(options.getOrDefault("port", "8765"));
+    final String[] rates = options.getOrDefault("rates", "500,1000,2000,5000,10000,20000").split(",");
+    final long warmup = Long.parseLong(options.getOrDefault("warmup", "10"));
+    final long duration = Long.parseLong(options.getOrDefault("duration", "30"));
+    final int sessions = Integer.parseInt(options.getOrDefault("sessions", "10"));
+    final int statusLinks = Integer.parseInt(options.getOrDefault("status-links", "5"));
+    final int extraSymbols = Integer.parseInt(options.getOrDefault("extra-symbols", "0"));
+    final Path out = Path.of(options.getOrDefault("out", "capacity.csv"));
+
+    final LatencyTracker tracker = new LatencyTracker();
+    final SyntheticFeedServer feed = new SyntheticFeedServer(port, tracker, extraSymbols);
+    feed.start();
+    System.out.printf("Waiting for the server to subscribe; start it with TWELVEDATA_WS_URI=ws://localhost:%d/v1/quotes/price%n", port);
+    final String[] symbols = awaitSubscriptions(feed);
+    System.out.printf("%d symbols subscribed%n", symbols.length);
+
+    final ServerMonitor monitor = new ServerMonitor();
+    monitor.open(hostUri);
+    final SplittableRandom random = new SplittableRandom(11L);
+    final List<SimulatedSession> clients = new ArrayList<>();
+    for (int i = 0; i < sessions; i++) {
+      final List<String> statusSymbols = new ArrayList<>();
+      for (int j = 0; j < statusLinks; j++) {
+        statusSymbols.add(symbols[random.nextInt(symbols.length)]);
+      }
+      final SimulatedSession session = new SimulatedSession();
+      session.open(hostUri, statusSymbols, tracker);
+      clients.add(session);
+    }
+
+    try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+      writer.println(HEADER);
+      System.out.println(HEADER);
+      for (String step : rates) {
+        final int rate = Integer.parseInt(step.trim());
+        feed.ticksPerSecond(rate);
+        TimeUnit.SECONDS.sleep(warmup);
+        tracker.latency.snapshot();
+        tracker.received.reset();
+        tracker.unmatched.reset();
+        feed.sent.reset();
+        monitor.drain();
+
+        final long started = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        final double seconds = (System.nanoTime() - started) / 1e9D;
+        final LatencyHistogram.Snapshot latency = tracker.latency.snapshot();
+        final String[] server = monitor.drain().split(",");
+        final String line = String.format(Locale.ROOT, "%d,%.0f,%s,%.0f,%.0f,%.2f,%.2f,%.2f,%.2f,%.2f,%s,%s",
+            rate,
+            feed.sent.sumThenReset() / seconds,
+            server[0],
+            tracker.received.sumThenReset() / seconds,
+            tracker.unmatched.sumThenReset() / seconds,
+            latency.valueAt(0.5D) / 1e6D,
+            latency.valueAt(0.9D) / 1e6D,
+            latency.valueAt(0.99D) / 1e6D,
+            latency.valueAt(0.999D) / 1e6D,
+            latency.max() / 1e6D,
+            server[1],
+            server[2]);
+        writer.println(line);
+        writer.flush();
+        System.out.println(line);
+      }
+    } finally {
+      feed.ticksPerSecond(0);
+      clients.forEach(SimulatedSession::close);
+      monitor.client.stop();
+      feed.shutdown();
+    }
+    System.out.printf("Capacity curve written to %s%n", out.toAbsolutePath());
+  }
+
+  static String[] awaitSubscriptions(SyntheticFeedServer feed) throws InterruptedException {
+    // The server subscribes in groups; wait until no new group has arrived for a few seconds.
+    int seen = 0;
+    int quiet = 0;
+    while (seen == 0 || quiet < 3) {
+      TimeUnit.SECONDS.sleep(1L);
+      final int now = feed.symbols().length;
+      quiet = now == seen ? quiet + 1 : 0;
+      seen = now;
+    }
+    return feed.symbols();
+  }
+
+  static Map<String, String> options(String[] args) throws IOException {
+    final Map<String, String> options = new HashMap<>();
+    for (int i = 0; i < args.length; i++) {
+      if (!args[i].startsWith("--") || i + 1 == args.length) {
+        throw new IOException("Usage: LoadTest [--host warp://localhost:9001] [--port 8765] [--rates 500,1000]"
+            + " [--warmup 10] [--duration 30] [--sessions 10] [--status-links 5] [--extra-symbols 0]"
+            + " [--out capacity.csv]");
+      }
+      options.put(args[i].substring(2), args[++i]);
+    }
+    return options;
+  }
+}
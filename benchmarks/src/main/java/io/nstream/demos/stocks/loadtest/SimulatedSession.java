@@ -0,0 +1,48 @@
+package io.nstream.demos.stocks.loadtest;
+
+import swim.api.downlink.MapDownlink;
+import swim.api.downlink.ValueDownlink;
+import swim.client.ClientRuntime;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One browser's worth of links: the {@code /symbols} {@code stocks} join lane
+ * plus the {@code status} lane of a few stocks, on a client runtime (and so a
+ * WebSocket connection) of its own.
+ */
+final class SimulatedSession {
+  final ClientRuntime client = new ClientRuntime();
+  final List<ValueDownlink<Value>> statusLinks = new ArrayList<>();
+  MapDownlink<Value, Value> stocksLink;
+
+  void open(String hostUri, List<String> statusSymbols, LatencyTracker tracker) {
+    this.client.start();
+    this.stocksLink = this.client.downlinkMap()
+        .hostUri(hostUri)
+        .nodeUri("/symbols")
+        .laneUri("stocks")
+        .didUpdate((key, newValue, oldValue) ->
+            tracker.received(key.stringValue(), newValue.get("price").doubleValue(Double.NaN)))
+        .open();
+    for (String symbol : statusSymbols) {
+      this.statusLinks.add(this.client.downlinkValue()
+          .hostUri(hostUri)
+          .nodeUri("/stock/" + symbol)
+          .laneUri("status")
+          .didSet((newValue, oldValue) ->
+              tracker.received(symbol, newValue.get("price").doubleValue(Double.NaN)))
+          .open());
+    }
+  }
+
+  void close() {
+    this.statusLinks.forEach(ValueDownlink::close);
+    if (null != this.stocksLink) {
+      this.stocksLink.close();
+    }
+    this.client.stop();
+  }
+}
@@ -0,0 +1,193 @@
+package io.nstream.demos.stocks.loadtest;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.json.Json;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for the TwelveData price WebSocket. It answers the server's
+ * subscribe requests the way TwelveData does, optionally adding
+ * {@code extraSymbols} synthetic symbols to the first answer, then sends
+ * random walk {@code price} frames for every subscribed symbol at the current
+ * rate. Point the server at it with {@code TWELVEDATA_WS_URI}.
+ */
+final class SyntheticFeedServer extends WebSocketServer {
+  private static final Logger log = LoggerFactory.getLogger(SyntheticFeedServer.class);
+
+  final LatencyTracker tracker;
+  final int extraSymbols;
+  final LongAdder sent = new LongAdder();
+  final Thread generator;
+
+  volatile WebSocket connection;
+  volatile int ticksPerSecond;
+  volatile boolean running = true;
+
+  // Symbol state, grown by subscriptions; the generator reads a published copy.
+  private final List<String> subscribed = new ArrayList<>();
+  private volatile String[] symbols = new String[0];
+
+  SyntheticFeedServer(int port, LatencyTracker tracker, int extraSymbols) {
+    super(new InetSocketAddress(port));
+    this.tracker = tracker;
+    this.extraSymbols = extraSymbols;
+    this.generator = new Thread(this::generate, "synthetic-feed");
+    this.generator.setDaemon(true);
+    setReuseAddr(true);
+  }
+
+  String[] symbols() {
+    return this.symbols;
+  }
+
+  void ticksPerSecond(int ticksPerSecond) {
+    this.ticksPerSecond = ticksPerSecond;
+  }
+
+  @Override
+  public void onStart() {
+    log.info("onStart() - synthetic feed listening on {}", getAddress());
+    this.generator.start();
+  }
+
+  @Override
+  public void onOpen(WebSocket connection, ClientHandshake handshake) {
+    log.info("onOpen() - server connected from {}", connection.getRemoteSocketAddress());
+    this.connection = connection;
+  }
+
+  @Override
+  public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+    log.warn("onClose() - code = {} reason = '{}'", code, reason);
+    if (connection == this.connection) {
+      this.connection = null;
+    }
+  }
+
+  @Override
+  public void onError(WebSocket connection, Exception ex) {
+    log.error("onError() - ", ex);
+  }
+
+  @Override
+  public void onMessage(WebSocket connection, String message) {
+    final Value value = Json.parse(message);
+    if (!"subscribe".equals(value.get("action").stringValue(null))) {
+      return;
+    }
+    final List<String> requested = new ArrayList<>(
+        Arrays.asList(value.get("params").get("symbols").stringValue("").split(",")));
+    synchronized (this.subscribed) {
+      if (this.subscribed.isEmpty()) {
+        for (int i = 0; i < this.extraSymbols; i++) {
+          requested.add(String.format("SYN%05d", i));
+        }
+      }
+      final Record success = Record.create(requested.size());
+      for (String symbol : requested) {
+        if (symbol.isEmpty()) {
+          continue;
+        }
+        this.subscribed.add(symbol);
+        success.item(
+            Record.create(5)
+                .slot("symbol", symbol)
+                .slot("exchange", "NASDAQ")
+                .slot("mic_code", "XNGS")
+                .slot("country", "United States")
+                .slot("type", "COMMON_STOCK")
+        );
+      }
+      this.symbols = this.subscribed.toArray(new String[0]);
+      connection.send(Json.toString(
+          Record.create(5)
+              .slot("event", "subscribe-status")
+              .slot("status", "ok")
+              .slot("success", success)
+              .slot("current", this.subscribed.size())
+              .slot("fails", Record.create())
+      ));
+    }
+  }
+
+  void generate() {
+    final SplittableRandom random = new SplittableRandom(7L);
+    double[] prices = new double[0];
+    long[] volumes = new long[0];
+    int[] sequences = new int[0];
+    final StringBuilder frame = new StringBuilder(256);
+    double credit = 0D;
+    long last = System.nanoTime();
+    while (this.running) {
+      final String[] symbols = this.symbols;
+      final WebSocket connection = this.connection;
+      final int rate = this.ticksPerSecond;
+      final long now = System.nanoTime();
+      if (rate <= 0 || symbols.length == 0 || null == connection || !connection.isOpen()) {
+        credit = 0D;
+        last = now;
+        LockSupport.parkNanos(1_000_000L);
+        continue;
+      }
+      if (prices.length < symbols.length) {
+        final int from = prices.length;
+        prices = Arrays.copyOf(prices, symbols.length);
+        volumes = Arrays.copyOf(volumes, symbols.length);
+        sequences = Arrays.copyOf(sequences, symbols.length);
+        for (int i = from; i < symbols.length; i++) {
+          prices[i] = 20D + random.nextDouble(480D);
+        }
+      }
+      // At most a second of backlog, so a stall does not turn into a burst.
+      credit = Math.min(rate, credit + (now - last) * (rate / 1e9D));
+      last = now;
+      while (credit >= 1D) {
+        credit -= 1D;
+        final int i = random.nextInt(symbols.length);
+        prices[i] = Math.max(1D, prices[i] * (1D + random.nextDouble(-5e-4D, 5e-4D)));
+        volumes[i] += 1 + random.nextInt(500);
+        sequences[i] = (sequences[i] + 1) % 100;
+        // Price in 1/10000ths: two decimals of walk, then the sequence number.
+        final long price = Math.round(prices[i] * 100D) * 100L + sequences[i];
+        frame.setLength(0);
+        frame.append("{\"event\":\"price\",\"symbol\":\"").append(symbols[i])
+            .append("\",\"currency\":\"USD\",\"exchange\":\"NASDAQ\",\"mic_code\":\"XNGS\",\"type\":\"Common Stock\"")
+            .append(",\"timestamp\":").append(System.currentTimeMillis() / 1000L)
+            .append(",\"price\":").append(price / 10000L).append('.');
+        final long fraction = price % 10000L;
+        if (fraction < 1000L) {
+          frame.append('0');
+        }
+        if (fraction < 100L) {
+          frame.append('0');
+        }
+        if (fraction < 10L) {
+          frame.append('0');
+        }
+        frame.append(fraction).append(",\"day_volume\":").append(volumes[i]).append('}');
+        this.tracker.sent(symbols[i], price, System.nanoTime());
+        connection.send(frame.toString());
+        this.sent.increment();
+      }
+      LockSupport.parkNanos(200_000L);
+    }
+  }
+
+  void shutdown() throws InterruptedException {
+    this.running = false;
+    stop(1000);
+  }
+}
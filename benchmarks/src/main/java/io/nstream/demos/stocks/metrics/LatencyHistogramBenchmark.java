@@ -0,0 +1,52 @@
+package io.nstream.demos.stocks.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one stage latency, including the {@code System.nanoTime}
+ * call each stage pays, alone and with four threads recording into the same
+ * histogram the way stock agents share {@code update} and {@code publish}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LatencyHistogramBenchmark {
+  final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Benchmark
+  public long nanoTime() {
+    return System.nanoTime();
+  }
+
+  @Benchmark
+  public void recordValue() {
+    this.histogram.recordValue(ThreadLocalRandom.current().nextLong(200L, 20000L));
+  }
+
+  @Benchmark
+  public void stamp() {
+    final long started = System.nanoTime();
+    this.histogram.recordValue(System.nanoTime() - started);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void recordValueContended() {
+    this.histogram.recordValue(ThreadLocalRandom.current().nextLong(200L, 20000L));
+  }
+}
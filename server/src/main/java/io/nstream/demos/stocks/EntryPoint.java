@@ -1,19 +1,65 @@
 package io.nstream.demos.stocks;
 
+import io.nstream.demos.stocks.history.HistoryServer;
+import io.nstream.demos.stocks.history.TickHistory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import swim.kernel.Kernel;
 import swim.server.ServerLoader;
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.io.IOException;
 
 public class EntryPoint {
 
   private static final Logger log = LoggerFactory.getLogger(EntryPoint.class);
 
-  public static void main(String[] args) throws InterruptedException {
+  public static void main(String[] args) throws InterruptedException, IOException {
     log.info("Loading Kernel");
-    final Kernel kernel = ServerLoader.loadServer();
+    final String port = System.getenv("PORT");
+    final Kernel kernel;
+    if (null == port) {
+      kernel = ServerLoader.loadServer();
+    } else {
+      // Lets several partitions run side by side on one machine from the same server.recon.
+      final ClassLoader classLoader = EntryPoint.class.getClassLoader();
+      final Value config = withPort(ServerLoader.loadConfig(classLoader), Integer.parseInt(port.trim()));
+      kernel = ServerLoader.loadServer(classLoader, config);
+      log.info("Listening on port {}", port);
+    }
     kernel.start();
+    final String historyPort = System.getenv("HISTORY_PORT");
+    if (null != historyPort && TickHistory.shared().isEnabled()) {
+      new HistoryServer(TickHistory.shared()).start(Integer.parseInt(historyPort.trim()));
+    }
     log.info("Running Stock Plane");
     kernel.run();
   }
+
+  /**
+   * @return {@code config} with the port of its {@code @web} service replaced
+   */
+  static Value withPort(Value config, int port) {
+    final Record result = Record.create(config.length());
+    for (Item item : config) {
+      if ("web".equals(item.tag())) {
+        final Record web = Record.create(item.length());
+        web.attr("web", item.toValue().header("web").updated("port", Num.from(port)));
+        boolean first = true;
+        for (Item member : item) {
+          if (!first) {
+            web.add(member);
+          }
+          first = false;
+        }
+        result.add(web);
+      } else {
+        result.add(item);
+      }
+    }
+    return result;
+  }
 }
@@ -0,0 +1,172 @@
+package io.nstream.demos.stocks;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.uri.Uri;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Which replica owns each {@code /stock/:symbol} agent when the server runs as
+ * several partitions. Every replica is configured the same way and works out
+ * the same owner for a symbol, so the ingest replica can send each tick
+ * straight to it:
+ * <ul>
+ * <li>{@code PARTITIONS}: how many replicas there are (default 1)</li>
+ * <li>{@code PARTITION}: this replica's index, otherwise taken from the
+ * ordinal a StatefulSet puts at the end of {@code HOSTNAME}
+ * (demo-stocks-live-2), otherwise 0</li>
+ * <li>{@code PARTITION_HOSTS}: every replica's warp URI in index order,
+ * either comma separated or one pattern with {@code %d} for the index</li>
+ * </ul>
+ * Replica 0 connects to the feed. Symbols are placed with a jump consistent
+ * hash, so going from n to n + 1 replicas only moves a 1 / (n + 1) share of
+ * them.
+ */
+public final class Partitions {
+  private static final Logger log = LoggerFactory.getLogger(Partitions.class);
+  private static Partitions shared;
+
+  final int count;
+  final int index;
+  final Uri[] hosts;
+
+  Partitions(int count, int index, Uri[] hosts) {
+    if (count < 1 || index < 0 || index >= count) {
+      throw new IllegalStateException(String.format("Partition %d of %d is out of range", index, count));
+    }
+    if (count > 1 && hosts.length != count) {
+      throw new IllegalStateException(String.format("PARTITION_HOSTS lists %d hosts for %d partitions",
+          hosts.length, count));
+    }
+    this.count = count;
+    this.index = index;
+    this.hosts = hosts;
+  }
+
+  public static synchronized Partitions shared() {
+    if (null == shared) {
+      shared = fromEnvironment();
+      if (shared.isPartitioned()) {
+        log.info("shared() - partition {} of {}, hosts = {}", shared.index, shared.count, Arrays.toString(shared.hosts));
+      }
+    }
+    return shared;
+  }
+
+  static Partitions fromEnvironment() {
+    final String partitions = System.getenv("PARTITIONS");
+    final int count = null != partitions ? Integer.parseInt(partitions.trim()) : 1;
+    if (count == 1) {
+      return new Partitions(1, 0, new Uri[0]);
+    }
+    final String partition = System.getenv("PARTITION");
+    final int index = null != partition ? Integer.parseInt(partition.trim()) : ordinal(System.getenv("HOSTNAME"));
+    final String hosts = System.getenv("PARTITION_HOSTS");
+    if (null == hosts) {
+      throw new IllegalStateException("Environment Variable PARTITION_HOSTS must be configured when PARTITIONS > 1.");
+    }
+    return new Partitions(count, index, parseHosts(hosts, count));
+  }
+
+  static int ordinal(String hostname) {
+    if (null == hostname) {
+      return 0;
+    }
+    final int dash = hostname.lastIndexOf('-');
+    try {
+      return dash >= 0 ? Integer.parseInt(hostname.substring(dash + 1)) : 0;
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  static Uri[] parseHosts(String hosts, int count) {
+    final String[] parsed;
+    if (hosts.contains("%d")) {
+      parsed = new String[count];
+      for (int i = 0; i < count; i++) {
+        parsed[i] = String.format(Locale.ROOT, hosts.trim(), i);
+      }
+    } else {
+      parsed = hosts.split(",");
+    }
+    final Uri[] uris = new Uri[parsed.length];
+    for (int i = 0; i < parsed.length; i++) {
+      uris[i] = Uri.parse(parsed[i].trim());
+    }
+    return uris;
+  }
+
+  public boolean isPartitioned() {
+    return this.count > 1;
+  }
+
+  public int count() {
+    return this.count;
+  }
+
+  public int index() {
+    return this.index;
+  }
+
+  /**
+   * @return whether this replica connects to the feed
+   */
+  public boolean isIngest() {
+    return this.index == 0;
+  }
+
+  public int owner(String symbol) {
+    return this.count == 1 ? 0 : jump(hash(symbol), this.count);
+  }
+
+  public boolean isLocal(String symbol) {
+    return owner(symbol) == this.index;
+  }
+
+  /**
+   * @return the host of the replica owning {@code symbol}, or {@code null}
+   * when it is this one and no host is needed
+   */
+  public Uri hostOf(String symbol) {
+    return host(owner(symbol));
+  }
+
+  /**
+   * @return the host of {@code partition}, or {@code null} for this replica
+   */
+  public Uri host(int partition) {
+    return partition == this.index ? null : this.hosts[partition];
+  }
+
+  /**
+   * @return the host of the ingest replica, or {@code null} for this replica
+   */
+  public Uri ingestHost() {
+    return host(0);
+  }
+
+  // FNV-1a; String.hashCode is too weak in the low bits for short tickers.
+  public static long hash(String symbol) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < symbol.length(); i++) {
+      h ^= symbol.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  // Lamping and Veach, "A Fast, Minimal Memory, Consistent Hash Algorithm".
+  static int jump(long key, int buckets) {
+    long b = -1L;
+    long j = 0L;
+    while (j < buckets) {
+      b = j;
+      key = key * 2862933555777941757L + 1L;
+      j = (long) ((b + 1L) * ((double) (1L << 31) / (double) ((key >>> 33) + 1L)));
+    }
+    return (int) b;
+  }
+}
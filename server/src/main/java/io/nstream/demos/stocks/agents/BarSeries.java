@@ -0,0 +1,136 @@
+package io.nstream.demos.stocks.agents;
+
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Text;
+import swim.structure.Value;
+
+/**
+ * Fixed capacity ring of OHLCV bars at one resolution, held in parallel
+ * primitive arrays so a tick only writes doubles into the current bar. When a
+ * tick falls into a new bar the oldest bar is overwritten once the ring is full.
+ * A bar costs 48 bytes here (start, open, high, low, close, volume); see
+ * {@code StockAgent} for the per symbol budget including the published lanes.
+ */
+public class BarSeries {
+  public static final int UPDATED = 1;
+  public static final int OPENED = 1 << 1;
+  public static final int EVICTED = 1 << 2;
+
+  static final Value START = Text.from("start");
+  static final Value OPEN = Text.from("open");
+  static final Value HIGH = Text.from("high");
+  static final Value LOW = Text.from("low");
+  static final Value CLOSE = Text.from("close");
+  static final Value VOLUME = Text.from("volume");
+
+  final long resolution;
+  final int capacity;
+  final long[] start;
+  final double[] open;
+  final double[] high;
+  final double[] low;
+  final double[] close;
+  final double[] volume;
+  int head = -1;
+  int size;
+  long evictedStart;
+  double lastDayVolume = Double.NaN;
+
+  public BarSeries(long resolutionMillis, int capacity) {
+    this.resolution = resolutionMillis;
+    this.capacity = capacity;
+    this.start = new long[capacity];
+    this.open = new double[capacity];
+    this.high = new double[capacity];
+    this.low = new double[capacity];
+    this.close = new double[capacity];
+    this.volume = new double[capacity];
+  }
+
+  public long resolution() {
+    return this.resolution;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public long currentStart() {
+    return this.start[this.head];
+  }
+
+  /**
+   * Start of the bar that the last {@link #EVICTED} result pushed out of the ring.
+   */
+  public long evictedStart() {
+    return this.evictedStart;
+  }
+
+  public void clear() {
+    this.head = -1;
+    this.size = 0;
+    this.lastDayVolume = Double.NaN;
+  }
+
+  /**
+   * Folds a tick into the current bar, opening a new one when the tick falls
+   * past its end. Ticks older than the current bar are ignored so closed bars
+   * never change.
+   *
+   * @param dayVolume cumulative day volume, or NaN when the tick has none
+   * @return a combination of {@link #UPDATED}, {@link #OPENED} and
+   * {@link #EVICTED}, or 0 if the tick was ignored
+   */
+  public int tick(long timeMillis, double price, double dayVolume) {
+    final long barStart = timeMillis - Math.floorMod(timeMillis, this.resolution);
+    int result;
+    if (this.size == 0 || barStart > this.start[this.head]) {
+      result = UPDATED | OPENED;
+      this.head = this.head + 1 == this.capacity ? 0 : this.head + 1;
+      if (this.size == this.capacity) {
+        this.evictedStart = this.start[this.head];
+        result |= EVICTED;
+      } else {
+        this.size++;
+      }
+      this.start[this.head] = barStart;
+      this.open[this.head] = price;
+      this.high[this.head] = price;
+      this.low[this.head] = price;
+      this.close[this.head] = price;
+      this.volume[this.head] = 0D;
+    } else if (barStart < this.start[this.head]) {
+      return 0;
+    } else {
+      result = UPDATED;
+      if (price > this.high[this.head]) {
+        this.high[this.head] = price;
+      }
+      if (price < this.low[this.head]) {
+        this.low[this.head] = price;
+      }
+      this.close[this.head] = price;
+    }
+
+    if (!Double.isNaN(dayVolume)) {
+      // day_volume is cumulative; it resets at the start of a session, which is not bar volume
+      if (!Double.isNaN(this.lastDayVolume) && dayVolume >= this.lastDayVolume) {
+        this.volume[this.head] += dayVolume - this.lastDayVolume;
+      }
+      this.lastDayVolume = dayVolume;
+    }
+    return result;
+  }
+
+  public Value currentValue() {
+    final int i = this.head;
+    return Record.create(6)
+        .slot(START, Num.from(this.start[i]))
+        .slot(OPEN, Num.from(this.open[i]))
+        .slot(HIGH, Num.from(this.high[i]))
+        .slot(LOW, Num.from(this.low[i]))
+        .slot(CLOSE, Num.from(this.close[i]))
+        .slot(VOLUME, Num.from(this.volume[i]));
+  }
+}
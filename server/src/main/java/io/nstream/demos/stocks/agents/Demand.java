@@ -0,0 +1,165 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Partitions;
+import swim.api.agent.AbstractAgent;
+import swim.api.warp.WarpUplink;
+import swim.concurrent.TimerRef;
+import swim.structure.Record;
+import swim.structure.Text;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Tells the adapter which symbols an agent needs streamed while remote
+ * clients are linked to it. Pass {@link #didUplink(WarpUplink)} to the lanes
+ * clients read. Links from other agents, such as the {@code /symbols} join,
+ * are not remote and do not count (they are only kept for
+ * {@link #agentLinks()}). Neither do links from agents on other replicas,
+ * such as a stock's mirror or an index's join to the owning replica: they are
+ * remote, but open with the {@link #PEER} body. So demand only starts at a
+ * client and reaches the feed through whichever agent it watches, on
+ * whichever replica the client is on. Uplinks are swept
+ * every {@link #SWEEP_MILLIS}, and demand is released once no client has been
+ * linked for {@link #LINGER_MILLIS}, so flicking between views does not churn
+ * subscriptions. Reports go to the adapter on the ingest replica.
+ */
+final class Demand {
+  static final Uri ADAPTER = Uri.parse("/adapter/twelvedata");
+  static final Uri DEMAND = Uri.parse("demand");
+  static final long SWEEP_MILLIS = 5000L;
+  static final long LINGER_MILLIS = 30000L;
+  // Body of the links agents open to other replicas, so the far end does not count them as clients.
+  static final Value PEER = Text.from("peer");
+
+  final AbstractAgent agent;
+  final Supplier<? extends Iterable<String>> symbols;
+  final List<WarpUplink> uplinks = new ArrayList<>();
+  final List<WarpUplink> agentLinks = new ArrayList<>();
+  boolean active;
+  boolean changed;
+  int pins;
+  long idleSince;
+  TimerRef sweepTimer;
+
+  Demand(AbstractAgent agent, Supplier<? extends Iterable<String>> symbols) {
+    this.agent = agent;
+    this.symbols = symbols;
+  }
+
+  void didUplink(WarpUplink uplink) {
+    if (!uplink.isRemote() || PEER.equals(uplink.body())) {
+      this.agentLinks.add(uplink);
+      return;
+    }
+    this.uplinks.add(uplink);
+    this.idleSince = 0L;
+    if (!this.active) {
+      this.active = true;
+      report();
+    }
+    scheduleSweep();
+  }
+
+  /**
+   * Holds demand while something other than a client needs the symbols, such
+   * as a screen, until a matching {@link #unpin()}.
+   */
+  void pin() {
+    this.pins++;
+    this.idleSince = 0L;
+    if (!this.active) {
+      this.active = true;
+      report();
+    }
+    scheduleSweep();
+  }
+
+  void unpin() {
+    this.pins = Math.max(0, this.pins - 1);
+  }
+
+  /**
+   * @return how many links from other agents are still open
+   */
+  int agentLinks() {
+    this.agentLinks.removeIf(uplink -> !uplink.isConnected());
+    return this.agentLinks.size();
+  }
+
+  /**
+   * The agent's symbols changed; sent with the next sweep if demanded.
+   */
+  void symbolsChanged() {
+    if (this.active) {
+      this.changed = true;
+      scheduleSweep();
+    }
+  }
+
+  void sweep() {
+    this.sweepTimer = null;
+    this.uplinks.removeIf(uplink -> !uplink.isConnected());
+    if (!this.uplinks.isEmpty() || this.pins > 0) {
+      this.idleSince = 0L;
+    } else if (this.active) {
+      final long now = System.currentTimeMillis();
+      if (0L == this.idleSince) {
+        this.idleSince = now;
+      } else if (now - this.idleSince >= LINGER_MILLIS) {
+        this.active = false;
+        this.changed = false;
+        report();
+      }
+    }
+    if (this.changed) {
+      this.changed = false;
+      report();
+    }
+    if (this.active) {
+      scheduleSweep();
+    }
+  }
+
+  void scheduleSweep() {
+    if (null == this.sweepTimer) {
+      this.sweepTimer = this.agent.setTimer(SWEEP_MILLIS, this::sweep);
+    }
+  }
+
+  void report() {
+    final Record symbols = Record.create();
+    if (this.active) {
+      this.symbols.get().forEach(symbols::item);
+    }
+    final Partitions partitions = Partitions.shared();
+    final Record report = Record.create(4)
+        .slot("source", this.agent.nodeUri().toString())
+        .slot("partition", partitions.index())
+        .slot("symbols", symbols)
+        .slot("active", this.active);
+    final Uri ingestHost = partitions.ingestHost();
+    if (null == ingestHost) {
+      this.agent.command(ADAPTER, DEMAND, report);
+    } else {
+      this.agent.command(ingestHost, ADAPTER, DEMAND, report);
+    }
+  }
+
+  void stop() {
+    if (null != this.sweepTimer) {
+      this.sweepTimer.cancel();
+      this.sweepTimer = null;
+    }
+    this.uplinks.clear();
+    this.agentLinks.clear();
+    this.pins = 0;
+    if (this.active) {
+      this.active = false;
+      report();
+    }
+  }
+}
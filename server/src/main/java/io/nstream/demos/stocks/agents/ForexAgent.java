@@ -0,0 +1,171 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Partitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.JoinValueLane;
+import swim.api.lane.ValueLane;
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Text;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One currency pair at {@code /forex/:base/:quote}. A pair TwelveData quotes
+ * directly is fed through {@code update}; a cross such as EUR/JPY is told its
+ * two legs through {@code derive} and recomputes from them, so a leg tick only
+ * touches the crosses that join it. Pairs are not partitioned: they are fed
+ * on the ingest replica, and the other replicas mirror its status.
+ */
+public class ForexAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(ForexAgent.class);
+
+  static final Value TIMESTAMP = Text.from("timestamp");
+  static final Value PRICE = Text.from("price");
+  static final Value BID = Text.from("bid");
+  static final Value ASK = Text.from("ask");
+
+  @SwimLane("status")
+  final ValueLane<Value> status = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  @SwimLane("update")
+  final CommandLane<Value> update = this.<Value>commandLane()
+      .onCommand(input -> set(
+          input.get("timestamp").longValue(this.timestamp),
+          input.get("price").doubleValue(Double.NaN),
+          input.get("bid").doubleValue(Double.NaN),
+          input.get("ask").doubleValue(Double.NaN)
+      ));
+
+  // Status of each leg this pair is derived from, keyed by leg symbol.
+  @SwimLane("legs")
+  final JoinValueLane<String, Value> legs = this.<String, Value>joinValueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink))
+      .didUpdate((leg, newValue, oldValue) -> updateLeg(leg, newValue));
+
+  /**
+   * {@code {{symbol: "EUR/USD", inverse: false}, {symbol: "JPY/USD", inverse: true}}}:
+   * this pair is the product of the legs, each inverted if flagged.
+   */
+  @SwimLane("derive")
+  final CommandLane<Value> derive = this.<Value>commandLane()
+      .onCommand(this::derive);
+
+  long timestamp;
+  double price = Double.NaN;
+  double bid = Double.NaN;
+  double ask = Double.NaN;
+
+  final String[] legSymbols = new String[2];
+  final boolean[] legInverse = new boolean[2];
+  final long[] legTimestamp = new long[2];
+  final double[] legPrice = {Double.NaN, Double.NaN};
+  final double[] legBid = {Double.NaN, Double.NaN};
+  final double[] legAsk = {Double.NaN, Double.NaN};
+
+  // A client watching this pair needs it streamed, or for a cross, both of its legs.
+  final Demand demand = new Demand(this, this::demandedSymbols);
+
+  List<String> demandedSymbols() {
+    final List<String> symbols = new ArrayList<>(3);
+    symbols.add(nodeUri().toString().substring("/forex/".length()));
+    for (String leg : this.legSymbols) {
+      if (null != leg) {
+        symbols.add(leg);
+      }
+    }
+    return symbols;
+  }
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    final Uri ingestHost = Partitions.shared().ingestHost();
+    if (null != ingestHost) {
+      downlinkValue().hostUri(ingestHost).nodeUri(nodeUri()).laneUri("status").body(Demand.PEER)
+          .didSet((newValue, oldValue) -> this.status.set(newValue))
+          .open();
+    }
+  }
+
+  void derive(Value input) {
+    if (input.length() != 2) {
+      log.warn("derive() - {} needs two legs, got {}", nodeUri(), input);
+      return;
+    }
+    int i = 0;
+    for (Item item : input) {
+      final String symbol = item.get("symbol").stringValue();
+      if (null != this.legSymbols[i] && !this.legSymbols[i].equals(symbol)) {
+        this.legs.remove(this.legSymbols[i]);
+      }
+      this.legSymbols[i] = symbol;
+      this.legInverse[i] = item.get("inverse").booleanValue(false);
+      this.legs.downlink(symbol)
+          .nodeUri(Uri.parse("/forex/" + symbol))
+          .laneUri("status")
+          .open();
+      i++;
+    }
+    log.info("derive() - {} from {} and {}", nodeUri(), this.legSymbols[0], this.legSymbols[1]);
+    this.demand.symbolsChanged();
+  }
+
+  void updateLeg(String leg, Value legStatus) {
+    final int i = leg.equals(this.legSymbols[0]) ? 0 : leg.equals(this.legSymbols[1]) ? 1 : -1;
+    if (i < 0) {
+      return;
+    }
+    final double price = legStatus.get("price").doubleValue(Double.NaN);
+    final double bid = legStatus.get("bid").doubleValue(Double.NaN);
+    final double ask = legStatus.get("ask").doubleValue(Double.NaN);
+    this.legTimestamp[i] = legStatus.get("timestamp").longValue(0L);
+    if (this.legInverse[i]) {
+      // Inverting a quote swaps its sides: the bid of USD/JPY is 1 / the ask of JPY/USD.
+      this.legPrice[i] = 1D / price;
+      this.legBid[i] = 1D / ask;
+      this.legAsk[i] = 1D / bid;
+    } else {
+      this.legPrice[i] = price;
+      this.legBid[i] = bid;
+      this.legAsk[i] = ask;
+    }
+    set(
+        Math.max(this.legTimestamp[0], this.legTimestamp[1]),
+        this.legPrice[0] * this.legPrice[1],
+        this.legBid[0] * this.legBid[1],
+        this.legAsk[0] * this.legAsk[1]
+    );
+  }
+
+  void set(long timestamp, double price, double bid, double ask) {
+    if (Double.isNaN(price)) {
+      return;
+    }
+    if (Double.compare(price, this.price) == 0 && Double.compare(bid, this.bid) == 0
+        && Double.compare(ask, this.ask) == 0) {
+      this.timestamp = timestamp;
+      return;
+    }
+    this.timestamp = timestamp;
+    this.price = price;
+    this.bid = bid;
+    this.ask = ask;
+    this.status.set(
+        Record.create(4)
+            .slot(TIMESTAMP, Num.from(timestamp))
+            .slot(PRICE, Num.from(price))
+            .slot(BID, Double.isNaN(bid) ? Value.absent() : Num.from(bid))
+            .slot(ASK, Double.isNaN(ask) ? Value.absent() : Num.from(ask))
+    );
+  }
+}
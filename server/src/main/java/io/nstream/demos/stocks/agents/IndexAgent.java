@@ -0,0 +1,172 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Partitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.downlink.ValueDownlink;
+import swim.api.lane.JoinValueLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Live aggregate over a fixed set of constituents, configured on the node in
+ * server.recon:
+ * <pre>
+ * constituents: { AAPL: 15.4, MSFT: 7.4 }  (or a plain list, weight 1 each)
+ * divisor: 1
+ * </pre>
+ * Each constituent keeps its last price and movement in primitive arrays; a
+ * tick subtracts the old contribution from the running sums and adds the new
+ * one, so it costs the same with ten constituents or a thousand. The sums are
+ * rebuilt from the arrays every {@code recomputeInterval} to drop accumulated
+ * floating point error.
+ */
+public class IndexAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(IndexAgent.class);
+
+  @SwimLane("constituents")
+  final JoinValueLane<String, Value> constituents = this.<String, Value>joinValueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink))
+      .didUpdate((symbol, newValue, oldValue) -> onStatus(symbol, newValue));
+
+  // value is sum(weight * price) / divisor; weightedMovement is the mean movement weighted by
+  // weight * previous close, which is the index's own movement since the previous close.
+  @SwimLane("aggregate")
+  final ValueLane<Value> aggregate = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // A client watching the index needs every constituent streamed.
+  final Demand demand = new Demand(this, () -> Arrays.asList(this.symbols));
+
+  final Map<String, Integer> indexOf = new HashMap<>();
+  String[] symbols;
+  double[] weights;
+  double[] prices;
+  double[] movements;
+  double divisor;
+
+  int priced;
+  double weightedPrice;
+  int moving;
+  double movementSum;
+  double weightedMovementSum;
+  double movementWeight;
+  boolean changed;
+
+  long publishInterval;
+  long recomputeInterval;
+  TimerRef publishTimer;
+  TimerRef recomputeTimer;
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    final Value constituents = getProp("constituents");
+    final int size = constituents.length();
+    this.symbols = new String[size];
+    this.weights = new double[size];
+    this.prices = new double[size];
+    this.movements = new double[size];
+    int i = 0;
+    for (Item item : constituents) {
+      final String symbol = item.key().isDefined() ? item.key().stringValue() : item.stringValue();
+      this.indexOf.put(symbol, i);
+      this.symbols[i] = symbol;
+      this.weights[i] = item.key().isDefined() ? item.toValue().doubleValue(1D) : 1D;
+      this.prices[i] = Double.NaN;
+      this.movements[i] = Double.NaN;
+      i++;
+    }
+    this.divisor = getProp("divisor").doubleValue(1D);
+    this.publishInterval = getProp("publishInterval").longValue(100L);
+    this.recomputeInterval = getProp("recomputeInterval").longValue(60000L);
+    log.info("didStart() - {} with {} constituents", nodeUri(), size);
+
+    for (String symbol : this.symbols) {
+      final ValueDownlink<Value> downlink = this.constituents.downlink(symbol);
+      final Uri hostUri = Partitions.shared().hostOf(symbol);
+      if (null != hostUri) {
+        downlink.hostUri(hostUri).body(Demand.PEER);
+      }
+      downlink.nodeUri(Uri.empty().path("/", "stock", symbol))
+          .laneUri("status")
+          .open();
+    }
+    this.publishTimer = this.setTimer(this.publishInterval, this::publish);
+    this.recomputeTimer = this.setTimer(this.recomputeInterval, this::recompute);
+  }
+
+  void onStatus(String symbol, Value status) {
+    final Integer index = this.indexOf.get(symbol);
+    if (null == index) {
+      return;
+    }
+    final int i = index;
+    contribute(i, -1);
+    this.prices[i] = status.get("price").doubleValue(Double.NaN);
+    this.movements[i] = status.get("movement").doubleValue(Double.NaN);
+    contribute(i, 1);
+    this.changed = true;
+  }
+
+  void contribute(int i, int sign) {
+    final double weight = this.weights[i];
+    final double price = this.prices[i];
+    if (!Double.isNaN(price)) {
+      this.priced += sign;
+      this.weightedPrice += sign * weight * price;
+    }
+    final double movement = this.movements[i];
+    if (!Double.isNaN(movement)) {
+      this.moving += sign;
+      this.movementSum += sign * movement;
+      // movement is the percent change from the previous close, so the close is recovered from the price.
+      final double value = weight * price / (1D + movement / 100D);
+      if (value > 0D) {
+        this.weightedMovementSum += sign * value * movement;
+        this.movementWeight += sign * value;
+      }
+    }
+  }
+
+  void recompute() {
+    this.priced = 0;
+    this.weightedPrice = 0D;
+    this.moving = 0;
+    this.movementSum = 0D;
+    this.weightedMovementSum = 0D;
+    this.movementWeight = 0D;
+    for (int i = 0; i < this.symbols.length; i++) {
+      contribute(i, 1);
+    }
+    this.changed = true;
+    this.recomputeTimer = this.setTimer(this.recomputeInterval, this::recompute);
+  }
+
+  void publish() {
+    if (this.changed) {
+      this.changed = false;
+      this.aggregate.set(
+          Record.create(5)
+              .slot("constituents", this.symbols.length)
+              .slot("priced", this.priced)
+              .slot("value", this.weightedPrice / this.divisor)
+              .slot("averageMovement", this.moving == 0 ? Value.absent() : Num.from(this.movementSum / this.moving))
+              .slot("weightedMovement", this.movementWeight == 0D ? Value.absent()
+                  : Num.from(this.weightedMovementSum / this.movementWeight))
+      );
+    }
+    this.publishTimer = this.setTimer(this.publishInterval, this::publish);
+  }
+}
@@ -0,0 +1,328 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.journal.PreviousCloseCache;
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Intraday indicators of one symbol, kept up to date with constant work per
+ * tick in primitive state:
+ * <ul>
+ * <li>{@code vwap}: volume weighted average price, from the growth of the
+ * cumulative day volume between ticks</li>
+ * <li>{@code ema<n>}: exponential moving average of the price over {@code n}
+ * ticks, for each period configured</li>
+ * <li>{@code stddev}: standard deviation of log returns over the last
+ * {@code volatility.window} ticks, by Welford's method with removal</li>
+ * <li>{@code high}, {@code low}: of the day, and {@code rangeHigh},
+ * {@code rangeLow} over the last {@code range.window} ticks, from monotonic
+ * deques</li>
+ * </ul>
+ * Everything starts over with the first tick of a new New York trading date,
+ * so pre-market, the session and after-hours count as one day.
+ */
+final class Indicators {
+
+  final boolean vwap;
+  final int[] emaPeriods;
+  final String[] emaNames;
+  final double[] emaAlphas;
+  final double[] emas;
+  final Returns returns;
+  final Extremes range;
+
+  long day = Long.MIN_VALUE;
+  // The span of that date in epoch millis, so only a tick outside it looks up the zone.
+  long dayStart = Long.MAX_VALUE;
+  long dayEnd = Long.MIN_VALUE;
+  long lastTime = Long.MIN_VALUE;
+  int ticks;
+  double lastPrice;
+  double lastDayVolume = Double.NaN;
+  double notional;
+  double volume;
+  double high;
+  double low;
+
+  Indicators(boolean vwap, int[] emaPeriods, int volatilityWindow, int rangeWindow) {
+    this.vwap = vwap;
+    this.emaPeriods = emaPeriods;
+    this.emaNames = new String[emaPeriods.length];
+    this.emaAlphas = new double[emaPeriods.length];
+    this.emas = new double[emaPeriods.length];
+    for (int i = 0; i < emaPeriods.length; i++) {
+      this.emaNames[i] = "ema" + emaPeriods[i];
+      this.emaAlphas[i] = 2D / (emaPeriods[i] + 1D);
+    }
+    this.returns = volatilityWindow > 1 ? new Returns(volatilityWindow) : null;
+    this.range = rangeWindow > 0 ? new Extremes(rangeWindow) : null;
+  }
+
+  /**
+   * @param config the {@code indicators} prop of the stock agent, such as
+   * {@code {vwap: true, ema: {9, 21}, volatility: {window: 100}, range: {window: 300}}}
+   * @return the indicators it configures, or null when it is absent
+   */
+  static Indicators fromConfig(Value config) {
+    if (!config.isDefined()) {
+      return null;
+    }
+    final Value ema = config.get("ema");
+    final int[] periods = new int[ema.length()];
+    int count = 0;
+    for (Item item : ema) {
+      final int period = item.intValue(0);
+      if (period > 0) {
+        periods[count++] = period;
+      }
+    }
+    return new Indicators(config.get("vwap").booleanValue(false), Arrays.copyOf(periods, count),
+        config.get("volatility").get("window").intValue(0), config.get("range").get("window").intValue(0));
+  }
+
+  static LocalDate tradingDate(long timeMillis) {
+    return Instant.ofEpochMilli(timeMillis).atZone(PreviousCloseCache.NEW_YORK).toLocalDate();
+  }
+
+  // Epoch millis of the first instant of date in New York.
+  static long startOf(LocalDate date) {
+    return date.atStartOfDay(PreviousCloseCache.NEW_YORK).toInstant().toEpochMilli();
+  }
+
+  void clear() {
+    this.ticks = 0;
+    this.lastDayVolume = Double.NaN;
+    this.notional = 0D;
+    this.volume = 0D;
+    if (null != this.returns) {
+      this.returns.clear();
+    }
+    if (null != this.range) {
+      this.range.clear();
+    }
+  }
+
+  /**
+   * Folds in a tick. Ticks older than the last one are ignored, as they are
+   * for the bars.
+   *
+   * @param dayVolume cumulative day volume, or NaN when the tick has none
+   * @return whether the tick was taken
+   */
+  boolean tick(long timeMillis, double price, double dayVolume) {
+    if (timeMillis < this.lastTime || !(price > 0D)) {
+      return false;
+    }
+    if (timeMillis < this.dayStart || timeMillis >= this.dayEnd) {
+      final LocalDate date = tradingDate(timeMillis);
+      this.dayStart = startOf(date);
+      this.dayEnd = startOf(date.plusDays(1L));
+      if (date.toEpochDay() != this.day) {
+        clear();
+        this.day = date.toEpochDay();
+      }
+    }
+    this.lastTime = timeMillis;
+
+    if (this.ticks == 0) {
+      this.high = price;
+      this.low = price;
+      for (int i = 0; i < this.emas.length; i++) {
+        this.emas[i] = price;
+      }
+    } else {
+      if (price > this.high) {
+        this.high = price;
+      }
+      if (price < this.low) {
+        this.low = price;
+      }
+      for (int i = 0; i < this.emas.length; i++) {
+        this.emas[i] += this.emaAlphas[i] * (price - this.emas[i]);
+      }
+      if (null != this.returns) {
+        this.returns.add(Math.log(price / this.lastPrice));
+      }
+    }
+    if (null != this.range) {
+      this.range.add(price);
+    }
+    if (this.vwap && !Double.isNaN(dayVolume)) {
+      // day_volume is cumulative and resets with the session, as in BarSeries.
+      if (!Double.isNaN(this.lastDayVolume) && dayVolume > this.lastDayVolume) {
+        final double traded = dayVolume - this.lastDayVolume;
+        this.notional += traded * price;
+        this.volume += traded;
+      }
+      this.lastDayVolume = dayVolume;
+    }
+    this.lastPrice = price;
+    this.ticks++;
+    return true;
+  }
+
+  Value toValue() {
+    final Record record = Record.create(8 + this.emas.length).slot("time", Num.from(this.lastTime));
+    if (this.ticks == 0) {
+      return record;
+    }
+    if (this.vwap && this.volume > 0D) {
+      record.slot("vwap", Num.from(this.notional / this.volume));
+    }
+    for (int i = 0; i < this.emas.length; i++) {
+      record.slot(this.emaNames[i], Num.from(this.emas[i]));
+    }
+    if (null != this.returns && this.returns.size > 1) {
+      record.slot("stddev", Num.from(this.returns.stddev()));
+    }
+    record.slot("high", Num.from(this.high)).slot("low", Num.from(this.low));
+    if (null != this.range) {
+      record.slot("rangeHigh", Num.from(this.range.max())).slot("rangeLow", Num.from(this.range.min()));
+    }
+    return record;
+  }
+
+  /**
+   * Mean and variance of the last {@code window} values by Welford updates,
+   * the oldest value leaving as the newest comes in. The sums are recomputed
+   * from the ring once per window so rounding can't build up.
+   */
+  static final class Returns {
+    final double[] values;
+    int head;
+    int size;
+    int sinceRecompute;
+    double mean;
+    double m2;
+
+    Returns(int window) {
+      this.values = new double[window];
+    }
+
+    void clear() {
+      this.head = 0;
+      this.size = 0;
+      this.sinceRecompute = 0;
+      this.mean = 0D;
+      this.m2 = 0D;
+    }
+
+    void add(double value) {
+      if (this.size == this.values.length) {
+        // The new value takes the oldest one's place: one step that removes it and adds the new one.
+        final double removed = this.values[this.head];
+        final double mean = this.mean;
+        this.mean += (value - removed) / this.size;
+        this.m2 += (value - removed) * (value - this.mean + removed - mean);
+        if (this.m2 < 0D) {
+          this.m2 = 0D;
+        }
+      } else {
+        this.size++;
+        final double delta = value - this.mean;
+        this.mean += delta / this.size;
+        this.m2 += delta * (value - this.mean);
+      }
+      this.values[this.head] = value;
+      this.head = this.head + 1 == this.values.length ? 0 : this.head + 1;
+      if (++this.sinceRecompute == this.values.length) {
+        recompute();
+      }
+    }
+
+    void recompute() {
+      this.sinceRecompute = 0;
+      double mean = 0D;
+      for (int i = 0; i < this.size; i++) {
+        mean += this.values[i];
+      }
+      mean /= this.size;
+      double m2 = 0D;
+      for (int i = 0; i < this.size; i++) {
+        final double delta = this.values[i] - mean;
+        m2 += delta * delta;
+      }
+      this.mean = mean;
+      this.m2 = m2;
+    }
+
+    double stddev() {
+      return this.size > 1 ? Math.sqrt(this.m2 / (this.size - 1)) : 0D;
+    }
+  }
+
+  /**
+   * Minimum and maximum of the last {@code window} values, each from a deque
+   * of the values that can still become it: a new value drops the ones behind
+   * it that it beats, and the front leaves once it falls out of the window, so
+   * every value is pushed and popped at most once.
+   */
+  static final class Extremes {
+    final int window;
+    final long[] maxIndex;
+    final double[] maxValue;
+    final long[] minIndex;
+    final double[] minValue;
+    int maxHead;
+    int maxSize;
+    int minHead;
+    int minSize;
+    long index;
+
+    Extremes(int window) {
+      this.window = window;
+      this.maxIndex = new long[window];
+      this.maxValue = new double[window];
+      this.minIndex = new long[window];
+      this.minValue = new double[window];
+    }
+
+    void clear() {
+      this.maxHead = 0;
+      this.maxSize = 0;
+      this.minHead = 0;
+      this.minSize = 0;
+      this.index = 0L;
+    }
+
+    void add(double value) {
+      final long index = this.index++;
+      final int capacity = this.window;
+      if (this.maxSize > 0 && this.maxIndex[this.maxHead] <= index - capacity) {
+        this.maxHead = this.maxHead + 1 == capacity ? 0 : this.maxHead + 1;
+        this.maxSize--;
+      }
+      while (this.maxSize > 0 && this.maxValue[(this.maxHead + this.maxSize - 1) % capacity] <= value) {
+        this.maxSize--;
+      }
+      final int maxTail = (this.maxHead + this.maxSize++) % capacity;
+      this.maxIndex[maxTail] = index;
+      this.maxValue[maxTail] = value;
+
+      if (this.minSize > 0 && this.minIndex[this.minHead] <= index - capacity) {
+        this.minHead = this.minHead + 1 == capacity ? 0 : this.minHead + 1;
+        this.minSize--;
+      }
+      while (this.minSize > 0 && this.minValue[(this.minHead + this.minSize - 1) % capacity] >= value) {
+        this.minSize--;
+      }
+      final int minTail = (this.minHead + this.minSize++) % capacity;
+      this.minIndex[minTail] = index;
+      this.minValue[minTail] = value;
+    }
+
+    double max() {
+      return this.maxValue[this.maxHead];
+    }
+
+    double min() {
+      return this.minValue[this.minHead];
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package io.nstream.demos.stocks.agents;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Symbols ordered by a score, highest first with ties broken by symbol, in a
+ * treap whose nodes carry their subtree size. Moving a symbol and finding its
+ * rank are both O(log n) expected, so a tick never re-sorts the universe.
+ * Each symbol keeps one node for its lifetime; an update unlinks and relinks
+ * it without allocating.
+ */
+public class Leaderboard {
+  public static final int TOP = 1;
+  public static final int BOTTOM = 1 << 1;
+
+  public interface Visitor {
+    void visit(String symbol, double score);
+  }
+
+  static final class Node {
+    final String symbol;
+    final int priority;
+    double score;
+    int size;
+    Node left;
+    Node right;
+
+    Node(String symbol, int priority) {
+      this.symbol = symbol;
+      this.priority = priority;
+    }
+  }
+
+  final int window;
+  final Map<String, Node> nodes = new HashMap<>();
+  final SplittableRandom random = new SplittableRandom(0x5eedL);
+  Node root;
+
+  /**
+   * @param window how many symbols the top and bottom windows hold
+   */
+  public Leaderboard(int window) {
+    this.window = window;
+  }
+
+  public int window() {
+    return this.window;
+  }
+
+  public int size() {
+    return size(this.root);
+  }
+
+  static int size(Node node) {
+    return null == node ? 0 : node.size;
+  }
+
+  static int compare(double score, String symbol, Node node) {
+    final int order = Double.compare(node.score, score);
+    return 0 != order ? order : symbol.compareTo(node.symbol);
+  }
+
+  /**
+   * @return the rank of {@code symbol} counting from the highest score, or -1
+   */
+  public int rank(String symbol) {
+    final Node node = this.nodes.get(symbol);
+    return null == node ? -1 : rank(node.score, node.symbol);
+  }
+
+  int rank(double score, String symbol) {
+    int rank = 0;
+    Node node = this.root;
+    while (null != node) {
+      final int order = compare(score, symbol, node);
+      if (order < 0) {
+        node = node.left;
+      } else if (order > 0) {
+        rank += size(node.left) + 1;
+        node = node.right;
+      } else {
+        return rank + size(node.left);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Moves {@code symbol} to {@code score}; NaN takes it off the board.
+   *
+   * @return {@link #TOP} and/or {@link #BOTTOM} if the membership or order of
+   * that window changed, otherwise 0
+   */
+  public int update(String symbol, double score) {
+    Node node = this.nodes.get(symbol);
+    if (null != node && Double.compare(node.score, score) == 0) {
+      return 0;
+    }
+
+    final int oldSize = size(this.root);
+    int oldRank = -1;
+    if (null != node) {
+      oldRank = rank(node.score, node.symbol);
+      this.root = remove(this.root, node.score, node.symbol);
+    }
+
+    int newRank = -1;
+    if (Double.isNaN(score)) {
+      if (null != node) {
+        this.nodes.remove(symbol);
+      }
+    } else {
+      if (null == node) {
+        node = new Node(symbol, this.random.nextInt());
+        this.nodes.put(symbol, node);
+      }
+      node.score = score;
+      node.size = 1;
+      node.left = null;
+      node.right = null;
+      this.root = insert(this.root, node);
+      newRank = rank(score, symbol);
+    }
+
+    final int newSize = size(this.root);
+    int changed = 0;
+    if (oldRank != newRank && (inWindow(oldRank) || inWindow(newRank))) {
+      changed |= TOP;
+    }
+    final int oldBottom = oldRank < 0 ? -1 : oldSize - 1 - oldRank;
+    final int newBottom = newRank < 0 ? -1 : newSize - 1 - newRank;
+    if (oldBottom != newBottom && (inWindow(oldBottom) || inWindow(newBottom))) {
+      changed |= BOTTOM;
+    }
+    return changed;
+  }
+
+  boolean inWindow(int rank) {
+    return rank >= 0 && rank < this.window;
+  }
+
+  static Node insert(Node tree, Node node) {
+    if (null == tree) {
+      return node;
+    }
+    if (node.priority > tree.priority) {
+      split(tree, node.score, node.symbol, node);
+      return update(node);
+    }
+    if (compare(node.score, node.symbol, tree) < 0) {
+      tree.left = insert(tree.left, node);
+    } else {
+      tree.right = insert(tree.right, node);
+    }
+    return update(tree);
+  }
+
+  /**
+   * Splits {@code tree} around the key, storing the lesser half in
+   * {@code into.left} and the greater half in {@code into.right}.
+   */
+  static void split(Node tree, double score, String symbol, Node into) {
+    if (null == tree) {
+      into.left = null;
+      into.right = null;
+    } else if (compare(score, symbol, tree) < 0) {
+      split(tree.left, score, symbol, into);
+      tree.left = into.right;
+      into.right = update(tree);
+    } else {
+      split(tree.right, score, symbol, into);
+      tree.right = into.left;
+      into.left = update(tree);
+    }
+  }
+
+  static Node remove(Node tree, double score, String symbol) {
+    final int order = compare(score, symbol, tree);
+    if (order == 0) {
+      return merge(tree.left, tree.right);
+    }
+    if (order < 0) {
+      tree.left = remove(tree.left, score, symbol);
+    } else {
+      tree.right = remove(tree.right, score, symbol);
+    }
+    return update(tree);
+  }
+
+  static Node merge(Node left, Node right) {
+    if (null == left) {
+      return right;
+    } else if (null == right) {
+      return left;
+    } else if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      return update(left);
+    } else {
+      right.left = merge(left, right.left);
+      return update(right);
+    }
+  }
+
+  static Node update(Node node) {
+    node.size = 1 + size(node.left) + size(node.right);
+    return node;
+  }
+
+  /**
+   * Visits the {@code window} highest scores, highest first.
+   */
+  public void forEachTop(Visitor visitor) {
+    forEachTop(this.root, this.window, visitor);
+  }
+
+  static int forEachTop(Node node, int remaining, Visitor visitor) {
+    if (null == node || remaining == 0) {
+      return remaining;
+    }
+    remaining = forEachTop(node.left, remaining, visitor);
+    if (remaining > 0) {
+      visitor.visit(node.symbol, node.score);
+      remaining = forEachTop(node.right, remaining - 1, visitor);
+    }
+    return remaining;
+  }
+
+  /**
+   * Visits the {@code window} lowest scores, lowest first.
+   */
+  public void forEachBottom(Visitor visitor) {
+    forEachBottom(this.root, this.window, visitor);
+  }
+
+  static int forEachBottom(Node node, int remaining, Visitor visitor) {
+    if (null == node || remaining == 0) {
+      return remaining;
+    }
+    remaining = forEachBottom(node.right, remaining, visitor);
+    if (remaining > 0) {
+      visitor.visit(node.symbol, node.score);
+      remaining = forEachBottom(node.left, remaining - 1, visitor);
+    }
+    return remaining;
+  }
+}
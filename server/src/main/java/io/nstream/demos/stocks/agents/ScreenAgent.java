@@ -0,0 +1,130 @@
+package io.nstream.demos.stocks.agents;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.api.warp.WarpUplink;
+import swim.concurrent.TimerRef;
+import swim.structure.Item;
+import swim.structure.Text;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One screen's result set, as {@code results}: a put when a symbol enters the
+ * screen or changes while in it, a remove when it leaves. {@code /symbols}
+ * creates it with {@code define} and keeps it current with {@code apply};
+ * {@code filter} is the canonical filter. Once no client has been linked for
+ * {@link #LINGER_MILLIS} the agent asks {@code /symbols} to drop the screen,
+ * and closes when told to {@code drop}, after which {@code /symbols} sends it
+ * nothing more. A client that links while it is undefined, as after it
+ * closed, has {@code /symbols} define it again.
+ */
+public class ScreenAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(ScreenAgent.class);
+  static final long LINGER_MILLIS = 30000L;
+
+  @SwimLane("filter")
+  final ValueLane<Value> filter = this.<Value>valueLane()
+      .didUplink(this::didLink);
+
+  @SwimLane("results")
+  final MapLane<String, Value> results = this.<String, Value>mapLane()
+      .didUplink(this::didLink);
+
+  @SwimLane("define")
+  final CommandLane<Value> define = this.<Value>commandLane()
+      .onCommand(input -> {
+        this.filter.set(input.get("filter"));
+        final Value members = input.get("members");
+        final Set<String> stale = new HashSet<>(this.results.keySet());
+        for (Item member : members) {
+          final String symbol = member.key().stringValue();
+          stale.remove(symbol);
+          this.results.put(symbol, member.toValue());
+        }
+        stale.forEach(this.results::remove);
+      });
+
+  @SwimLane("apply")
+  final CommandLane<Value> apply = this.<Value>commandLane()
+      .onCommand(changes -> {
+        for (Item change : changes) {
+          final String symbol = change.key().stringValue();
+          if (change.toValue().isDefined()) {
+            this.results.put(symbol, change.toValue());
+          } else {
+            this.results.remove(symbol);
+          }
+        }
+      });
+
+  // The screen was asked for again while idle.
+  @SwimLane("keep")
+  final CommandLane<Value> keep = this.<Value>commandLane()
+      .onCommand(input -> this.idle = false);
+
+  // /symbols has dropped the screen. A client that linked since gets it re-added from the filter.
+  @SwimLane("drop")
+  final CommandLane<Value> drop = this.<Value>commandLane()
+      .onCommand(input -> {
+        this.uplinks.removeIf(uplink -> !uplink.isConnected());
+        if (!this.uplinks.isEmpty() && this.filter.get().isDefined()) {
+          this.idle = false;
+          command("/symbols", "screen", this.filter.get());
+          return;
+        }
+        log.debug("drop() - closing idle screen {}", nodeUri());
+        close();
+      });
+
+  final List<WarpUplink> uplinks = new ArrayList<>();
+  TimerRef lingerTimer;
+  boolean idle;
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    this.lingerTimer = setTimer(LINGER_MILLIS, this::sweep);
+  }
+
+  void didLink(WarpUplink uplink) {
+    if (uplink.isRemote()) {
+      this.uplinks.add(uplink);
+      this.idle = false;
+      if (!this.filter.get().isDefined()) {
+        command("/symbols", "redefine", Text.from(getProp("id").stringValue()));
+      }
+    }
+  }
+
+  // Asks to drop the screen after a whole linger interval without a client, and again each interval until told.
+  void sweep() {
+    this.uplinks.removeIf(uplink -> !uplink.isConnected());
+    if (!this.uplinks.isEmpty()) {
+      this.idle = false;
+    } else if (this.idle) {
+      log.debug("sweep() - idle screen {}", nodeUri());
+      command("/symbols", "unscreen", Text.from(getProp("id").stringValue()));
+    } else {
+      this.idle = true;
+    }
+    this.lingerTimer = setTimer(LINGER_MILLIS, this::sweep);
+  }
+
+  @Override
+  public void willStop() {
+    if (null != this.lingerTimer) {
+      this.lingerTimer.cancel();
+    }
+    super.willStop();
+  }
+}
@@ -0,0 +1,161 @@
+package io.nstream.demos.stocks.agents;
+
+import swim.structure.Value;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A screen's predicate over the {@code status} fields: clauses such as
+ * {@code movement > 2} or {@code volume >= 5M} joined by {@code and}. Besides
+ * the status fields there is {@code spread}, the bid/ask spread in percent of
+ * the mid price. Numbers may end in {@code K}, {@code M} or {@code B}, or in
+ * {@code %}, which is ignored since movement and spread are already percent.
+ * A clause on a field the status doesn't have is false.
+ * <p>
+ * Equivalent filters have the same {@link #canonical()} form, clauses sorted
+ * and numbers normalized, so clients writing the same screen differently
+ * still share it.
+ */
+final class ScreenFilter {
+  static final String[] FIELDS = {"ask", "bid", "movement", "price", "spread", "volume"};
+  static final int ASK = 0;
+  static final int BID = 1;
+  static final int SPREAD = 4;
+  static final String[] OPS = {"<", "<=", ">", ">="};
+  static final Pattern CLAUSE = Pattern.compile("([A-Za-z]+)\\s*(<=|>=|<|>)\\s*(-?[0-9]*\\.?[0-9]+)\\s*([kKmMbB%]?)");
+
+  final int[] fields;
+  final int[] ops;
+  final double[] values;
+  final String canonical;
+
+  ScreenFilter(int[] fields, int[] ops, double[] values, String canonical) {
+    this.fields = fields;
+    this.ops = ops;
+    this.values = values;
+    this.canonical = canonical;
+  }
+
+  /**
+   * @throws IllegalArgumentException with the reason {@code filter} is not a
+   * screen
+   */
+  static ScreenFilter parse(String filter) {
+    final String[] terms = filter.trim().split("(?i)\\s+and\\s+|\\s*&&\\s*|\\s*,\\s*");
+    final List<String[]> clauses = new ArrayList<>(terms.length);
+    for (String term : terms) {
+      if (term.isBlank()) {
+        continue;
+      }
+      final Matcher matcher = CLAUSE.matcher(term.trim());
+      if (!matcher.matches()) {
+        throw new IllegalArgumentException("Expected <field> <op> <number>, not '" + term.trim() + "'");
+      }
+      final String field = matcher.group(1).toLowerCase(Locale.ROOT);
+      if (Arrays.binarySearch(FIELDS, field) < 0) {
+        throw new IllegalArgumentException("Unknown field '" + field + "', expected one of " + Arrays.toString(FIELDS));
+      }
+      clauses.add(new String[] {field, matcher.group(2), number(matcher.group(3), matcher.group(4)).toPlainString()});
+    }
+    if (clauses.isEmpty()) {
+      throw new IllegalArgumentException("Expected at least one clause");
+    }
+    clauses.sort((a, b) -> {
+      int order = a[0].compareTo(b[0]);
+      if (order == 0) {
+        order = a[1].compareTo(b[1]);
+      }
+      return order != 0 ? order : new BigDecimal(a[2]).compareTo(new BigDecimal(b[2]));
+    });
+    final StringBuilder canonical = new StringBuilder();
+    final int[] fields = new int[clauses.size()];
+    final int[] ops = new int[clauses.size()];
+    final double[] values = new double[clauses.size()];
+    int count = 0;
+    String previous = null;
+    for (String[] clause : clauses) {
+      final String text = clause[0] + ' ' + clause[1] + ' ' + clause[2];
+      if (text.equals(previous)) {
+        continue;
+      }
+      previous = text;
+      if (count > 0) {
+        canonical.append(" and ");
+      }
+      canonical.append(text);
+      fields[count] = Arrays.binarySearch(FIELDS, clause[0]);
+      ops[count] = Arrays.asList(OPS).indexOf(clause[1]);
+      values[count] = Double.parseDouble(clause[2]);
+      count++;
+    }
+    return new ScreenFilter(Arrays.copyOf(fields, count), Arrays.copyOf(ops, count), Arrays.copyOf(values, count),
+        canonical.toString());
+  }
+
+  static BigDecimal number(String digits, String suffix) {
+    final BigDecimal number = new BigDecimal(digits);
+    switch (suffix.toUpperCase(Locale.ROOT)) {
+      case "K":
+        return number.scaleByPowerOfTen(3).stripTrailingZeros();
+      case "M":
+        return number.scaleByPowerOfTen(6).stripTrailingZeros();
+      case "B":
+        return number.scaleByPowerOfTen(9).stripTrailingZeros();
+      default:
+        return number.stripTrailingZeros();
+    }
+  }
+
+  String canonical() {
+    return this.canonical;
+  }
+
+  /**
+   * Reads the fields of {@code status} into {@code into}, indexed as
+   * {@link #FIELDS}, NaN for the ones it doesn't have. Done once per tick for
+   * every screen.
+   */
+  static double[] fields(Value status, double[] into) {
+    for (int i = 0; i < FIELDS.length; i++) {
+      into[i] = i == SPREAD ? Double.NaN : status.get(FIELDS[i]).doubleValue(Double.NaN);
+    }
+    final double mid = (into[ASK] + into[BID]) / 2D;
+    if (mid > 0D) {
+      into[SPREAD] = (into[ASK] - into[BID]) / mid * 100D;
+    }
+    return into;
+  }
+
+  boolean test(double[] fields) {
+    for (int i = 0; i < this.fields.length; i++) {
+      final double value = fields[this.fields[i]];
+      final double threshold = this.values[i];
+      final boolean pass;
+      switch (this.ops[i]) {
+        case 0:
+          pass = value < threshold;
+          break;
+        case 1:
+          pass = value <= threshold;
+          break;
+        case 2:
+          pass = value > threshold;
+          break;
+        default:
+          pass = value >= threshold;
+          break;
+      }
+      // NaN fails every comparison, so a missing field fails its clause.
+      if (!pass) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,103 @@
+package io.nstream.demos.stocks.agents;
+
+import io.nstream.demos.stocks.Partitions;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The active screens of {@code /symbols}, each with its result set, kept up
+ * to date one status at a time: a status change is tested against every
+ * screen once, and only a symbol entering, leaving or changing inside a
+ * screen is queued for that screen's agent. Screens are keyed by a hash of
+ * their canonical filter, so clients asking for the same screen share it.
+ */
+final class Screener {
+  final Map<String, Screen> screens = new HashMap<>();
+  final double[] fields = new double[ScreenFilter.FIELDS.length];
+
+  static final class Screen {
+    final String id;
+    final ScreenFilter filter;
+    final Uri nodeUri;
+    final Set<String> members = new HashSet<>();
+    // Symbol to its status on entering or changing, or absent on leaving, since the last flush.
+    final Map<String, Value> pending = new LinkedHashMap<>();
+    // When a client last sent its filter, so an idle screen asked for again is not dropped.
+    long requestedAt;
+
+    Screen(String id, ScreenFilter filter) {
+      this.id = id;
+      this.filter = filter;
+      this.nodeUri = nodeUri(id);
+    }
+  }
+
+  static Uri nodeUri(String id) {
+    return Uri.empty().path("/", "screen", id);
+  }
+
+  static String id(ScreenFilter filter) {
+    return Long.toHexString(Partitions.hash(filter.canonical()));
+  }
+
+  /**
+   * @return the screen for {@code filter}, or null if it already had one
+   */
+  Screen add(ScreenFilter filter) {
+    final String id = id(filter);
+    if (this.screens.containsKey(id)) {
+      return null;
+    }
+    final Screen screen = new Screen(id, filter);
+    this.screens.put(id, screen);
+    return screen;
+  }
+
+  Screen get(String id) {
+    return this.screens.get(id);
+  }
+
+  Screen remove(String id) {
+    return this.screens.remove(id);
+  }
+
+  boolean isEmpty() {
+    return this.screens.isEmpty();
+  }
+
+  /**
+   * Tests a status against one screen, for filling a new screen.
+   */
+  boolean test(Screen screen, Value status) {
+    return screen.filter.test(ScreenFilter.fields(status, this.fields));
+  }
+
+  void evaluate(String symbol, Value status) {
+    if (this.screens.isEmpty()) {
+      return;
+    }
+    ScreenFilter.fields(status, this.fields);
+    for (Screen screen : this.screens.values()) {
+      if (screen.filter.test(this.fields)) {
+        screen.members.add(symbol);
+        screen.pending.put(symbol, status);
+      } else if (screen.members.remove(symbol)) {
+        screen.pending.put(symbol, Value.absent());
+      }
+    }
+  }
+
+  void removed(String symbol) {
+    for (Screen screen : this.screens.values()) {
+      if (screen.members.remove(symbol)) {
+        screen.pending.put(symbol, Value.absent());
+      }
+    }
+  }
+}
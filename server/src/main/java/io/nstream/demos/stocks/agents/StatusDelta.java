@@ -0,0 +1,70 @@
+package io.nstream.demos.stocks.agents;
+
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * Encodes a status lane as deltas: each message carries a {@code seq} and
+ * only the slots that changed since the previous message, a slot that became
+ * undefined being sent empty. Every {@code keyframeInterval}th message, and the
+ * first, is a keyframe with every slot and {@code keyframe: true}.
+ * <p>
+ * A value lane only sends a slow link its latest value, so a client can miss
+ * deltas. It sees the gap in {@code seq} and is whole again at the next
+ * keyframe, or sooner by reading the full lane.
+ */
+final class StatusDelta {
+  static final String SEQ = "seq";
+  static final String KEYFRAME = "keyframe";
+
+  final int keyframeInterval;
+  long seq;
+  int sinceKeyframe;
+  Value last;
+
+  StatusDelta(int keyframeInterval) {
+    this.keyframeInterval = Math.max(1, keyframeInterval);
+  }
+
+  // Makes the next message a keyframe, for when messages were not encoded for a while.
+  void reset() {
+    this.last = null;
+  }
+
+  Value encode(Value status) {
+    this.seq++;
+    final Record message;
+    if (null == this.last || ++this.sinceKeyframe >= this.keyframeInterval) {
+      this.sinceKeyframe = 0;
+      message = Record.create(status.length() + 2)
+          .slot(SEQ, this.seq)
+          .slot(KEYFRAME, true);
+      status.forEach(message::add);
+    } else {
+      message = diff(this.last, status, Record.create(3).slot(SEQ, this.seq));
+    }
+    this.last = status;
+    return message;
+  }
+
+  /**
+   * Adds to {@code into} the slots of {@code next} whose value differs from
+   * {@code previous}, and an empty slot for each one {@code next} no longer has.
+   */
+  static Record diff(Value previous, Value next, Record into) {
+    for (Item item : next) {
+      final Value key = item.key();
+      if (key.isDefined() && !item.toValue().equals(previous.get(key.stringValue()))) {
+        into.add(item);
+      }
+    }
+    for (Item item : previous) {
+      final Value key = item.key();
+      if (key.isDefined() && item.toValue().isDefined() && !next.containsKey(key.stringValue())) {
+        into.slot(key.stringValue(), Value.absent());
+      }
+    }
+    return into;
+  }
+}
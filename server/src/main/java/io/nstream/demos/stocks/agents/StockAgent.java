@@ -1,31 +1,91 @@
 package io.nstream.demos.stocks.agents;
 
+import io.nstream.demos.stocks.Partitions;
+import io.nstream.demos.stocks.alerts.AlertEngine;
+import io.nstream.demos.stocks.history.TickBuffer;
+import io.nstream.demos.stocks.history.TickHistory;
+import io.nstream.demos.stocks.journal.JournalEntry;
+import io.nstream.demos.stocks.journal.PreviousCloseCache;
+import io.nstream.demos.stocks.journal.TickJournal;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import swim.api.SwimLane;
 import swim.api.agent.AbstractAgent;
 import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
 import swim.api.lane.ValueLane;
+import swim.api.warp.WarpUplink;
 import swim.concurrent.TimerFunction;
 import swim.concurrent.TimerRef;
-import swim.structure.Form;
+import swim.json.Json;
 import swim.structure.Record;
+import swim.structure.Text;
 import swim.structure.Value;
+import swim.uri.Uri;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class StockAgent extends AbstractAgent {
   private static final Logger log = LoggerFactory.getLogger(StockAgent.class);
   @SwimLane("status")
-  final ValueLane<Value> status = this.valueLane();
+  final ValueLane<Value> status = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // With statusDelta configured, status as deltas of the fields that changed; see StatusDelta.
+  // Deltas are only computed while the lane has uplinks, the first one after a keyframe.
+  @SwimLane("statusDelta")
+  final ValueLane<Value> statusDelta = this.<Value>valueLane()
+      .didUplink(uplink -> {
+        this.demand.didUplink(uplink);
+        didUplinkDelta(uplink);
+      });
+
+  StatusDelta delta;
+  final List<WarpUplink> deltaUplinks = new ArrayList<>();
+
+  // With indicators configured, VWAP, EMAs, volatility and highs and lows of the day; see Indicators.
+  @SwimLane("indicators")
+  final ValueLane<Value> indicators = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  Indicators indicatorState;
 
   @SwimLane("previousClose")
-  final ValueLane<Value> previousClose = this.valueLane();
+  final ValueLane<Value> previousClose = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // Bars are keyed by their start in epoch millis: 2 minutes of 1s bars, one 6.5h session of 1m
+  // bars and two sessions of 5m bars. A bar costs 48 bytes in its BarSeries and about 500 bytes as
+  // a lane entry (Record, 6 slots and nums, map node), so 666 bars come to about 365KB per symbol,
+  // or about 180MB for the 500 symbols in server.recon, well inside the 1Gi limit in k8s.yml.
+  static final int BARS_1S_CAPACITY = 120;
+  static final int BARS_1M_CAPACITY = 390;
+  static final int BARS_5M_CAPACITY = 156;
+
+  @SwimLane("bars1s")
+  final MapLane<Long, Value> bars1s = this.<Long, Value>mapLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  @SwimLane("bars1m")
+  final MapLane<Long, Value> bars1m = this.<Long, Value>mapLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  @SwimLane("bars5m")
+  final MapLane<Long, Value> bars5m = this.<Long, Value>mapLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  final BarSeries series1s = new BarSeries(Duration.ofSeconds(1).toMillis(), BARS_1S_CAPACITY);
+  final BarSeries series1m = new BarSeries(Duration.ofMinutes(1).toMillis(), BARS_1M_CAPACITY);
+  final BarSeries series5m = new BarSeries(Duration.ofMinutes(5).toMillis(), BARS_5M_CAPACITY);
 
   @SwimLane("init")
   final CommandLane<Value> init = this.<Value>commandLane()
@@ -33,9 +93,85 @@ public class StockAgent extends AbstractAgent {
 
       });
 
+  final StockQuote quote = new StockQuote();
+  final TickJournal journal = TickJournal.shared();
+  final TickHistory history = TickHistory.shared();
+  final AlertEngine alertEngine = AlertEngine.shared();
+  AlertEngine.Watch alertWatch;
+  final PreviousCloseCache previousCloses = PreviousCloseCache.shared();
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+  LongAdder ticks;
+  String symbol;
+
+  // Clients watching this stock keep its symbol streaming when the adapter is demand driven.
+  final Demand demand = new Demand(this, () -> List.of(this.symbol));
+
+  // Resident stock agents and how many have closed while idle, for the /metrics gauges.
+  static final AtomicLong RESIDENT = new AtomicLong();
+  static final LongAdder EVICTIONS = new LongAdder();
+  // Answer to evict from /symbols while a client reads its stocks table.
+  static final Value KEEP = Text.from("keep");
+
+  static {
+    PipelineMetrics.shared().gauge("residentStocks", RESIDENT::get);
+    PipelineMetrics.shared().gauge("evictedStocks", EVICTIONS::sum);
+  }
+
+  // Set on a replica that does not own the symbol, where the agent only mirrors the owner's lanes for local clients.
+  boolean mirror;
+  final List<Runnable> mirrorLinks = new ArrayList<>();
+
+  // With an idleTimeout, an agent with no ticks and no clients for that long closes until it is needed again.
+  long idleTimeout;
+  long lastActive;
+  TimerRef idleTimer;
+
+  /**
+   * Sent back by {@code /symbols} once it has let go of this agent's join, so
+   * closing does not make the join relink. A tick may have arrived meanwhile,
+   * in which case the agent rejoins instead. {@link #KEEP} means a client is
+   * reading the {@code stocks} table, so the agent stays joined for now.
+   */
+  @SwimLane("evict")
+  final CommandLane<Value> evict = this.<Value>commandLane()
+      .onCommand(input -> {
+        if (KEEP.equals(input)) {
+          this.idleTimer = this.setTimer(this.idleTimeout, this::checkIdle);
+          return;
+        }
+        if (!isIdle()) {
+          command("/symbols", "add", Text.from(this.symbol));
+          this.idleTimer = this.setTimer(this.idleTimeout, this::checkIdle);
+          return;
+        }
+        log.debug("evict() - closing idle {}", this.symbol);
+        this.journal.retain(this.symbol, this.quote.defined() & StockQuote.QUOTE_FIELDS, this.quote.timestamp(),
+            this.quote.price(), this.quote.volume(), this.quote.bid(), this.quote.ask(),
+            this.previousClose.get().isDefined() ? Json.toString(this.previousClose.get()) : null);
+        EVICTIONS.increment();
+        close();
+      });
+
   @SwimLane("updatePreviousClose")
   final CommandLane<Value> updatePreviousClose = this.<Value>commandLane()
-      .onCommand(input -> this.previousClose.set(input));
+      .onCommand(input -> {
+        this.previousClose.set(input);
+        if (input.isDefined()) {
+          this.journal.appendPreviousClose(this.symbol, Json.toString(input));
+          this.previousCloses.put(this.symbol, input);
+        }
+        if (this.quote.updatePreviousClose(closeOf(input)) && this.quote.has(StockQuote.PRICE)) {
+          publishStatus(this.quote.toValue());
+        }
+      });
+
+  static double closeOf(Value previousClose) {
+    if (null == previousClose || !previousClose.isDefined()) {
+      return Double.NaN;
+    }
+    Value closeValue = previousClose.getSlot("close");
+    return null != closeValue && closeValue.isDefined() ? closeValue.doubleValue() : Double.NaN;
+  }
 //
 //
 //  TimerRef previousCloseTimer;
@@ -89,80 +225,250 @@ public class StockAgent extends AbstractAgent {
   public void didStart() {
     this.status.set(Record.of());
     this.previousClose.set(Value.absent());
+    this.quote.clear();
+    this.series1s.clear();
+    this.series1m.clear();
+    this.series5m.clear();
+    this.bars1s.clear();
+    this.bars1m.clear();
+    this.bars5m.clear();
+    this.symbol = getProp("symbol").stringValue();
+    this.idleTimeout = getProp("idleTimeout").longValue(0L);
+    this.lastActive = System.nanoTime();
+    final int keyframeInterval = getProp("statusDelta").get("keyframeInterval").intValue(0);
+    this.delta = keyframeInterval > 0 ? new StatusDelta(keyframeInterval) : null;
+    this.indicatorState = Indicators.fromConfig(getProp("indicators"));
+    this.indicators.set(Value.absent());
+    final Uri owner = Partitions.shared().hostOf(this.symbol);
+    if (null != owner) {
+      startMirror(owner);
+      return;
+    }
+    this.ticks = this.metrics.symbolTicks(this.symbol);
+    this.alertWatch = this.alertEngine.watch(this.symbol);
+    restore();
+    replayIndicators();
 
 //    requestPreviousClose();
     command("/symbols", "add", getProp("symbol"));
+    RESIDENT.incrementAndGet();
+    if (this.idleTimeout > 0L) {
+      this.idleTimer = this.setTimer(this.idleTimeout, this::checkIdle);
+    }
   }
 
-  static class ValueBuilder {
-    private final Value input;
-    public Value output;
+  /**
+   * Links this agent's lanes to the same agent on the replica that owns the
+   * symbol, so a client can watch any stock on whichever replica it is
+   * connected to. A mirror takes no ticks and is not in this replica's
+   * {@code /symbols}; it closes once no client has used it for
+   * {@code idleTimeout}.
+   */
+  void startMirror(Uri hostUri) {
+    this.mirror = true;
+    this.mirrorLinks.add(downlinkValue().hostUri(hostUri).nodeUri(nodeUri()).laneUri("status").body(Demand.PEER)
+        .didSet((newValue, oldValue) -> publishStatus(newValue))
+        .open()::close);
+    this.mirrorLinks.add(downlinkValue().hostUri(hostUri).nodeUri(nodeUri()).laneUri("previousClose").body(Demand.PEER)
+        .didSet((newValue, oldValue) -> this.previousClose.set(newValue))
+        .open()::close);
+    this.mirrorLinks.add(downlinkValue().hostUri(hostUri).nodeUri(nodeUri()).laneUri("indicators").body(Demand.PEER)
+        .didSet((newValue, oldValue) -> this.indicators.set(newValue))
+        .open()::close);
+    mirrorBars(hostUri, "bars1s", this.bars1s);
+    mirrorBars(hostUri, "bars1m", this.bars1m);
+    mirrorBars(hostUri, "bars5m", this.bars5m);
+    if (this.idleTimeout > 0L) {
+      this.idleTimer = this.setTimer(this.idleTimeout, this::checkIdle);
+    }
+  }
 
-    ValueBuilder(Value current, Value input) {
-      this.input = input;
+  void mirrorBars(Uri hostUri, String laneUri, MapLane<Long, Value> lane) {
+    this.mirrorLinks.add(downlinkMap().hostUri(hostUri).nodeUri(nodeUri()).laneUri(laneUri).body(Demand.PEER)
+        .didUpdate((key, newValue, oldValue) -> lane.put(key.longValue(), newValue))
+        .didRemove((key, oldValue) -> lane.remove(key.longValue()))
+        .open()::close);
+  }
 
-      if (!current.isDefined()) {
-        this.output = Record.of();
-      } else {
-        this.output = current;
-      }
+  @Override
+  public void willStop() {
+    if (null != this.idleTimer) {
+      this.idleTimer.cancel();
     }
+    this.demand.stop();
+    if (this.mirror) {
+      this.mirrorLinks.forEach(Runnable::run);
+      this.mirrorLinks.clear();
+    } else {
+      RESIDENT.decrementAndGet();
+    }
+    super.willStop();
+  }
 
-    public <T> void set(String inputKey, String outputKey, Form<T> form, T defaultValue) {
-      Value inputValue = this.input.getSlot(inputKey);
-      Value outputValue = this.output.getSlot(outputKey);
-
-      if (inputValue.equals(outputValue) && outputValue.isDefined()) {
-        return;
-      }
+  // The /symbols join is expected; any other agent link, such as an index constituent join, keeps the agent.
+  boolean isIdle() {
+    return !this.demand.active && System.nanoTime() - this.lastActive >= TimeUnit.MILLISECONDS.toNanos(this.idleTimeout)
+        && this.demand.agentLinks() <= 1;
+  }
 
-      if (!inputValue.isDefined() && outputValue.isDefined()) {
+  void checkIdle() {
+    if (isIdle()) {
+      this.idleTimer = null;
+      if (this.mirror) {
+        close();
         return;
       }
-
-      if (null != inputValue && inputValue.isDefined()) {
-        T value = inputValue.cast(form, defaultValue);
-        this.output = this.output.updated(outputKey, Value.fromObject(value));
-      } else if (null == inputValue) {
-        this.output = this.output.updated(outputKey, Value.absent());
-      } else if (!inputValue.isDefined()) {
-        this.output = this.output.updated(outputKey, inputValue);
-      }
+      command("/symbols", "evict", Text.from(this.symbol));
+    } else {
+      this.idleTimer = this.setTimer(Math.max(1000L, this.idleTimeout / 2L), this::checkIdle);
     }
   }
 
   @SwimLane("update")
   final CommandLane<Value> update = this.<Value>commandLane()
       .onCommand(input -> {
+        final long started = System.nanoTime();
+        final long received = input.get(PipelineMetrics.RECEIVED).longValue(0L);
+        if (0L != received) {
+          this.metrics.queue.recordValue(started - received);
+        }
+        this.ticks.increment();
+        this.lastActive = started;
+        if (this.quote.update(input)) {
+          final long publishing = System.nanoTime();
+          publishStatus(this.quote.toValue());
+          this.metrics.publish.recordValue(System.nanoTime() - publishing);
+          this.journal.appendQuote(this.symbol, this.quote.defined() & StockQuote.QUOTE_FIELDS,
+              this.quote.timestamp(), this.quote.price(), this.quote.volume(), this.quote.bid(), this.quote.ask());
+          updateBars();
+          evaluateAlerts();
+        }
+        this.metrics.update.recordValue(System.nanoTime() - started);
+      });
+
+  void publishStatus(Value status) {
+    this.status.set(status);
+    if (null != this.delta && hasDeltaUplinks()) {
+      this.statusDelta.set(this.delta.encode(status));
+    }
+  }
+
+  void didUplinkDelta(WarpUplink uplink) {
+    if (null == this.delta) {
+      return;
+    }
+    final boolean idle = !hasDeltaUplinks();
+    this.deltaUplinks.add(uplink);
+    if (idle) {
+      this.delta.reset();
+      final Value status = this.status.get();
+      if (status.isDefined()) {
+        this.statusDelta.set(this.delta.encode(status));
+      }
+    }
+  }
+
+  boolean hasDeltaUplinks() {
+    if (this.deltaUplinks.isEmpty()) {
+      return false;
+    }
+    this.deltaUplinks.removeIf(uplink -> !uplink.isConnected());
+    return !this.deltaUplinks.isEmpty();
+  }
 
-        Value priceValue = input.getSlot("price");
-        ValueBuilder valueBuilder = new ValueBuilder(this.status.get(), input);
-        valueBuilder.set("timestamp", "timestamp", Form.forLong(), null);
-        valueBuilder.set("price", "price", Form.forDouble(), null);
-        valueBuilder.set("day_volume", "volume", Form.forDouble(), null);
-        valueBuilder.set("bid", "bid", Form.forDouble(), null);
-        valueBuilder.set("ask", "ask", Form.forDouble(), null);
-
-        Value previousClose = this.previousClose.get();
-        Value movementValue;
-        if(previousClose.isDefined() && priceValue.isDefined()) {
-          Value closeValue = previousClose.getSlot("close");
-
-          if(null != closeValue&&closeValue.isDefined()) {
-            double close = closeValue.doubleValue();
-            double price = priceValue.doubleValue();
-            double movement = ((price - close) / close) * 100D;
-            movement = new BigDecimal(movement)
-                .setScale(3, RoundingMode.HALF_UP)
-                .doubleValue();
-            movementValue = Value.fromObject(movement);
-          } else {
-            movementValue = Value.absent();
-          }
-        } else {
-          movementValue = Value.absent();
+  // A close older than the previous trading day is not restored: movement, and the movement alerts, would be
+  // measured from the wrong day. The status has no movement until /symbols fetches the close.
+  void restore() {
+    final LocalDate tradingDay = PreviousCloseCache.previousTradingDay();
+    JournalEntry entry = this.journal.entry(this.symbol);
+    if (null != entry) {
+      this.quote.restore(entry.defined(), entry.timestamp(), entry.price(), entry.volume(), entry.bid(), entry.ask());
+      if (null != entry.previousClose()) {
+        final Value journaled = Json.parse(entry.previousClose());
+        if (PreviousCloseCache.isFresh(journaled, tradingDay)) {
+          restorePreviousClose(journaled);
         }
+      }
+      log.debug("restore() - restored {} from journal", this.symbol);
+    }
+    if (!this.previousClose.get().isDefined() && this.previousCloses.isFresh(this.symbol, tradingDay)) {
+      restorePreviousClose(this.previousCloses.get(this.symbol));
+    }
+    if (!this.previousClose.get().isDefined()) {
+      log.debug("restore() - no previous close of {} for {}, waiting for the fetch", this.symbol, tradingDay);
+    }
+    if (this.quote.has(StockQuote.PRICE)) {
+      publishStatus(this.quote.toValue());
+    }
+  }
 
-        this.status.set(valueBuilder.output.updated("movement", movementValue));
-      });
+  void restorePreviousClose(Value previousClose) {
+    this.previousClose.set(previousClose);
+    this.quote.updatePreviousClose(closeOf(previousClose));
+  }
+
+  void updateBars() {
+    if (!this.quote.has(StockQuote.PRICE) || !this.quote.has(StockQuote.TIMESTAMP)) {
+      return;
+    }
+    final long time = this.quote.timestamp() * 1000L;
+    final double price = this.quote.price();
+    final double dayVolume = this.quote.has(StockQuote.VOLUME) ? this.quote.volume() : Double.NaN;
+    updateBars(this.series1s, this.bars1s, time, price, dayVolume);
+    updateBars(this.series1m, this.bars1m, time, price, dayVolume);
+    updateBars(this.series5m, this.bars5m, time, price, dayVolume);
+    this.history.record(this.symbol, time, price, dayVolume);
+    if (null != this.indicatorState && this.indicatorState.tick(time, price, dayVolume)) {
+      this.indicators.set(this.indicatorState.toValue());
+    }
+  }
+
+  /**
+   * Sends the alerts this tick fired to {@code /alerts}, on the ingest
+   * partition when partitioned.
+   */
+  void evaluateAlerts() {
+    if (!this.quote.has(StockQuote.PRICE)) {
+      return;
+    }
+    final List<Value> fired = this.alertEngine.evaluate(this.alertWatch, this.quote.timestamp() * 1000L,
+        this.quote.price(), this.quote.has(StockQuote.MOVEMENT) ? this.quote.movement() : Double.NaN);
+    for (Value alert : fired) {
+      final Uri ingestHost = Partitions.shared().ingestHost();
+      if (null == ingestHost) {
+        command("/alerts", "fire", alert);
+      } else {
+        command(ingestHost, Uri.parse("/alerts"), Uri.parse("fire"), alert);
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the indicators from today's ticks in the tick history, so a
+   * restarted or reopened agent publishes the same values as before.
+   */
+  void replayIndicators() {
+    if (null == this.indicatorState || !this.history.isEnabled()) {
+      return;
+    }
+    final long today = Indicators.startOf(Indicators.tradingDate(System.currentTimeMillis()));
+    final TickBuffer ticks = this.history.query(this.symbol, today, Long.MAX_VALUE);
+    for (int i = 0; i < ticks.size(); i++) {
+      this.indicatorState.tick(ticks.time(i), ticks.price(i), ticks.volume(i));
+    }
+    if (ticks.size() > 0) {
+      this.indicators.set(this.indicatorState.toValue());
+      log.debug("replayIndicators() - replayed {} ticks of {}", ticks.size(), this.symbol);
+    }
+  }
+
+  static void updateBars(BarSeries series, MapLane<Long, Value> lane, long time, double price, double dayVolume) {
+    final int result = series.tick(time, price, dayVolume);
+    if ((result & BarSeries.EVICTED) != 0) {
+      lane.remove(series.evictedStart());
+    }
+    if ((result & BarSeries.UPDATED) != 0) {
+      lane.put(series.currentStart(), series.currentValue());
+    }
+  }
 }
@@ -0,0 +1,218 @@
+package io.nstream.demos.stocks.agents;
+
+import swim.structure.Item;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+
+/**
+ * The latest quote of a single symbol kept in primitive fields. Updates report
+ * whether anything published on the {@code status} lane changed, so the agent
+ * only builds and sets a new status Record when there is something to send.
+ */
+public class StockQuote {
+  public static final int TIMESTAMP = 1;
+  public static final int PRICE = 1 << 1;
+  public static final int VOLUME = 1 << 2;
+  public static final int BID = 1 << 3;
+  public static final int ASK = 1 << 4;
+  public static final int MOVEMENT = 1 << 5;
+  public static final int PREVIOUS_CLOSE = 1 << 6;
+  public static final int QUOTE_FIELDS = TIMESTAMP | PRICE | VOLUME | BID | ASK;
+
+  long timestamp;
+  double price;
+  double volume;
+  double bid;
+  double ask;
+  double movement;
+  double previousClose;
+  int defined;
+
+  public boolean has(int field) {
+    return (this.defined & field) != 0;
+  }
+
+  public long timestamp() {
+    return this.timestamp;
+  }
+
+  public double price() {
+    return this.price;
+  }
+
+  public double volume() {
+    return this.volume;
+  }
+
+  public double bid() {
+    return this.bid;
+  }
+
+  public double ask() {
+    return this.ask;
+  }
+
+  public double movement() {
+    return this.movement;
+  }
+
+  public double previousClose() {
+    return this.previousClose;
+  }
+
+  public void clear() {
+    this.defined = 0;
+  }
+
+  public int defined() {
+    return this.defined;
+  }
+
+  /**
+   * Restores the quote fields saved from {@link #defined()} and the getters,
+   * keeping the current previous close.
+   */
+  public void restore(int defined, long timestamp, double price, double volume, double bid, double ask) {
+    this.defined = (this.defined & ~QUOTE_FIELDS) | (defined & QUOTE_FIELDS);
+    this.timestamp = timestamp;
+    this.price = price;
+    this.volume = volume;
+    this.bid = bid;
+    this.ask = ask;
+    updateMovement();
+  }
+
+  /**
+   * Applies the slots of an {@code update} command. Missing slots keep their
+   * previous value, the same as the Record based status did.
+   *
+   * @return {@code true} if a published field changed
+   */
+  public boolean update(Value input) {
+    boolean changed = false;
+    for (Item item : input) {
+      final Value key = item.key();
+      if (!key.isDefined()) {
+        continue;
+      }
+      final Value value = item.toValue();
+      if (!value.isDefined()) {
+        continue;
+      }
+      switch (key.stringValue()) {
+        case "timestamp":
+          changed |= setTimestamp(value.longValue());
+          break;
+        case "price":
+          if (setDouble(PRICE, value.doubleValue())) {
+            changed = true;
+            updateMovement();
+          }
+          break;
+        case "day_volume":
+          changed |= setDouble(VOLUME, value.doubleValue());
+          break;
+        case "bid":
+          changed |= setDouble(BID, value.doubleValue());
+          break;
+        case "ask":
+          changed |= setDouble(ASK, value.doubleValue());
+          break;
+        default:
+          break;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @return {@code true} if the movement changed as a result
+   */
+  public boolean updatePreviousClose(double close) {
+    if (Double.isNaN(close) || close == 0D) {
+      this.defined &= ~PREVIOUS_CLOSE;
+    } else {
+      this.previousClose = close;
+      this.defined |= PREVIOUS_CLOSE;
+    }
+    return updateMovement();
+  }
+
+  private boolean setTimestamp(long timestamp) {
+    if (has(TIMESTAMP) && this.timestamp == timestamp) {
+      return false;
+    }
+    this.timestamp = timestamp;
+    this.defined |= TIMESTAMP;
+    return true;
+  }
+
+  private boolean setDouble(int field, double value) {
+    final double current;
+    switch (field) {
+      case PRICE:
+        current = this.price;
+        this.price = value;
+        break;
+      case VOLUME:
+        current = this.volume;
+        this.volume = value;
+        break;
+      case BID:
+        current = this.bid;
+        this.bid = value;
+        break;
+      case ASK:
+        current = this.ask;
+        this.ask = value;
+        break;
+      default:
+        throw new IllegalArgumentException("Not a double field: " + field);
+    }
+    if (has(field) && Double.compare(current, value) == 0) {
+      return false;
+    }
+    this.defined |= field;
+    return true;
+  }
+
+  private boolean updateMovement() {
+    if (has(PRICE) && has(PREVIOUS_CLOSE)) {
+      final double movement = movement(this.price, this.previousClose);
+      if (has(MOVEMENT) && Double.compare(this.movement, movement) == 0) {
+        return false;
+      }
+      this.movement = movement;
+      this.defined |= MOVEMENT;
+      return true;
+    } else if (has(MOVEMENT)) {
+      this.defined &= ~MOVEMENT;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Percent change from the previous close rounded half up to three decimals.
+   * Adding zero turns a rounded {@code -0.0} into {@code 0.0}.
+   */
+  public static double movement(double price, double close) {
+    final double movement = ((price - close) / close) * 100D;
+    return Math.copySign(Math.floor(Math.abs(movement) * 1000D + 0.5D), movement) / 1000D + 0D;
+  }
+
+  private Value slot(int field, double value) {
+    return has(field) ? Num.from(value) : Value.absent();
+  }
+
+  public Value toValue() {
+    return Record.create(6)
+        .slot("timestamp", has(TIMESTAMP) ? Num.from(this.timestamp) : Value.absent())
+        .slot("price", slot(PRICE, this.price))
+        .slot("volume", slot(VOLUME, this.volume))
+        .slot("bid", slot(BID, this.bid))
+        .slot("ask", slot(ASK, this.ask))
+        .slot("movement", slot(MOVEMENT, this.movement));
+  }
+}
@@ -1,28 +1,274 @@
 package io.nstream.demos.stocks.agents;
 
+import io.nstream.demos.stocks.Partitions;
 import io.nstream.demos.stocks.Utils;
+import io.nstream.demos.stocks.journal.PreviousCloseCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import swim.api.SwimLane;
 import swim.api.agent.AbstractAgent;
+import swim.api.downlink.ValueDownlink;
 import swim.api.lane.CommandLane;
 import swim.api.lane.JoinValueLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.api.warp.WarpUplink;
 import swim.concurrent.TimerRef;
+import swim.structure.Record;
 import swim.structure.Value;
 import swim.uri.Uri;
 
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
-import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * The table of every stock, its leaderboards and the batches clients render
+ * it from. When the server runs as several partitions every replica has one:
+ * it joins the stock agents of its own partition, publishes their changes on
+ * {@code localBatch} and {@code localSnapshot}, and merges those lanes from
+ * the other partitions, so any replica can serve the whole table.
+ */
 public class SymbolsAgent extends AbstractAgent {
   private static final Logger log = LoggerFactory.getLogger(SymbolsAgent.class);
   @SwimLane("stocks")
-  final JoinValueLane<String, Value> stocks = this.<String, Value>joinValueLane();
+  final JoinValueLane<String, Value> stocks = this.<String, Value>joinValueLane()
+      .didUplink(uplink -> {
+        this.demand.didUplink(uplink);
+        didUplinkTable(uplink);
+      })
+      .didUpdate((symbol, newValue, oldValue) -> {
+        if (this.partitioned) {
+          this.localRemoved.remove(symbol);
+          this.localChanged.put(symbol, newValue);
+        }
+        onStatus(symbol, newValue);
+      });
+
+  // The statuses that changed since the last batch, keyed by symbol, as one message per batchInterval.
+  @SwimLane("batch")
+  final ValueLane<Value> batch = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // Every joined status as one message, at the sequence number of the latest batch. Built for a new link, and
+  // for the links already open at most once every snapshotInterval, not with every batch.
+  @SwimLane("snapshot")
+  final ValueLane<Value> snapshot = this.<Value>valueLane()
+      .didUplink(uplink -> {
+        this.demand.didUplink(uplink);
+        publishSnapshot();
+      });
+
+  final Map<String, Value> changed = new HashMap<>();
+  // Symbols removed since the last batch, sent as its removed list.
+  final Set<String> removed = new HashSet<>();
+  long batchSequence;
+  long batchInterval;
+  // With batchDelta, a batch entry only has the fields that changed since the symbol's previous entry.
+  boolean batchDelta;
+  final Map<String, Value> published = new HashMap<>();
+  TimerRef batchTimer;
+  long snapshotInterval;
+  boolean snapshotStale = true;
+  long snapshotAt;
+
+  // The leaderboardSize symbols with the highest and lowest movement, re-published only when they or their order change.
+  @SwimLane("gainers")
+  final ValueLane<Value> gainers = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  @SwimLane("losers")
+  final ValueLane<Value> losers = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // The leaderboardSize symbols with the highest day volume.
+  @SwimLane("mostActive")
+  final ValueLane<Value> mostActiveLane = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  // This partition's changes and statuses, for the /symbols of the other partitions.
+  @SwimLane("localBatch")
+  final ValueLane<Value> localBatch = this.<Value>valueLane();
+
+  // Read once by a peer when it starts or falls behind, so it is built like snapshot.
+  @SwimLane("localSnapshot")
+  final ValueLane<Value> localSnapshot = this.<Value>valueLane()
+      .didUplink(uplink -> publishLocalSnapshot());
+
+  final Map<String, Value> localChanged = new HashMap<>();
+  final Set<String> localRemoved = new HashSet<>();
+  long localSequence;
+  boolean localSnapshotStale = true;
+  long localSnapshotAt;
+  boolean partitioned;
+  long epoch;
+
+  /**
+   * What this agent has merged from another partition's {@code localBatch}.
+   * Batches are applied in sequence. The snapshot is read with the first batch,
+   * again whenever the epoch in the batches shows the partition restarted, and
+   * whenever a batch was skipped: {@code localBatch} is a value lane, so a slow
+   * link only gets the latest one.
+   */
+  final class Peer {
+    final Uri hostUri;
+    final Set<String> symbols = new HashSet<>();
+    long epoch;
+    long applied;
+    ValueDownlink<Value> snapshotLink;
+
+    Peer(Uri hostUri) {
+      this.hostUri = hostUri;
+    }
+
+    void open() {
+      downlinkValue().hostUri(this.hostUri).nodeUri(nodeUri()).laneUri("localBatch")
+          .didSet((newValue, oldValue) -> onBatch(newValue))
+          .open();
+    }
+
+    void resync() {
+      if (null != this.snapshotLink) {
+        this.snapshotLink.close();
+      }
+      this.snapshotLink = downlinkValue().hostUri(this.hostUri).nodeUri(nodeUri()).laneUri("localSnapshot")
+          .didSet((newValue, oldValue) -> onSnapshot(newValue))
+          .open();
+    }
+
+    void onBatch(Value batch) {
+      if (!batch.isDefined()) {
+        return;
+      }
+      final long epoch = batch.get("epoch").longValue(0L);
+      if (epoch != this.epoch) {
+        this.epoch = epoch;
+        this.applied = 0L;
+        resync();
+      }
+      final long seq = batch.get("seq").longValue(0L);
+      if (seq <= this.applied) {
+        return;
+      }
+      if (seq != this.applied + 1L && null == this.snapshotLink) {
+        log.debug("onBatch() - batch {} from {} after {}, reading its snapshot", seq, this.hostUri, this.applied);
+        resync();
+      }
+      this.applied = seq;
+      batch.get("stocks").forEach(item -> put(item.key().stringValue(), item.toValue()));
+      batch.get("removed").forEach(item -> drop(item.stringValue()));
+    }
+
+    void onSnapshot(Value snapshot) {
+      if (!snapshot.isDefined()) {
+        return;
+      }
+      this.snapshotLink.close();
+      this.snapshotLink = null;
+      final long seq = snapshot.get("seq").longValue(0L);
+      final Value stocks = snapshot.get("stocks");
+      if (seq >= this.applied) {
+        // As new as every batch applied so far, so it is the whole partition.
+        this.applied = seq;
+        final List<String> gone = new ArrayList<>();
+        for (String symbol : this.symbols) {
+          if (!stocks.get(symbol).isDefined()) {
+            gone.add(symbol);
+          }
+        }
+        gone.forEach(this::drop);
+        stocks.forEach(item -> put(item.key().stringValue(), item.toValue()));
+      } else {
+        // Batches already applied are newer; only fill in what they did not carry.
+        stocks.forEach(item -> {
+          if (!this.symbols.contains(item.key().stringValue())) {
+            put(item.key().stringValue(), item.toValue());
+          }
+        });
+      }
+    }
+
+    void put(String symbol, Value status) {
+      if (this.symbols.add(symbol)) {
+        SymbolsAgent.this.demand.symbolsChanged();
+      }
+      SymbolsAgent.this.remote.put(symbol, status);
+      onStatus(symbol, status);
+    }
+
+    void drop(String symbol) {
+      if (this.symbols.remove(symbol) && null != SymbolsAgent.this.remote.remove(symbol)) {
+        onRemoved(symbol);
+      }
+    }
+  }
+
+  final List<Peer> peers = new ArrayList<>();
+  // The latest status of each symbol owned by another partition.
+  final Map<String, Value> remote = new HashMap<>();
+
+  Leaderboard movers;
+  Leaderboard mostActive;
+  int moversChanged;
+  int mostActiveChanged;
+
+  // How long after start every joined symbol first showed a price, to measure warm restarts.
+  @SwimLane("board")
+  final ValueLane<Value> board = this.<Value>valueLane()
+      .didUplink(uplink -> this.demand.didUplink(uplink));
+
+  final Set<String> pricedSymbols = new HashSet<>();
+  long startedAt;
+
+  // A client watching any of the lanes above needs every joined symbol streamed.
+  final Demand demand = new Demand(this, this::symbols);
+
+  // Last status of each stock agent that closed while idle. It stays in batch, the snapshot and the
+  // leaderboards, and goes back to the join when the agent starts again and re-adds itself. The stocks
+  // join only lists joined symbols, so a client linking it rejoins every parked symbol, and no agent is
+  // evicted while such a client is linked.
+  final Map<String, Value> parked = new HashMap<>();
+  final List<WarpUplink> tableUplinks = new ArrayList<>();
+
+  void didUplinkTable(WarpUplink uplink) {
+    if (!uplink.isRemote() || Demand.PEER.equals(uplink.body())) {
+      return;
+    }
+    this.tableUplinks.add(uplink);
+    if (!this.parked.isEmpty()) {
+      log.info("didUplinkTable() - rejoining {} parked symbols for a stocks client", this.parked.size());
+      new ArrayList<>(this.parked.keySet()).forEach(this::join);
+    }
+  }
+
+  boolean hasTableClients() {
+    this.tableUplinks.removeIf(uplink -> !uplink.isConnected());
+    return !this.tableUplinks.isEmpty();
+  }
+
+  List<String> symbols() {
+    final List<String> symbols = localSymbols();
+    symbols.addAll(this.remote.keySet());
+    return symbols;
+  }
+
+  // The symbols of this partition.
+  List<String> localSymbols() {
+    final List<String> symbols = new ArrayList<>(this.stocks.keySet());
+    symbols.addAll(this.parked.keySet());
+    return symbols;
+  }
+
+  int symbolCount() {
+    return this.stocks.size() + this.parked.size() + this.remote.size();
+  }
 
   TimerRef previousCloseTimer;
 
@@ -30,55 +276,400 @@ public class SymbolsAgent extends AbstractAgent {
   @Override
   public void didStart() {
     super.didStart();
+    this.startedAt = System.currentTimeMillis();
     this.previousCloseTimer = this.setTimer(PREVIOUS_CLOSE_INTERVAL.toMillis(), this::requestPreviousClose);
+    int leaderboardSize = getProp("leaderboardSize").intValue(10);
+    this.movers = new Leaderboard(leaderboardSize);
+    this.mostActive = new Leaderboard(leaderboardSize);
+    this.batchInterval = getProp("batchInterval").longValue(100L);
+    this.batchDelta = getProp("batchDelta").booleanValue(false);
+    this.snapshotInterval = getProp("snapshotInterval").longValue(5000L);
+    this.batchTimer = this.setTimer(this.batchInterval, this::publishBatch);
+
+    final Partitions partitions = Partitions.shared();
+    this.partitioned = partitions.isPartitioned();
+    this.epoch = this.startedAt;
+    for (int partition = 0; partition < partitions.count(); partition++) {
+      final Uri hostUri = partitions.host(partition);
+      if (null != hostUri) {
+        final Peer peer = new Peer(hostUri);
+        this.peers.add(peer);
+        peer.open();
+      }
+    }
+  }
+
+  void onStatus(String symbol, Value status) {
+    if (!this.removed.isEmpty()) {
+      this.removed.remove(symbol);
+    }
+    trackBoard(symbol, status);
+    this.screener.evaluate(symbol, status);
+    this.changed.put(symbol, status);
+    this.moversChanged |= this.movers.update(symbol, status.get("movement").doubleValue(Double.NaN));
+    this.mostActiveChanged |= this.mostActive.update(symbol, status.get("volume").doubleValue(Double.NaN));
+  }
+
+  void onRemoved(String symbol) {
+    this.changed.remove(symbol);
+    this.published.remove(symbol);
+    this.removed.add(symbol);
+    this.pricedSymbols.remove(symbol);
+    this.screener.removed(symbol);
+    this.moversChanged |= this.movers.update(symbol, Double.NaN);
+    this.mostActiveChanged |= this.mostActive.update(symbol, Double.NaN);
+    this.demand.symbolsChanged();
+  }
+
+  void publishBatch() {
+    if (!this.changed.isEmpty() || !this.removed.isEmpty()) {
+      this.batchSequence++;
+      final Record stocks = Record.create(this.changed.size());
+      if (this.batchDelta) {
+        this.changed.forEach((symbol, status) -> {
+          final Value previous = this.published.put(symbol, status);
+          final Value entry = null != previous ? StatusDelta.diff(previous, status, Record.create()) : status;
+          if (entry.length() > 0) {
+            stocks.slot(symbol, entry);
+          }
+        });
+      } else {
+        this.changed.forEach(stocks::slot);
+      }
+      this.changed.clear();
+      final Record batch = Record.create(4)
+          .slot("seq", this.batchSequence)
+          .slot("stocks", stocks);
+      if (this.batchDelta) {
+        batch.slot("delta", true);
+      }
+      if (!this.removed.isEmpty()) {
+        final Record removed = Record.create(this.removed.size());
+        this.removed.forEach(removed::item);
+        this.removed.clear();
+        batch.slot("removed", removed);
+      }
+      this.batch.set(batch);
+      this.snapshotStale = true;
+    }
+    final long now = System.currentTimeMillis();
+    if (now - this.snapshotAt >= this.snapshotInterval) {
+      publishSnapshot();
+    }
+    if (this.partitioned) {
+      publishLocalBatch();
+      if (now - this.localSnapshotAt >= this.snapshotInterval) {
+        publishLocalSnapshot();
+      }
+    }
+    publishLeaderboards();
+    flushScreens();
+    this.batchTimer = this.setTimer(this.batchInterval, this::publishBatch);
+  }
+
+  void publishLocalBatch() {
+    if (this.localChanged.isEmpty() && this.localRemoved.isEmpty()) {
+      return;
+    }
+    this.localSequence++;
+    final Record stocks = Record.create(this.localChanged.size());
+    this.localChanged.forEach(stocks::slot);
+    this.localChanged.clear();
+    final Record removed = Record.create(this.localRemoved.size());
+    this.localRemoved.forEach(removed::item);
+    this.localRemoved.clear();
+    this.localBatch.set(
+        Record.create(4)
+            .slot("epoch", this.epoch)
+            .slot("seq", this.localSequence)
+            .slot("stocks", stocks)
+            .slot("removed", removed)
+    );
+    this.localSnapshotStale = true;
+  }
+
+  // The whole table as of the latest batch, when anything changed since it was last built.
+  void publishSnapshot() {
+    if (!this.snapshotStale) {
+      return;
+    }
+    this.snapshotStale = false;
+    this.snapshotAt = System.currentTimeMillis();
+    final Record all = Record.create(symbolCount());
+    this.stocks.forEach(all::slot);
+    this.parked.forEach(all::slot);
+    this.remote.forEach(all::slot);
+    this.snapshot.set(
+        Record.create(2)
+            .slot("seq", this.batchSequence)
+            .slot("stocks", all)
+    );
+  }
+
+  void publishLocalSnapshot() {
+    if (!this.localSnapshotStale) {
+      return;
+    }
+    this.localSnapshotStale = false;
+    this.localSnapshotAt = System.currentTimeMillis();
+    final Record all = Record.create(this.stocks.size() + this.parked.size());
+    this.stocks.forEach(all::slot);
+    this.parked.forEach(all::slot);
+    this.localSnapshot.set(
+        Record.create(2)
+            .slot("seq", this.localSequence)
+            .slot("stocks", all)
+    );
+  }
+
+  void publishLeaderboards() {
+    if ((this.moversChanged & Leaderboard.TOP) != 0) {
+      this.gainers.set(leaders(this.movers, "movement", true));
+    }
+    if ((this.moversChanged & Leaderboard.BOTTOM) != 0) {
+      this.losers.set(leaders(this.movers, "movement", false));
+    }
+    if ((this.mostActiveChanged & Leaderboard.TOP) != 0) {
+      this.mostActiveLane.set(leaders(this.mostActive, "volume", true));
+    }
+    this.moversChanged = 0;
+    this.mostActiveChanged = 0;
+  }
+
+  static Value leaders(Leaderboard leaderboard, String scoreKey, boolean top) {
+    final Record leaders = Record.create(leaderboard.window());
+    final Leaderboard.Visitor visitor = (symbol, score) -> leaders.item(
+        Record.create(2)
+            .slot("symbol", symbol)
+            .slot(scoreKey, score)
+    );
+    if (top) {
+      leaderboard.forEachTop(visitor);
+    } else {
+      leaderboard.forEachBottom(visitor);
+    }
+    return leaders;
+  }
+
+  // Screens clients asked for, keyed by the filter as they sent it: the screen's id, node and canonical filter,
+  // or why the filter was rejected.
+  @SwimLane("screens")
+  final MapLane<String, Value> screens = this.<String, Value>mapLane();
+
+  final Screener screener = new Screener();
+
+  /**
+   * Starts a screen, or finds the one with the same canonical filter, and
+   * lists it in {@code screens} under the filter as sent.
+   */
+  @SwimLane("screen")
+  final CommandLane<Value> screen = this.<Value>commandLane().onCommand(input -> {
+    final String text = input.get("filter").stringValue(input.stringValue(null));
+    if (null == text) {
+      return;
+    }
+    final ScreenFilter filter;
+    try {
+      filter = ScreenFilter.parse(text);
+    } catch (IllegalArgumentException ex) {
+      this.screens.put(text, Record.create(1).slot("error", ex.getMessage()));
+      return;
+    }
+    final Screener.Screen added = this.screener.add(filter);
+    if (null != added) {
+      startScreen(added);
+    }
+    final Screener.Screen screen = null != added ? added : this.screener.get(Screener.id(filter));
+    screen.requestedAt = System.currentTimeMillis();
+    this.screens.put(text, Record.create(3)
+        .slot("id", screen.id)
+        .slot("node", screen.nodeUri.toString())
+        .slot("filter", filter.canonical()));
+  });
+
+  void startScreen(Screener.Screen screen) {
+    defineScreen(screen);
+    this.demand.pin();
+    log.info("startScreen() - started {} for '{}' with {} members", screen.id, screen.filter.canonical(),
+        screen.members.size());
+  }
+
+  // Fills a screen from every status in the table and sends its agent the result set.
+  void defineScreen(Screener.Screen screen) {
+    final Record members = Record.create();
+    this.stocks.forEach((symbol, status) -> addMember(screen, members, symbol, status));
+    this.parked.forEach((symbol, status) -> addMember(screen, members, symbol, status));
+    this.remote.forEach((symbol, status) -> addMember(screen, members, symbol, status));
+    command(screen.nodeUri, Uri.parse("define"), Record.create(2)
+        .slot("filter", screen.filter.canonical())
+        .slot("members", members));
+  }
+
+  void addMember(Screener.Screen screen, Record members, String symbol, Value status) {
+    if (null != status && this.screener.test(screen, status)) {
+      screen.members.add(symbol);
+      members.slot(symbol, status);
+    }
+  }
+
+  /**
+   * From a screen agent no client has used for a while: drops the screen, so
+   * no more changes are sent to it, then tells the agent it may close. A
+   * screen a client asked for again meanwhile is kept instead.
+   */
+  @SwimLane("unscreen")
+  final CommandLane<Value> unscreen = this.<Value>commandLane().onCommand(input -> {
+    final String id = input.stringValue("");
+    final Screener.Screen screen = this.screener.get(id);
+    if (null != screen && System.currentTimeMillis() - screen.requestedAt < ScreenAgent.LINGER_MILLIS) {
+      command(screen.nodeUri, Uri.parse("keep"), Value.absent());
+      return;
+    }
+    command(Screener.nodeUri(id), Uri.parse("drop"), Value.absent());
+    if (null == screen) {
+      return;
+    }
+    this.screener.remove(id);
+    this.demand.unpin();
+    final List<String> texts = new ArrayList<>();
+    this.screens.forEach((text, entry) -> {
+      if (screen.id.equals(entry.get("id").stringValue(null))) {
+        texts.add(text);
+      }
+    });
+    texts.forEach(this.screens::remove);
+    log.info("unscreen() - dropped {}", screen.id);
+  });
+
+  // From a screen agent a client linked before it was defined, such as after it closed.
+  @SwimLane("redefine")
+  final CommandLane<Value> redefine = this.<Value>commandLane().onCommand(input -> {
+    final Screener.Screen screen = this.screener.get(input.stringValue(""));
+    if (null != screen) {
+      defineScreen(screen);
+    }
+  });
+
+  void flushScreens() {
+    for (Screener.Screen screen : this.screener.screens.values()) {
+      if (!screen.pending.isEmpty()) {
+        final Record changes = Record.create(screen.pending.size());
+        screen.pending.forEach(changes::slot);
+        screen.pending.clear();
+        command(screen.nodeUri, Uri.parse("apply"), changes);
+      }
+    }
   }
 
   @SwimLane("add")
   final CommandLane<Value> add = this.<Value>commandLane().onCommand(input -> {
     log.debug("command = 'add' input: {}", input);
-    String symbol = input.stringValue();
+    join(input.stringValue());
+  });
+
+  void join(String symbol) {
     Uri nodeUri = Uri.empty().path("/", "stock", symbol);
+    this.parked.remove(symbol);
     this.stocks.downlink(symbol)
         .nodeUri(nodeUri)
         .laneUri("status")
         .open();
+    this.demand.symbolsChanged();
+  }
+
+  /**
+   * From an idle stock agent: parks its last status and closes the join
+   * downlink, then tells the agent it may close. Closing first would make the
+   * join relink and start the agent straight back up. A symbol that is already
+   * parked or was removed is told the same, or its agent would never close.
+   * While a client reads {@code stocks} the agent is told to keep its row
+   * there instead.
+   */
+  @SwimLane("evict")
+  final CommandLane<Value> evict = this.<Value>commandLane().onCommand(input -> {
+    String symbol = input.stringValue();
+    final boolean joined = this.stocks.containsKey(symbol);
+    if (joined && hasTableClients()) {
+      command(Uri.empty().path("/", "stock", symbol), Uri.parse("evict"), StockAgent.KEEP);
+      return;
+    }
+    if (joined) {
+      final Value status = this.stocks.get(symbol);
+      this.parked.put(symbol, null != status ? status : Value.absent());
+      this.stocks.remove(symbol);
+    }
+    command(Uri.empty().path("/", "stock", symbol), Uri.parse("evict"), Value.absent());
+  });
+
+  @SwimLane("remove")
+  final CommandLane<Value> remove = this.<Value>commandLane().onCommand(input -> {
+    log.debug("command = 'remove' input: {}", input);
+    String symbol = input.stringValue();
+    if (null == this.parked.remove(symbol)) {
+      if (!this.stocks.containsKey(symbol)) {
+        return;
+      }
+      this.stocks.remove(symbol);
+    }
+    if (this.partitioned) {
+      this.localChanged.remove(symbol);
+      this.localRemoved.add(symbol);
+    }
+    onRemoved(symbol);
   });
 
 
+  void trackBoard(String symbol, Value status) {
+    if (this.pricedSymbols.contains(symbol) || !status.get("price").isDefined()) {
+      return;
+    }
+    this.pricedSymbols.add(symbol);
+    long elapsed = System.currentTimeMillis() - this.startedAt;
+    int symbols = symbolCount();
+    this.board.set(
+        Record.of()
+            .slot("symbols", symbols)
+            .slot("priced", this.pricedSymbols.size())
+            .slot("elapsed", elapsed)
+    );
+    if (this.pricedSymbols.size() == symbols) {
+      log.info("trackBoard() - all {} symbols priced {}s after start", symbols, elapsed / 1000D);
+    }
+  }
+
   LocalDate lastPreviousClose = LocalDate.EPOCH;
 
   void requestPreviousClose() {
     try {
-      // Yesterday calculation
-      LocalDate today = ZonedDateTime.now(ZoneId.of("America/New_York"))
+      LocalDate today = ZonedDateTime.now(PreviousCloseCache.NEW_YORK)
           .toLocalDate();
-      LocalDate yesterday = today.minusDays(1);
+      LocalDate tradingDay = PreviousCloseCache.previousTradingDay(today);
 
       if (DayOfWeek.SUNDAY == today.getDayOfWeek() || DayOfWeek.SATURDAY == today.getDayOfWeek()) {
         log.trace("requestPreviousClose() - skipping be cause today is {}.", today.getDayOfWeek());
         return;
-      } else if (!yesterday.isAfter(lastPreviousClose)) {
+      } else if (!tradingDay.isAfter(lastPreviousClose)) {
         return;
       } else {
-
-        final int SPLIT_SIZE = 50;
-        final List<String> symbols = new ArrayList<>(50);
-        log.info("requestPreviousClose() - processing {} symbols", this.stocks.keySet().size());
-        this.stocks.keySet().forEach(symbol -> {
-          symbols.add(symbol);
-          if (SPLIT_SIZE == symbols.size()) {
-            log.debug("requestPreviousClose() - reaching split size of {}", SPLIT_SIZE);
-            Value s = Utils.toItem(symbols);
-            this.command("/adapter/twelvedata", "eod", s);
-            symbols.clear();
+        // Only symbols without a cached close for the last trading day; the adapter batches and rate limits the rest.
+        final PreviousCloseCache cache = PreviousCloseCache.shared();
+        final List<String> symbols = new ArrayList<>();
+        localSymbols().forEach(symbol -> {
+          if (!cache.isFresh(symbol, tradingDay)) {
+            symbols.add(symbol);
           }
         });
+        log.info("requestPreviousClose() - requesting {} of {} symbols for {}", symbols.size(),
+            this.stocks.size() + this.parked.size(), tradingDay);
         if (!symbols.isEmpty()) {
-          Value s = Utils.toItem(symbols);
-          log.debug("requestPreviousClose() - Processing left over {}", s);
-          this.command("/adapter/twelvedata", "eod", s);
+          final Uri ingestHost = Partitions.shared().ingestHost();
+          if (null == ingestHost) {
+            this.command("/adapter/twelvedata", "eod", Utils.toItem(symbols));
+          } else {
+            this.command(ingestHost, Uri.parse("/adapter/twelvedata"), Uri.parse("eod"), Utils.toItem(symbols));
+          }
         }
-        lastPreviousClose = yesterday;
+        lastPreviousClose = tradingDay;
       }
     } catch (Exception ex) {
       log.error("requestPreviousClose() - Exception thrown", ex);
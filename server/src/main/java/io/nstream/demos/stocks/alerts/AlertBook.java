@@ -0,0 +1,51 @@
+package io.nstream.demos.stocks.alerts;
+
+import io.nstream.demos.stocks.alerts.AlertRule.Level;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * The levels of the rules on one value, split by the direction that crosses
+ * them: an above rule fires rising and re-arms falling, a below rule the other
+ * way round. A move from one value to the next visits only the levels in
+ * between, in O(log n + k). The sets are concurrent so rules can be added
+ * while stock agents evaluate.
+ */
+final class AlertBook {
+  final NavigableSet<Level> rising = new ConcurrentSkipListSet<>(Level.ORDER);
+  final NavigableSet<Level> falling = new ConcurrentSkipListSet<>(Level.ORDER);
+
+  void add(AlertRule rule) {
+    if (rule.above) {
+      this.rising.add(rule.trigger);
+      this.falling.add(rule.rearm);
+    } else {
+      this.falling.add(rule.trigger);
+      this.rising.add(rule.rearm);
+    }
+  }
+
+  void remove(AlertRule rule) {
+    this.rising.remove(rule.trigger);
+    this.rising.remove(rule.rearm);
+    this.falling.remove(rule.trigger);
+    this.falling.remove(rule.rearm);
+  }
+
+  boolean isEmpty() {
+    return this.rising.isEmpty() && this.falling.isEmpty();
+  }
+
+  /**
+   * @return the levels in (from, to] when rising, or [to, from) when falling,
+   * in the order the move crosses them
+   */
+  NavigableSet<Level> crossed(double from, double to) {
+    if (to > from) {
+      return this.rising.subSet(Level.bound(from, Long.MAX_VALUE), false, Level.bound(to, Long.MAX_VALUE), true);
+    }
+    return this.falling.subSet(Level.bound(to, Long.MIN_VALUE), true, Level.bound(from, Long.MIN_VALUE), false)
+        .descendingSet();
+  }
+}
@@ -0,0 +1,159 @@
+package io.nstream.demos.stocks.alerts;
+
+import io.nstream.demos.stocks.alerts.AlertRule.Level;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The registered alert rules of this process, indexed so a tick only looks at
+ * the rules it crosses: a price and a movement {@link AlertBook} per symbol,
+ * and one movement book for the rules on every symbol. Rules come from {@link AlertsAgent}; each stock
+ * agent evaluates its own ticks through its {@link Watch}, so evaluation needs
+ * no lock beyond the books' concurrent sets.
+ */
+public final class AlertEngine {
+  private static final AlertEngine SHARED = new AlertEngine();
+
+  static {
+    PipelineMetrics.shared().gauge("alertRules", () -> SHARED.rules.size());
+  }
+
+  final Map<String, AlertRule> rules = new ConcurrentHashMap<>();
+  final Map<String, AlertBook> priceBooks = new ConcurrentHashMap<>();
+  final Map<String, AlertBook> movementBooks = new ConcurrentHashMap<>();
+  // Movement rules for every symbol.
+  final AlertBook movementBook = new AlertBook();
+  // Kept across stock agent restarts, so a rule that has fired stays quiet until it re-arms.
+  final Map<String, Watch> watches = new ConcurrentHashMap<>();
+
+  AlertEngine() {
+  }
+
+  public static AlertEngine shared() {
+    return SHARED;
+  }
+
+  /**
+   * Adds {@code rule}, replacing any rule with the same id.
+   */
+  void add(AlertRule rule) {
+    final AlertRule previous = this.rules.put(rule.id, rule);
+    if (null != previous) {
+      unindex(previous);
+    }
+    book(rule).add(rule);
+  }
+
+  boolean remove(String id) {
+    final AlertRule rule = this.rules.remove(id);
+    if (null == rule) {
+      return false;
+    }
+    unindex(rule);
+    if (rule.isGlobal()) {
+      this.watches.values().forEach(watch -> watch.disarmed.remove(rule));
+    }
+    return true;
+  }
+
+  void unindex(AlertRule rule) {
+    rule.removed = true;
+    book(rule).remove(rule);
+  }
+
+  AlertBook book(AlertRule rule) {
+    if (rule.isGlobal()) {
+      return this.movementBook;
+    }
+    final Map<String, AlertBook> books = AlertRule.PRICE.equals(rule.field) ? this.priceBooks : this.movementBooks;
+    return books.computeIfAbsent(rule.symbol, key -> new AlertBook());
+  }
+
+  int size() {
+    return this.rules.size();
+  }
+
+  /**
+   * @return the evaluation state of {@code symbol}, for its stock agent to keep
+   */
+  public Watch watch(String symbol) {
+    return this.watches.computeIfAbsent(symbol,
+        key -> new Watch(key, this.priceBooks.computeIfAbsent(key, book -> new AlertBook()),
+            this.movementBooks.computeIfAbsent(key, book -> new AlertBook())));
+  }
+
+  /**
+   * Evaluates one tick of the symbol of {@code watch} against the rules
+   * crossed since its previous tick.
+   *
+   * @param movement percent change from the previous close, or NaN if unknown
+   * @return the alerts that fired, usually none
+   */
+  public List<Value> evaluate(Watch watch, long time, double price, double movement) {
+    List<Value> fired = null;
+    if (!Double.isNaN(watch.lastPrice) && price != watch.lastPrice) {
+      fired = cross(watch, watch.priceBook, watch.lastPrice, price, time, fired);
+    }
+    if (!Double.isNaN(watch.lastMovement) && !Double.isNaN(movement) && movement != watch.lastMovement) {
+      fired = cross(watch, watch.movementBook, watch.lastMovement, movement, time, fired);
+      fired = cross(watch, this.movementBook, watch.lastMovement, movement, time, fired);
+    }
+    watch.lastPrice = price;
+    watch.lastMovement = movement;
+    return null == fired ? List.of() : fired;
+  }
+
+  static List<Value> cross(Watch watch, AlertBook book, double from, double to, long time, List<Value> fired) {
+    for (Level level : book.crossed(from, to)) {
+      final AlertRule rule = level.rule;
+      if (rule.removed) {
+        continue;
+      }
+      final boolean armed = rule.isGlobal() ? !watch.disarmed.contains(rule) : rule.armed;
+      if (level.trigger && armed) {
+        if (rule.isGlobal()) {
+          watch.disarmed.add(rule);
+        } else {
+          rule.armed = false;
+        }
+        if (null == fired) {
+          fired = new ArrayList<>(2);
+        }
+        fired.add(rule.fired(watch.symbol, to, time));
+      } else if (!level.trigger && !armed) {
+        if (rule.isGlobal()) {
+          watch.disarmed.remove(rule);
+        } else {
+          rule.armed = true;
+        }
+      }
+    }
+    return fired;
+  }
+
+  /**
+   * One symbol's last evaluated price and movement, and the movement rules for
+   * every symbol that have fired for it and not yet re-armed. Only its stock
+   * agent evaluates it.
+   */
+  public static final class Watch {
+    final String symbol;
+    final AlertBook priceBook;
+    final AlertBook movementBook;
+    final Set<AlertRule> disarmed = ConcurrentHashMap.newKeySet();
+    double lastPrice = Double.NaN;
+    double lastMovement = Double.NaN;
+
+    Watch(String symbol, AlertBook priceBook, AlertBook movementBook) {
+      this.symbol = symbol;
+      this.priceBook = priceBook;
+      this.movementBook = movementBook;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package io.nstream.demos.stocks.alerts;
+
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.util.Comparator;
+
+/**
+ * A threshold on one symbol's {@code price}, or on the {@code movement} of
+ * one or every symbol, written as
+ * {@code {id: "aapl-200", symbol: "AAPL", field: "price", above: 200}} or
+ * {@code {field: "movement", below: -5}}. It fires when the value crosses the
+ * threshold in its direction, then stays quiet until the value has gone back
+ * past the threshold by {@code hysteresis}, so a price hovering around it
+ * fires once.
+ * <p>
+ * A rule sits in its {@link AlertBook} at two levels, the threshold to fire
+ * and the threshold less the hysteresis to re-arm.
+ */
+final class AlertRule {
+  static final String PRICE = "price";
+  static final String MOVEMENT = "movement";
+
+  final String id;
+  final String symbol;
+  final String field;
+  final double threshold;
+  final boolean above;
+  final double hysteresis;
+  final Level trigger;
+  final Level rearm;
+  // Whether a symbol rule can fire; a movement rule for every symbol keeps this per symbol instead.
+  boolean armed = true;
+  volatile boolean removed;
+
+  AlertRule(String id, String symbol, String field, double threshold, boolean above, double hysteresis, long seq) {
+    this.id = id;
+    this.symbol = symbol;
+    this.field = field;
+    this.threshold = threshold;
+    this.above = above;
+    this.hysteresis = hysteresis;
+    this.trigger = new Level(threshold, this, true, seq << 1);
+    this.rearm = new Level(above ? threshold - hysteresis : threshold + hysteresis, this, false, (seq << 1) | 1L);
+  }
+
+  /**
+   * @param priceHysteresis the default hysteresis of a price rule, as a
+   * fraction of its threshold
+   * @param movementHysteresis the default hysteresis of a movement rule, in
+   * percentage points
+   * @return the rule {@code value} describes, or null if it is not a rule
+   */
+  static AlertRule fromValue(Value value, String id, long seq, double priceHysteresis, double movementHysteresis) {
+    final String symbol = value.get("symbol").stringValue(null);
+    final String field = value.get("field").stringValue(PRICE);
+    final boolean above = value.get("above").isDefined();
+    final Value threshold = above ? value.get("above") : value.get("below");
+    if (!threshold.isDefined() || !(PRICE.equals(field) || MOVEMENT.equals(field))
+        || (PRICE.equals(field) && (null == symbol || "*".equals(symbol)))) {
+      return null;
+    }
+    final double level = threshold.doubleValue(Double.NaN);
+    if (Double.isNaN(level)) {
+      return null;
+    }
+    final double hysteresis = value.get("hysteresis").doubleValue(
+        PRICE.equals(field) ? Math.abs(level) * priceHysteresis : movementHysteresis);
+    return new AlertRule(id, "*".equals(symbol) ? null : symbol, field, level, above, Math.max(0D, hysteresis), seq);
+  }
+
+  boolean isGlobal() {
+    return null == this.symbol;
+  }
+
+  Record toValue() {
+    final Record record = Record.create(5).slot("id", this.id);
+    if (null != this.symbol) {
+      record.slot("symbol", this.symbol);
+    }
+    return record.slot("field", this.field)
+        .slot(this.above ? "above" : "below", Num.from(this.threshold))
+        .slot("hysteresis", Num.from(this.hysteresis));
+  }
+
+  Value fired(String symbol, double value, long time) {
+    return Record.create(6)
+        .slot("id", this.id)
+        .slot("symbol", symbol)
+        .slot("field", this.field)
+        .slot(this.above ? "above" : "below", Num.from(this.threshold))
+        .slot("value", Num.from(value))
+        .slot("time", Num.from(time));
+  }
+
+  /**
+   * One of a rule's two levels in a book, ordered by value and then by a
+   * sequence unique to the level.
+   */
+  static final class Level {
+    static final Comparator<Level> ORDER = Comparator.<Level>comparingDouble(level -> level.value)
+        .thenComparingLong(level -> level.seq);
+
+    final double value;
+    final AlertRule rule;
+    final boolean trigger;
+    final long seq;
+
+    Level(double value, AlertRule rule, boolean trigger, long seq) {
+      this.value = value;
+      this.rule = rule;
+      this.trigger = trigger;
+      this.seq = seq;
+    }
+
+    // Bounds every level at value sorts after (MIN_VALUE) or before (MAX_VALUE).
+    static Level bound(double value, long seq) {
+      return new Level(value, null, false, seq);
+    }
+  }
+}
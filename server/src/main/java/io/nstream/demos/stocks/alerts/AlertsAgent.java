@@ -0,0 +1,130 @@
+package io.nstream.demos.stocks.alerts;
+
+import io.nstream.demos.stocks.Partitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Registers price and movement alerts with the {@link AlertEngine} and
+ * publishes the ones that fire.
+ * <ul>
+ * <li>{@code add}: a rule, see {@link AlertRule}; without an {@code id} one is
+ * assigned</li>
+ * <li>{@code remove}: the id of a rule</li>
+ * <li>{@code rules}: the registered rules by id</li>
+ * <li>{@code alerts}: the last {@code history} alerts that fired, by sequence</li>
+ * </ul>
+ * With partitions, a symbol rule is sent on to the partition that owns the
+ * symbol and a rule for every symbol to all of them. Alerts are published by
+ * the {@code /alerts} of the ingest partition.
+ */
+public class AlertsAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(AlertsAgent.class);
+  static final Uri NODE_URI = Uri.parse("/alerts");
+
+  @SwimLane("rules")
+  final MapLane<String, Value> rules = this.<String, Value>mapLane();
+
+  @SwimLane("alerts")
+  final MapLane<Long, Value> alerts = this.<Long, Value>mapLane();
+
+  @SwimLane("add")
+  final CommandLane<Value> add = this.<Value>commandLane()
+      .onCommand(this::addRule);
+
+  @SwimLane("remove")
+  final CommandLane<Value> remove = this.<Value>commandLane()
+      .onCommand(input -> {
+        final String id = input.get("id").stringValue(input.stringValue(null));
+        if (null == id) {
+          return;
+        }
+        this.rules.remove(id);
+        this.engine.remove(id);
+        if (!isForwarded(input)) {
+          forward(null, Record.create(2).slot("id", id).slot("forwarded", true), "remove", true);
+        }
+      });
+
+  @SwimLane("fire")
+  final CommandLane<Value> fire = this.<Value>commandLane()
+      .onCommand(alert -> {
+        this.alerts.put(++this.fired, alert);
+        if (this.fired > this.history) {
+          this.alerts.remove(this.fired - this.history);
+        }
+      });
+
+  final AlertEngine engine = AlertEngine.shared();
+  double priceHysteresis;
+  double movementHysteresis;
+  int history;
+  long nextId;
+  long fired;
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    this.priceHysteresis = getProp("priceHysteresis").doubleValue(0.001D);
+    this.movementHysteresis = getProp("movementHysteresis").doubleValue(0.25D);
+    this.history = Math.max(1, getProp("history").intValue(100));
+    this.fired = this.alerts.keySet().stream().mapToLong(Long::longValue).max().orElse(0L);
+    // Rules the lane kept across a restart go back into the engine.
+    this.rules.forEach((id, rule) -> {
+      final AlertRule parsed = AlertRule.fromValue(rule, id, ++this.nextId, this.priceHysteresis,
+          this.movementHysteresis);
+      if (null != parsed && isLocal(parsed)) {
+        this.engine.add(parsed);
+      }
+    });
+  }
+
+  void addRule(Value input) {
+    final String id = input.get("id").stringValue(Partitions.shared().index() + "-" + (this.nextId + 1L));
+    final AlertRule rule = AlertRule.fromValue(input, id, ++this.nextId, this.priceHysteresis,
+        this.movementHysteresis);
+    if (null == rule) {
+      log.warn("addRule() - not a rule: {}", input);
+      return;
+    }
+    this.rules.put(id, rule.toValue());
+    if (isLocal(rule)) {
+      this.engine.add(rule);
+    }
+    if (!isForwarded(input)) {
+      forward(rule.symbol, rule.toValue().slot("forwarded", true), "add", rule.isGlobal());
+    }
+  }
+
+  static boolean isLocal(AlertRule rule) {
+    return rule.isGlobal() || Partitions.shared().isLocal(rule.symbol);
+  }
+
+  static boolean isForwarded(Value input) {
+    return input.get("forwarded").booleanValue(false);
+  }
+
+  /**
+   * Sends a command on to the partition owning {@code symbol}, or to every
+   * other partition when {@code everywhere}.
+   */
+  void forward(String symbol, Record body, String lane, boolean everywhere) {
+    final Partitions partitions = Partitions.shared();
+    if (!partitions.isPartitioned()) {
+      return;
+    }
+    for (int partition = 0; partition < partitions.count(); partition++) {
+      final Uri hostUri = partitions.host(partition);
+      if (null != hostUri && (everywhere || partition == partitions.owner(symbol))) {
+        command(hostUri, NODE_URI, Uri.parse(lane), body);
+      }
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package io.nstream.demos.stocks.analytics;
+
+import io.nstream.demos.stocks.Partitions;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.downlink.ValueDownlink;
+import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Rolling correlation of every pair of symbols, and each symbol's beta to an
+ * index, over the log returns of the last {@code window} bars of
+ * {@code interval} milliseconds.
+ * <ul>
+ * <li>{@code pairs}: the {@code topPairs} most correlated pairs, most
+ * correlated first, as {@code {a, b, correlation}}</li>
+ * <li>{@code beta}: beta to the {@code index} node's {@code aggregate} value by
+ * symbol</li>
+ * <li>{@code stats}: symbols, samples in the window, and how long the last
+ * interval took to compute</li>
+ * </ul>
+ * Every interval the {@code /symbols} snapshot is read once, and the last
+ * price of each symbol goes into an aligned array of returns, 0 for a symbol
+ * without a price at either end. The {@link CorrelationMatrix} update runs on
+ * a fork-join pool of {@code parallelism} threads, never on the agent's own,
+ * and reports back through the {@code computed} lane. Intervals that come due
+ * while it is still running queue behind it, up to a window's worth.
+ * <p>
+ * Every partition's snapshot has all the symbols, so only the ingest
+ * partition computes.
+ */
+public class CorrelationAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(CorrelationAgent.class);
+
+  @SwimLane("pairs")
+  final ValueLane<Value> pairs = this.<Value>valueLane();
+
+  @SwimLane("beta")
+  final MapLane<String, Double> beta = this.<String, Double>mapLane();
+
+  @SwimLane("stats")
+  final ValueLane<Value> stats = this.<Value>valueLane();
+
+  @SwimLane("computed")
+  final CommandLane<Value> computed = this.<Value>commandLane()
+      .onCommand(input -> onComputed());
+
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+  final Map<String, Integer> indexOf = new HashMap<>();
+  final List<String> symbols = new ArrayList<>();
+  final ArrayDeque<Sample> pending = new ArrayDeque<>();
+  double[] lastPrices;
+  double lastIndex = Double.NaN;
+
+  ValueDownlink<Value> snapshotLink;
+  ValueDownlink<Value> indexLink;
+  double indexValue = Double.NaN;
+
+  CorrelationMatrix matrix;
+  ForkJoinPool pool;
+  volatile CorrelationMatrix.Result result;
+  boolean computing;
+  long skipped;
+  long interval;
+  int window;
+  int tile;
+  TimerRef sampleTimer;
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    if (!Partitions.shared().isIngest()) {
+      log.info("didStart() - {} computes on the ingest partition only", nodeUri());
+      return;
+    }
+    this.interval = Math.max(1000L, getProp("interval").longValue(60000L));
+    this.window = Math.max(3, getProp("window").intValue(60));
+    this.tile = Math.max(8, getProp("tile").intValue(64));
+    final int capacity = Math.max(2, getProp("maxSymbols").intValue(1024));
+    final int parallelism = Math.max(1, getProp("parallelism").intValue(Runtime.getRuntime().availableProcessors()));
+    this.pool = new ForkJoinPool(parallelism);
+    this.matrix = new CorrelationMatrix(capacity, this.window, this.tile,
+        Math.max(1, getProp("topPairs").intValue(20)), this.pool);
+    this.lastPrices = new double[capacity];
+
+    final String index = getProp("index").stringValue(null);
+    if (null != index) {
+      this.indexLink = downlinkValue()
+          .nodeUri(index)
+          .laneUri("aggregate")
+          .didSet((newValue, oldValue) -> this.indexValue = newValue.get("value").doubleValue(Double.NaN))
+          .open();
+    }
+    log.info("didStart() - {} every {} ms over {} intervals, {} threads, tiles of {}", nodeUri(), this.interval,
+        this.window, parallelism, this.tile);
+    this.sampleTimer = setTimer(this.interval, this::readSnapshot);
+  }
+
+  // The snapshot is built for each new link, so it is linked once per interval and closed once read.
+  void readSnapshot() {
+    if (null != this.snapshotLink) {
+      this.snapshotLink.close();
+    }
+    this.snapshotLink = downlinkValue()
+        .nodeUri("/symbols")
+        .laneUri("snapshot")
+        .didSet((newValue, oldValue) -> {
+          if (newValue.isDefined() && null != this.snapshotLink) {
+            this.snapshotLink.close();
+            this.snapshotLink = null;
+            sample(newValue.get("stocks"));
+          }
+        })
+        .open();
+    this.sampleTimer = setTimer(this.interval, this::readSnapshot);
+  }
+
+  void sample(Value snapshot) {
+    final int capacity = this.matrix.capacity();
+    final double[] prices = new double[capacity];
+    Arrays.fill(prices, Double.NaN);
+    for (Item item : snapshot) {
+      final String symbol = item.key().stringValue(null);
+      if (null == symbol) {
+        continue;
+      }
+      Integer index = this.indexOf.get(symbol);
+      if (null == index) {
+        if (this.symbols.size() == capacity) {
+          log.warn("sample() - more than {} symbols, leaving out {}", capacity, symbol);
+          continue;
+        }
+        index = this.symbols.size();
+        this.indexOf.put(symbol, index);
+        this.lastPrices[index] = Double.NaN;
+        this.symbols.add(symbol);
+      }
+      prices[index] = item.toValue().get("price").doubleValue(Double.NaN);
+    }
+    final int size = this.symbols.size();
+    final double[] returns = new double[size];
+    for (int i = 0; i < size; i++) {
+      returns[i] = logReturn(this.lastPrices[i], prices[i]);
+      if (prices[i] > 0D) {
+        this.lastPrices[i] = prices[i];
+      }
+    }
+    final double indexReturn = null != this.indexLink ? logReturn(this.lastIndex, this.indexValue) : Double.NaN;
+    if (this.indexValue > 0D) {
+      this.lastIndex = this.indexValue;
+    }
+
+    if (this.pending.size() >= this.window) {
+      this.pending.poll();
+      this.skipped++;
+    }
+    this.pending.add(new Sample(returns, size, indexReturn));
+    compute();
+  }
+
+  static double logReturn(double from, double to) {
+    return from > 0D && to > 0D ? Math.log(to / from) : 0D;
+  }
+
+  void compute() {
+    if (this.computing || this.pending.isEmpty()) {
+      return;
+    }
+    final Sample sample = this.pending.poll();
+    this.computing = true;
+    this.pool.execute(() -> {
+      try {
+        this.result = this.matrix.add(sample.returns, sample.size, sample.indexReturn);
+      } catch (Throwable error) {
+        log.error("compute() - correlation update failed", error);
+      } finally {
+        command(nodeUri(), Uri.parse("computed"), Value.absent());
+      }
+    });
+  }
+
+  void onComputed() {
+    if (!this.computing) {
+      return;
+    }
+    this.computing = false;
+    final CorrelationMatrix.Result result = this.result;
+    this.result = null;
+    if (null != result) {
+      publish(result);
+    }
+    compute();
+  }
+
+  void publish(CorrelationMatrix.Result result) {
+    this.metrics.correlation.recordValue(result.nanos);
+    final CorrelationMatrix.TopPairs top = result.top;
+    final Record pairs = Record.create(top.size());
+    for (int k : top.order()) {
+      pairs.item(Record.create(3)
+          .slot("a", this.symbols.get(top.first(k)))
+          .slot("b", this.symbols.get(top.second(k)))
+          .slot("correlation", top.correlation(k)));
+    }
+    this.pairs.set(pairs);
+
+    if (null != result.betas) {
+      for (int i = 0; i < result.betas.length; i++) {
+        final double beta = result.betas[i];
+        if (Double.isNaN(beta)) {
+          this.beta.remove(this.symbols.get(i));
+        } else {
+          this.beta.put(this.symbols.get(i), beta);
+        }
+      }
+    }
+
+    this.stats.set(Record.create(6)
+        .slot("symbols", this.symbols.size())
+        .slot("samples", result.samples)
+        .slot("window", this.window)
+        .slot("millis", result.nanos / 1e6)
+        .slot("parallelism", this.pool.getParallelism())
+        .slot("skipped", this.skipped));
+  }
+
+  @Override
+  public void willStop() {
+    if (null != this.sampleTimer) {
+      this.sampleTimer.cancel();
+    }
+    if (null != this.snapshotLink) {
+      this.snapshotLink.close();
+    }
+    if (null != this.pool) {
+      this.pool.shutdown();
+    }
+    super.willStop();
+  }
+
+  static final class Sample {
+    final double[] returns;
+    final int size;
+    final double indexReturn;
+
+    Sample(double[] returns, int size, double indexReturn) {
+      this.returns = returns;
+      this.size = size;
+      this.indexReturn = indexReturn;
+    }
+  }
+}
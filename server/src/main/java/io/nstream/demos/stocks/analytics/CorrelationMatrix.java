@@ -0,0 +1,409 @@
+package io.nstream.demos.stocks.analytics;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Rolling pairwise correlation of up to {@code capacity} return series over
+ * the last {@code window} samples, and the beta of each series to an index.
+ * <p>
+ * The matrix keeps running sums of every series and of every pairwise product
+ * ({@code products}, row major, upper triangle), so a sample only adds the
+ * new products and subtracts the ones leaving the window: O(n^2) flops per
+ * sample instead of O(n^2 * window). Once per window the sums are recomputed
+ * from the ring of samples so rounding can't build up.
+ * <p>
+ * The pairs are split into square tiles of {@code tile} rows by {@code tile}
+ * columns, each small enough that its products stay in cache while every
+ * sample in the window streams through it. Tiles are updated, correlated and
+ * searched for the top pairs as fork-join tasks on {@code pool}; the per
+ * series sums they read are updated before they are forked.
+ * <p>
+ * Not thread safe: one {@link #add} at a time.
+ */
+public final class CorrelationMatrix {
+  final int capacity;
+  final int window;
+  final int tile;
+  final int topPairs;
+  final ForkJoinPool pool;
+
+  // Ring of samples, one row per interval.
+  final double[][] samples;
+  final double[] indexSamples;
+  final double[] leaving;
+  int head;
+  int count;
+  int size;
+  int sinceRecompute;
+
+  final double[] sums;
+  final double[] products;
+  final double[] means;
+  final double[] inverseDeviations;
+  final double[] indexProducts;
+  double indexSum;
+  double indexSquares;
+
+  public CorrelationMatrix(int capacity, int window, int tile, int topPairs, ForkJoinPool pool) {
+    this.capacity = capacity;
+    this.window = window;
+    this.tile = tile;
+    this.topPairs = topPairs;
+    this.pool = pool;
+    this.samples = new double[window][capacity];
+    this.indexSamples = new double[window];
+    this.leaving = new double[capacity];
+    this.sums = new double[capacity];
+    this.products = new double[capacity * capacity];
+    this.means = new double[capacity];
+    this.inverseDeviations = new double[capacity];
+    this.indexProducts = new double[capacity];
+  }
+
+  public int capacity() {
+    return this.capacity;
+  }
+
+  public int count() {
+    return this.count;
+  }
+
+  /**
+   * Adds one sample and recomputes the correlations on the pool, waiting for
+   * them.
+   *
+   * @param returns the return of each series over the interval, 0 when it has
+   * no price at one end
+   * @param size how many series are in use, the first {@code size} of
+   * {@code returns}
+   * @param indexReturn the index's return, or NaN for no betas
+   */
+  public Result add(double[] returns, int size, double indexReturn) {
+    final long started = System.nanoTime();
+    this.size = Math.min(size, this.capacity);
+    final boolean full = this.count == this.window;
+    final double[] row = this.samples[this.head];
+    final double leavingIndex = full ? this.indexSamples[this.head] : 0D;
+    if (full) {
+      System.arraycopy(row, 0, this.leaving, 0, this.size);
+    } else {
+      Arrays.fill(this.leaving, 0, this.size, 0D);
+      this.count++;
+    }
+    System.arraycopy(returns, 0, row, 0, this.size);
+    this.indexSamples[this.head] = Double.isNaN(indexReturn) ? 0D : indexReturn;
+    this.head = this.head + 1 == this.window ? 0 : this.head + 1;
+
+    final boolean recompute = ++this.sinceRecompute >= this.window;
+    if (recompute) {
+      this.sinceRecompute = 0;
+      recomputeSeries();
+    } else {
+      updateSeries(row, leavingIndex);
+    }
+    prepare();
+
+    final TopPairs top = this.pool.invoke(new TileTask(tiles(), recompute, row));
+    final double[] betas = Double.isNaN(indexReturn) ? null : betas();
+    return new Result(top, betas, this.count, System.nanoTime() - started);
+  }
+
+  // The sums of each series and of its square, and its products with the index.
+  void updateSeries(double[] row, double leavingIndex) {
+    final double index = this.indexSamples[this.head == 0 ? this.window - 1 : this.head - 1];
+    for (int i = 0; i < this.size; i++) {
+      final double x = row[i];
+      final double y = this.leaving[i];
+      this.sums[i] += x - y;
+      this.products[i * this.capacity + i] += x * x - y * y;
+      this.indexProducts[i] += x * index - y * leavingIndex;
+    }
+    this.indexSum += index - leavingIndex;
+    this.indexSquares += index * index - leavingIndex * leavingIndex;
+  }
+
+  void recomputeSeries() {
+    Arrays.fill(this.sums, 0D);
+    Arrays.fill(this.indexProducts, 0D);
+    this.indexSum = 0D;
+    this.indexSquares = 0D;
+    for (int i = 0; i < this.size; i++) {
+      this.products[i * this.capacity + i] = 0D;
+    }
+    for (int t = 0; t < this.count; t++) {
+      final double[] sample = this.samples[t];
+      final double index = this.indexSamples[t];
+      for (int i = 0; i < this.size; i++) {
+        final double x = sample[i];
+        this.sums[i] += x;
+        this.products[i * this.capacity + i] += x * x;
+        this.indexProducts[i] += x * index;
+      }
+      this.indexSum += index;
+      this.indexSquares += index * index;
+    }
+  }
+
+  // Mean and 1 / deviation of every series, read by every tile.
+  void prepare() {
+    for (int i = 0; i < this.size; i++) {
+      final double mean = this.sums[i] / this.count;
+      final double variance = this.products[i * this.capacity + i] - this.sums[i] * mean;
+      this.means[i] = mean;
+      this.inverseDeviations[i] = variance > 1e-18 ? 1D / Math.sqrt(variance) : 0D;
+    }
+  }
+
+  double[] betas() {
+    final double[] betas = new double[this.size];
+    final double indexMean = this.indexSum / this.count;
+    final double indexVariance = this.indexSquares - this.indexSum * indexMean;
+    for (int i = 0; i < this.size; i++) {
+      betas[i] = indexVariance > 1e-18 ? (this.indexProducts[i] - this.sums[i] * indexMean) / indexVariance : Double.NaN;
+    }
+    return betas;
+  }
+
+  /**
+   * @return the row block and column block of every tile on or above the
+   * diagonal, two ints per tile
+   */
+  int[] tiles() {
+    final int blocks = (this.size + this.tile - 1) / this.tile;
+    final int[] tiles = new int[blocks * (blocks + 1)];
+    int n = 0;
+    for (int rows = 0; rows < blocks; rows++) {
+      for (int columns = rows; columns < blocks; columns++) {
+        tiles[n++] = rows;
+        tiles[n++] = columns;
+      }
+    }
+    return tiles;
+  }
+
+  /**
+   * Updates the products of one tile and offers its pairs to {@code top}.
+   */
+  void tile(int rowBlock, int columnBlock, boolean recompute, double[] row, TopPairs top) {
+    final int rowStart = rowBlock * this.tile;
+    final int rowEnd = Math.min(this.size, rowStart + this.tile);
+    final int columnStart = columnBlock * this.tile;
+    final int columnEnd = Math.min(this.size, columnStart + this.tile);
+    final int n = this.capacity;
+    final double[] products = this.products;
+    if (recompute) {
+      for (int i = rowStart; i < rowEnd; i++) {
+        Arrays.fill(products, i * n + Math.max(columnStart, i + 1), i * n + columnEnd, 0D);
+      }
+      for (int t = 0; t < this.count; t++) {
+        final double[] sample = this.samples[t];
+        for (int i = rowStart; i < rowEnd; i++) {
+          final double x = sample[i];
+          final int offset = i * n;
+          for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+            products[offset + j] += x * sample[j];
+          }
+        }
+      }
+    } else {
+      final double[] leaving = this.leaving;
+      for (int i = rowStart; i < rowEnd; i++) {
+        final double x = row[i];
+        final double y = leaving[i];
+        final int offset = i * n;
+        for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+          products[offset + j] += x * row[j] - y * leaving[j];
+        }
+      }
+    }
+    // Two samples always correlate fully; no pairs until there are more.
+    if (this.count < 3) {
+      return;
+    }
+    for (int i = rowStart; i < rowEnd; i++) {
+      final double inverse = this.inverseDeviations[i];
+      if (inverse == 0D) {
+        continue;
+      }
+      final double sum = this.sums[i];
+      final int offset = i * n;
+      for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++) {
+        final double other = this.inverseDeviations[j];
+        if (other != 0D) {
+          top.offer((products[offset + j] - sum * this.means[j]) * inverse * other, i, j);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the correlation of series {@code i} and {@code j} as of the last
+   * {@link #add}, or NaN when either has not moved
+   */
+  public double correlation(int i, int j) {
+    if (i == j) {
+      return 1D;
+    }
+    final int a = Math.min(i, j);
+    final int b = Math.max(i, j);
+    if (this.inverseDeviations[a] == 0D || this.inverseDeviations[b] == 0D) {
+      return Double.NaN;
+    }
+    return (this.products[a * this.capacity + b] - this.sums[a] * this.means[b])
+        * this.inverseDeviations[a] * this.inverseDeviations[b];
+  }
+
+  final class TileTask extends RecursiveTask<TopPairs> {
+    final int[] tiles;
+    final int from;
+    final int to;
+    final boolean recompute;
+    final double[] row;
+
+    TileTask(int[] tiles, boolean recompute, double[] row) {
+      this(tiles, 0, tiles.length >> 1, recompute, row);
+    }
+
+    TileTask(int[] tiles, int from, int to, boolean recompute, double[] row) {
+      this.tiles = tiles;
+      this.from = from;
+      this.to = to;
+      this.recompute = recompute;
+      this.row = row;
+    }
+
+    @Override
+    protected TopPairs compute() {
+      if (this.to - this.from <= 1) {
+        final TopPairs top = new TopPairs(CorrelationMatrix.this.topPairs);
+        for (int k = this.from; k < this.to; k++) {
+          tile(this.tiles[k << 1], this.tiles[(k << 1) + 1], this.recompute, this.row, top);
+        }
+        return top;
+      }
+      final int middle = (this.from + this.to) >>> 1;
+      final TileTask left = new TileTask(this.tiles, this.from, middle, this.recompute, this.row);
+      left.fork();
+      final TopPairs right = new TileTask(this.tiles, middle, this.to, this.recompute, this.row).compute();
+      return left.join().merge(right);
+    }
+  }
+
+  /**
+   * The most correlated pairs seen, as a min-heap of at most {@code limit} in
+   * parallel arrays.
+   */
+  public static final class TopPairs {
+    final int limit;
+    final double[] correlations;
+    final int[] firsts;
+    final int[] seconds;
+    int size;
+
+    TopPairs(int limit) {
+      this.limit = limit;
+      this.correlations = new double[limit];
+      this.firsts = new int[limit];
+      this.seconds = new int[limit];
+    }
+
+    void offer(double correlation, int first, int second) {
+      if (this.size < this.limit) {
+        int k = this.size++;
+        while (k > 0) {
+          final int parent = (k - 1) >>> 1;
+          if (this.correlations[parent] <= correlation) {
+            break;
+          }
+          move(parent, k);
+          k = parent;
+        }
+        set(k, correlation, first, second);
+      } else if (this.limit > 0 && correlation > this.correlations[0]) {
+        int k = 0;
+        while (true) {
+          int child = (k << 1) + 1;
+          if (child >= this.size) {
+            break;
+          }
+          if (child + 1 < this.size && this.correlations[child + 1] < this.correlations[child]) {
+            child++;
+          }
+          if (this.correlations[child] >= correlation) {
+            break;
+          }
+          move(child, k);
+          k = child;
+        }
+        set(k, correlation, first, second);
+      }
+    }
+
+    void move(int from, int to) {
+      this.correlations[to] = this.correlations[from];
+      this.firsts[to] = this.firsts[from];
+      this.seconds[to] = this.seconds[from];
+    }
+
+    void set(int k, double correlation, int first, int second) {
+      this.correlations[k] = correlation;
+      this.firsts[k] = first;
+      this.seconds[k] = second;
+    }
+
+    TopPairs merge(TopPairs other) {
+      for (int k = 0; k < other.size; k++) {
+        offer(other.correlations[k], other.firsts[k], other.seconds[k]);
+      }
+      return this;
+    }
+
+    /**
+     * @return the heap positions from the most correlated pair down
+     */
+    public int[] order() {
+      final Integer[] order = new Integer[this.size];
+      for (int k = 0; k < this.size; k++) {
+        order[k] = k;
+      }
+      Arrays.sort(order, (a, b) -> Double.compare(this.correlations[b], this.correlations[a]));
+      return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+
+    public int size() {
+      return this.size;
+    }
+
+    public double correlation(int k) {
+      return this.correlations[k];
+    }
+
+    public int first(int k) {
+      return this.firsts[k];
+    }
+
+    public int second(int k) {
+      return this.seconds[k];
+    }
+  }
+
+  /**
+   * What one {@link #add} produced.
+   */
+  public static final class Result {
+    public final TopPairs top;
+    // Beta of each series to the index, NaN while the index has not moved; null without an index.
+    public final double[] betas;
+    public final int samples;
+    public final long nanos;
+
+    Result(TopPairs top, double[] betas, int samples, long nanos) {
+      this.top = top;
+      this.betas = betas;
+      this.samples = samples;
+      this.nanos = nanos;
+    }
+  }
+}
@@ -0,0 +1,281 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.Partitions;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.ref.WarpRef;
+import swim.json.Json;
+import swim.structure.Record;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches end of day prices asynchronously. Requested symbols are queued and
+ * sent in batches of up to {@code batchSize}, the most the eod endpoint
+ * accepts. A token bucket that refills {@code creditsPerMinute} keeps the
+ * pipeline within the plan's credits (one credit per symbol). At most
+ * {@code concurrency} requests are in flight. Symbols that fail, alone or with
+ * their whole batch, are retried with exponential backoff up to
+ * {@code maxAttempts}. All queue state is confined to the pipeline's thread.
+ */
+public class EodPipeline {
+  private static final Logger log = LoggerFactory.getLogger(EodPipeline.class);
+  private static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(2);
+  private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(2);
+
+  private final WarpRef warpRef;
+  private final String token;
+  private final Uri restApiUri;
+  private final HttpClient httpClient;
+  private final ScheduledExecutorService executorService;
+
+  final int creditsPerMinute;
+  final int batchSize;
+  final int concurrency;
+  final Duration timeout;
+  final int maxAttempts;
+
+  private final ArrayDeque<String> pending = new ArrayDeque<>();
+  private final Set<String> queued = new HashSet<>();
+  private final Map<String, Integer> attempts = new HashMap<>();
+  private double credits;
+  private long refilledAt;
+  private int inFlight;
+  private boolean pumpScheduled;
+
+  final AtomicLong batches = new AtomicLong();
+  final AtomicLong failedBatches = new AtomicLong();
+  final AtomicLong symbolsRequested = new AtomicLong();
+  final AtomicLong symbolsDelivered = new AtomicLong();
+  final AtomicLong symbolsFailed = new AtomicLong();
+  final AtomicLong retries = new AtomicLong();
+  final AtomicLong latencyTotal = new AtomicLong();
+  final AtomicLong latencyMax = new AtomicLong();
+  final AtomicLong lastLatency = new AtomicLong();
+
+  public EodPipeline(WarpRef warpRef, String token, Value settings) {
+    this.warpRef = warpRef;
+    this.token = token;
+    this.restApiUri = Uri.parse("https://api.twelvedata.com/");
+    this.creditsPerMinute = Math.max(1, settings.get("creditsPerMinute").intValue(8));
+    this.batchSize = Math.max(1, Math.min(this.creditsPerMinute, settings.get("batchSize").intValue(120)));
+    this.concurrency = Math.max(1, settings.get("concurrency").intValue(2));
+    this.timeout = Duration.ofSeconds(settings.get("timeout").longValue(30L));
+    this.maxAttempts = Math.max(1, settings.get("maxAttempts").intValue(5));
+    this.httpClient = HttpClient.newBuilder()
+        .connectTimeout(this.timeout)
+        .build();
+    this.executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "eod-pipeline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.credits = this.creditsPerMinute;
+    this.refilledAt = System.nanoTime();
+    log.info("EodPipeline() - creditsPerMinute = {} batchSize = {} concurrency = {} timeout = {}",
+        this.creditsPerMinute, this.batchSize, this.concurrency, this.timeout);
+  }
+
+  public void stop() {
+    this.executorService.shutdownNow();
+  }
+
+  /**
+   * Queues every symbol in {@code symbols} that is not already queued.
+   */
+  public void submit(Value symbols) {
+    final List<String> requested = new ArrayList<>();
+    symbols.forEach(item -> requested.add(item.stringValue()));
+    this.executorService.execute(() -> {
+      for (String symbol : requested) {
+        if (this.queued.add(symbol)) {
+          this.attempts.put(symbol, 0);
+          this.pending.addLast(symbol);
+        }
+      }
+      pump();
+    });
+  }
+
+  private void refill() {
+    final long now = System.nanoTime();
+    final double minutes = (now - this.refilledAt) / (double) TimeUnit.MINUTES.toNanos(1);
+    this.credits = Math.min(this.creditsPerMinute, this.credits + minutes * this.creditsPerMinute);
+    this.refilledAt = now;
+  }
+
+  private void pump() {
+    this.pumpScheduled = false;
+    while (!this.pending.isEmpty() && this.inFlight < this.concurrency) {
+      refill();
+      final int size = Math.min(this.batchSize, this.pending.size());
+      if (this.credits < size) {
+        final double missing = size - this.credits;
+        final long wait = (long) Math.ceil(missing / this.creditsPerMinute * TimeUnit.MINUTES.toMillis(1));
+        schedulePump(Math.max(1L, wait));
+        return;
+      }
+      this.credits -= size;
+      final List<String> batch = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        batch.add(this.pending.pollFirst());
+      }
+      send(batch);
+    }
+  }
+
+  private void schedulePump(long delayMillis) {
+    if (!this.pumpScheduled) {
+      this.pumpScheduled = true;
+      this.executorService.schedule(this::pump, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void send(List<String> batch) {
+    this.inFlight++;
+    this.batches.incrementAndGet();
+    this.symbolsRequested.addAndGet(batch.size());
+    final Uri uri = this.restApiUri.appendedPath("eod")
+        .appendedQuery("symbol", String.join(",", batch))
+        .appendedQuery("apikey", this.token);
+    final HttpRequest request = HttpRequest.newBuilder(URI.create(uri.toString()))
+        .timeout(this.timeout)
+        .GET()
+        .build();
+    log.debug("send() - requesting eod for {} symbols", batch.size());
+    final long started = System.nanoTime();
+    this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+        .whenCompleteAsync((response, error) -> {
+          this.inFlight--;
+          final long elapsed = System.nanoTime() - started;
+          PipelineMetrics.shared().eod.recordValue(elapsed);
+          recordLatency(TimeUnit.NANOSECONDS.toMillis(elapsed));
+          if (null != error) {
+            log.warn("send() - eod batch of {} symbols failed", batch.size(), error);
+            this.failedBatches.incrementAndGet();
+            retry(batch);
+          } else {
+            handleResponse(batch, response);
+          }
+          pump();
+        }, this.executorService);
+  }
+
+  private void recordLatency(long latency) {
+    this.lastLatency.set(latency);
+    this.latencyTotal.addAndGet(latency);
+    this.latencyMax.accumulateAndGet(latency, Math::max);
+  }
+
+  private void handleResponse(List<String> batch, HttpResponse<String> response) {
+    final Value body;
+    try {
+      body = Json.parse(response.body());
+    } catch (RuntimeException ex) {
+      log.warn("handleResponse() - unparseable eod response, status {}", response.statusCode(), ex);
+      this.failedBatches.incrementAndGet();
+      retry(batch);
+      return;
+    }
+    if (response.statusCode() != 200 || isError(body)) {
+      log.warn("handleResponse() - eod batch of {} symbols failed, status {}: {}", batch.size(),
+          response.statusCode(), body.get("message").stringValue(""));
+      this.failedBatches.incrementAndGet();
+      retry(batch);
+      return;
+    }
+
+    final List<String> failed = new ArrayList<>();
+    for (String symbol : batch) {
+      // A single symbol request returns the quote itself instead of a map keyed by symbol.
+      final Value eodValue = batch.size() == 1 && body.get("symbol").isDefined() ? body : body.get(symbol);
+      if (!eodValue.isDefined() || isError(eodValue) || !eodValue.get("close").isDefined()) {
+        failed.add(symbol);
+      } else {
+        deliver(symbol, eodValue);
+      }
+    }
+    if (!failed.isEmpty()) {
+      log.debug("handleResponse() - {} of {} symbols missing from eod response", failed.size(), batch.size());
+      retry(failed);
+    }
+  }
+
+  static boolean isError(Value value) {
+    return "error".equals(value.get("status").stringValue(null));
+  }
+
+  private void deliver(String symbol, Value eodValue) {
+    this.queued.remove(symbol);
+    this.attempts.remove(symbol);
+    this.symbolsDelivered.incrementAndGet();
+    final Uri symbolPath = Uri.parse("/")
+        .appendedPath("stock")
+        .appendedPath(symbol);
+    final Uri hostUri = Partitions.shared().hostOf(symbol);
+    if (null == hostUri) {
+      this.warpRef.command(symbolPath, Uri.parse("updatePreviousClose"), eodValue);
+    } else {
+      this.warpRef.command(hostUri, symbolPath, Uri.parse("updatePreviousClose"), eodValue);
+    }
+  }
+
+  private void retry(List<String> symbols) {
+    final List<String> again = new ArrayList<>(symbols.size());
+    int attempt = 0;
+    for (String symbol : symbols) {
+      final int attempts = this.attempts.getOrDefault(symbol, 0) + 1;
+      if (attempts >= this.maxAttempts) {
+        log.error("retry() - giving up on eod for {} after {} attempts", symbol, attempts);
+        this.queued.remove(symbol);
+        this.attempts.remove(symbol);
+        this.symbolsFailed.incrementAndGet();
+      } else {
+        this.attempts.put(symbol, attempts);
+        again.add(symbol);
+        attempt = Math.max(attempt, attempts);
+      }
+    }
+    if (again.isEmpty()) {
+      return;
+    }
+    this.retries.addAndGet(again.size());
+    final long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << (attempt - 1));
+    this.executorService.schedule(() -> {
+      again.forEach(this.pending::addLast);
+      pump();
+    }, backoff, TimeUnit.MILLISECONDS);
+  }
+
+  public Value stats() {
+    final long batches = this.batches.get();
+    return Record.of()
+        .slot("batches", batches)
+        .slot("failedBatches", this.failedBatches.get())
+        .slot("symbolsRequested", this.symbolsRequested.get())
+        .slot("symbolsDelivered", this.symbolsDelivered.get())
+        .slot("symbolsFailed", this.symbolsFailed.get())
+        .slot("retries", this.retries.get())
+        .slot("lastLatency", this.lastLatency.get())
+        .slot("maxLatency", this.latencyMax.get())
+        .slot("meanLatency", batches == 0L ? 0L : this.latencyTotal.get() / batches);
+  }
+}
@@ -0,0 +1,98 @@
+package io.nstream.demos.stocks.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends raw TwelveData frames to a feed log that {@link FeedReplay} can play
+ * back. The log is a header ({@link #MAGIC}, {@link #VERSION}) followed by
+ * frames of {@code [long receivedAt epoch nanos][int length][length bytes UTF-8]}.
+ */
+public class FeedRecorder {
+  private static final Logger log = LoggerFactory.getLogger(FeedRecorder.class);
+  static final int MAGIC = 0x5444464c; // "TDFL"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 8;
+  static final int FRAME_HEADER_SIZE = 12;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+  private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private final long epochNanosOffset;
+  private long lastFlush;
+  private long frames;
+
+  public FeedRecorder(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    this.epochNanosOffset = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    this.buffer.putInt(MAGIC).putInt(VERSION);
+    this.lastFlush = System.nanoTime();
+    log.info("Recording feed to {}", path);
+  }
+
+  public synchronized void append(String message) {
+    if (!this.channel.isOpen()) {
+      return;
+    }
+    final long now = System.nanoTime();
+    final byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    try {
+      if (this.buffer.remaining() < FRAME_HEADER_SIZE + bytes.length) {
+        flush();
+      }
+      if (this.buffer.remaining() < FRAME_HEADER_SIZE + bytes.length) {
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + bytes.length);
+        frame.putLong(now + this.epochNanosOffset).putInt(bytes.length).put(bytes).flip();
+        writeFully(frame);
+      } else {
+        this.buffer.putLong(now + this.epochNanosOffset).putInt(bytes.length).put(bytes);
+      }
+      this.frames++;
+      if (now - this.lastFlush >= FLUSH_INTERVAL) {
+        flush();
+      }
+    } catch (IOException ex) {
+      log.error("append() - could not write to {}, recording stopped", this.path, ex);
+      close();
+    }
+  }
+
+  private void flush() throws IOException {
+    this.buffer.flip();
+    writeFully(this.buffer);
+    this.buffer.clear();
+    this.lastFlush = System.nanoTime();
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      this.channel.write(source);
+    }
+  }
+
+  public synchronized void close() {
+    if (!this.channel.isOpen()) {
+      return;
+    }
+    try {
+      flush();
+      this.channel.close();
+      log.info("Recorded {} frames to {}", this.frames, this.path);
+    } catch (IOException ex) {
+      log.error("close() - could not close {}", this.path, ex);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.data.pricing.PricingContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.ref.WarpRef;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a feed log written by {@link FeedRecorder} into the same dispatcher the
+ * live client uses. A speed of 1 keeps the recorded spacing between frames,
+ * N plays N times faster, and 0 (or less) plays as fast as possible. The log is
+ * read through memory mapped windows so it can be larger than the heap.
+ */
+public class FeedReplay implements FeedSource, Runnable {
+  private static final Logger log = LoggerFactory.getLogger(FeedReplay.class);
+  private static final long WINDOW_SIZE = 64L << 20;
+
+  private final Path path;
+  private final double speed;
+  private final boolean loop;
+  private final ScheduledExecutorService executorService;
+  private final TwelveDataDispatcher dispatcher;
+  private volatile boolean running;
+  private Thread thread;
+
+  private FileChannel channel;
+  private MappedByteBuffer window;
+  private long windowStart;
+  private byte[] scratch = new byte[4096];
+
+  public FeedReplay(WarpRef warpRef, Path path, double speed, boolean loop, long conflationIntervalMillis) {
+    this.path = path;
+    this.speed = speed;
+    this.loop = loop;
+    this.executorService = Executors.newScheduledThreadPool(1);
+    this.dispatcher = new TwelveDataDispatcher(
+        warpRef, new PricingContext(conflationIntervalMillis, this.executorService)
+    );
+  }
+
+  public static double parseSpeed(String speed) {
+    if (null == speed || speed.isBlank()) {
+      return 1D;
+    } else if ("max".equalsIgnoreCase(speed)) {
+      return 0D;
+    }
+    return Double.parseDouble(speed.toLowerCase().replace("x", ""));
+  }
+
+  @Override
+  public TwelveDataDispatcher dispatcher() {
+    return this.dispatcher;
+  }
+
+  @Override
+  public void subscribe(String symbols) {
+    log.debug("subscribe() - replaying {}, ignoring subscribe for {}", this.path, symbols);
+  }
+
+  @Override
+  public void unsubscribe(String symbols) {
+    log.debug("unsubscribe() - replaying {}, ignoring unsubscribe for {}", this.path, symbols);
+  }
+
+  @Override
+  public void start() {
+    this.running = true;
+    this.thread = new Thread(this, "feed-replay");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void stop() {
+    this.running = false;
+    if (null != this.thread) {
+      this.thread.interrupt();
+    }
+    this.executorService.shutdownNow();
+  }
+
+  @Override
+  public void run() {
+    log.info("run() - replaying {} at {}", this.path, this.speed > 0D ? this.speed + "x" : "max speed");
+    try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+      this.channel = channel;
+      do {
+        replay();
+      } while (this.loop && this.running);
+    } catch (IOException ex) {
+      log.error("run() - could not replay {}", this.path, ex);
+    } catch (RuntimeException ex) {
+      log.error("run() - replay of {} failed", this.path, ex);
+    } finally {
+      this.channel = null;
+      this.window = null;
+    }
+  }
+
+  void replay() throws IOException {
+    final long size = this.channel.size();
+    map(0L, size);
+    if (this.window.getInt(0) != FeedRecorder.MAGIC || this.window.getInt(4) != FeedRecorder.VERSION) {
+      throw new IOException("Not a feed log: " + this.path);
+    }
+
+    long position = FeedRecorder.HEADER_SIZE;
+    long frames = 0L;
+    long firstReceivedAt = Long.MIN_VALUE;
+    final long started = System.nanoTime();
+
+    while (this.running && position + FeedRecorder.FRAME_HEADER_SIZE <= size) {
+      ensure(position, FeedRecorder.FRAME_HEADER_SIZE, size);
+      final int offset = (int) (position - this.windowStart);
+      final long receivedAt = this.window.getLong(offset);
+      final int length = this.window.getInt(offset + 8);
+      if (length < 0 || position + FeedRecorder.FRAME_HEADER_SIZE + length > size) {
+        log.warn("replay() - truncated frame at {} in {}", position, this.path);
+        break;
+      }
+      ensure(position, FeedRecorder.FRAME_HEADER_SIZE + length, size);
+      final String message = read((int) (position - this.windowStart) + FeedRecorder.FRAME_HEADER_SIZE, length);
+
+      if (firstReceivedAt == Long.MIN_VALUE) {
+        firstReceivedAt = receivedAt;
+      }
+      pace(started, receivedAt - firstReceivedAt);
+      this.dispatcher.onMessage(message);
+
+      frames++;
+      position += FeedRecorder.FRAME_HEADER_SIZE + length;
+    }
+
+    final double seconds = (System.nanoTime() - started) / 1e9;
+    log.info("replay() - {} frames in {}s ({} frames/s)", frames, String.format("%.3f", seconds),
+        String.format("%.0f", frames / Math.max(seconds, 1e-9)));
+  }
+
+  private void pace(long started, long recordedOffset) {
+    if (this.speed <= 0D) {
+      return;
+    }
+    final long target = started + (long) (recordedOffset / this.speed);
+    long wait;
+    while (this.running && (wait = target - System.nanoTime()) > 0L) {
+      LockSupport.parkNanos(wait);
+    }
+  }
+
+  private String read(int offset, int length) {
+    if (this.scratch.length < length) {
+      this.scratch = new byte[Integer.highestOneBit(length) << 1];
+    }
+    this.window.get(offset, this.scratch, 0, length);
+    return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private void ensure(long position, int length, long size) throws IOException {
+    if (position < this.windowStart || position + length > this.windowStart + this.window.capacity()) {
+      map(position, size);
+      if (length > this.window.capacity()) {
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+      }
+    }
+  }
+
+  private void map(long position, long size) throws IOException {
+    this.windowStart = position;
+    this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+  }
+}
@@ -0,0 +1,16 @@
+package io.nstream.demos.stocks.data;
+
+/**
+ * Where TwelveData frames come from: the live WebSocket or a recorded feed.
+ */
+public interface FeedSource {
+  void start();
+
+  void stop();
+
+  void subscribe(String symbols);
+
+  void unsubscribe(String symbols);
+
+  TwelveDataDispatcher dispatcher();
+}
@@ -0,0 +1,420 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.lang.invoke.VarHandle;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Takes price frames off the thread that reads the feed. The reader only
+ * finds the symbol and hands the frame to one of {@code workers} dispatch
+ * threads through an {@link IngestRing}, partitioned by symbol so the ticks of
+ * one symbol stay in order. Decoding, handler lookup and the command to the
+ * agent happen on the worker. Subscribe-status, heartbeat and any other frame
+ * that is not a price with a symbol are still handled on the reader, so
+ * handlers exist before the prices that need them, and only prices are ever
+ * conflated.
+ * <p>
+ * When a worker's ring is full the {@code overflow} policy applies:
+ * <ul>
+ * <li>conflate: park the frame per symbol, keeping only the latest, and hand
+ * the parked frames over once the ring has drained (the default)</li>
+ * <li>drop-oldest: discard the oldest frame in the ring</li>
+ * <li>block: wait for the worker, which backs up the socket</li>
+ * </ul>
+ */
+public class IngestPipeline {
+  private static final Logger log = LoggerFactory.getLogger(IngestPipeline.class);
+  private static final int SPINS = 256;
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+  private static final long BLOCK_NANOS = TimeUnit.MICROSECONDS.toNanos(50L);
+
+  enum Overflow {
+    CONFLATE, DROP_OLDEST, BLOCK;
+
+    static Overflow parse(String overflow) {
+      return Overflow.valueOf(overflow.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+  }
+
+  static final class Pending {
+    String frame;
+    long received;
+
+    Pending(String frame, long received) {
+      this.frame = frame;
+      this.received = received;
+    }
+  }
+
+  final class Worker implements Runnable {
+    final IngestRing ring;
+    final PriceFrameDecoder decoder;
+    final Thread thread;
+    volatile boolean sleeping;
+
+    // Frames parked under the conflate policy, guarded by this.
+    Map<String, Pending> parked = new LinkedHashMap<>();
+    Map<String, Pending> draining = new LinkedHashMap<>();
+    volatile boolean overflowing;
+
+    Worker(int index) {
+      this.ring = new IngestRing(IngestPipeline.this.capacity, IngestPipeline.this.overflow == Overflow.DROP_OLDEST);
+      this.decoder = new PriceFrameDecoder(IngestPipeline.this.dispatcher.pricingHandlers());
+      this.thread = new Thread(this, "ingest-" + index);
+      this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      int idle = 0;
+      while (IngestPipeline.this.running) {
+        final String frame = this.ring.poll();
+        if (null != frame) {
+          dispatch(frame, this.ring.polledReceived());
+          idle = 0;
+        } else if (this.overflowing) {
+          drainParked();
+          idle = 0;
+        } else if (++idle < SPINS) {
+          Thread.onSpinWait();
+        } else {
+          this.sleeping = true;
+          // Pairs with the fence in wake(): either the producer sees sleeping, or this sees its frame.
+          VarHandle.fullFence();
+          if (this.ring.isEmpty() && !this.overflowing) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+          }
+          this.sleeping = false;
+          idle = 0;
+        }
+      }
+    }
+
+    void dispatch(String frame, long received) {
+      final long started = System.nanoTime();
+      IngestPipeline.this.metrics.ingest.recordValue(started - received);
+      try {
+        IngestPipeline.this.dispatcher.dispatch(this.decoder, frame, received, started);
+      } catch (RuntimeException ex) {
+        log.error("dispatch() - could not process {}", frame, ex);
+      }
+    }
+
+    // Only called once the ring is empty; everything parked is newer than what was in it.
+    void drainParked() {
+      final Map<String, Pending> batch;
+      synchronized (this) {
+        batch = this.parked;
+        this.parked = this.draining;
+        this.draining = batch;
+        this.overflowing = false;
+      }
+      for (Pending pending : batch.values()) {
+        dispatch(pending.frame, pending.received);
+      }
+      batch.clear();
+    }
+
+    void park(String key, String frame, long received) {
+      synchronized (this) {
+        if (this.parked.isEmpty() && this.ring.offer(frame, received)) {
+          return;
+        }
+        IngestPipeline.this.overflows.increment();
+        final Pending pending = this.parked.get(key);
+        if (null == pending) {
+          this.parked.put(key, new Pending(frame, received));
+        } else {
+          pending.frame = frame;
+          pending.received = received;
+          IngestPipeline.this.conflated.increment();
+        }
+        this.overflowing = true;
+      }
+    }
+
+    synchronized int depth() {
+      return this.ring.size() + this.parked.size();
+    }
+
+    // The ring publishes a frame with a release store only, which a later read of sleeping may pass.
+    void wake() {
+      VarHandle.fullFence();
+      if (this.sleeping) {
+        LockSupport.unpark(this.thread);
+      }
+    }
+  }
+
+  final TwelveDataDispatcher dispatcher;
+  final int capacity;
+  final Overflow overflow;
+  final Worker[] workers;
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+  final LongAdder overflows = new LongAdder();
+  final LongAdder conflated = new LongAdder();
+  final LongAdder dropped = new LongAdder();
+  final LongAdder blockedNanos = new LongAdder();
+  volatile boolean running;
+
+  // Where offer found the symbol, if it did; reader thread only.
+  private int symbolStart;
+  private int symbolEnd;
+
+  /**
+   * @param settings {@code workers} (default 2), {@code capacity} per worker
+   *                 (default 8192) and {@code overflow}: conflate, drop-oldest
+   *                 or block
+   */
+  public IngestPipeline(TwelveDataDispatcher dispatcher, Value settings) {
+    this.dispatcher = dispatcher;
+    this.capacity = Math.max(2, settings.get("capacity").intValue(8192));
+    this.overflow = Overflow.parse(settings.get("overflow").stringValue("conflate"));
+    this.workers = new Worker[Math.max(1, settings.get("workers").intValue(2))];
+    for (int i = 0; i < this.workers.length; i++) {
+      this.workers[i] = new Worker(i);
+    }
+  }
+
+  public void start() {
+    log.info("start() - {} workers, capacity = {}, overflow = {}", this.workers.length,
+        this.workers[0].ring.capacity(), this.overflow);
+    this.running = true;
+    for (Worker worker : this.workers) {
+      worker.thread.start();
+    }
+    this.metrics.gauge("ingestDepth", this::depth);
+    this.metrics.gauge("ingestOverflows", this.overflows::sum);
+    this.metrics.gauge("ingestConflated", this.conflated::sum);
+    this.metrics.gauge("ingestDropped", this.dropped::sum);
+    this.metrics.gauge("ingestBlockedMillis", () -> TimeUnit.NANOSECONDS.toMillis(this.blockedNanos.sum()));
+  }
+
+  public void stop() {
+    this.running = false;
+    for (Worker worker : this.workers) {
+      LockSupport.unpark(worker.thread);
+    }
+    for (Worker worker : this.workers) {
+      try {
+        worker.thread.join(1000L);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Called by the single feed reader thread.
+   *
+   * @return {@code false} if the frame is not a price with a symbol, such as a
+   * subscribe-status or heartbeat, and should be dispatched by the caller
+   */
+  public boolean offer(String message, long received) {
+    if (!route(message)) {
+      return false;
+    }
+    final Worker worker = this.workers[partition(message)];
+    if (!worker.overflowing && worker.ring.offer(message, received)) {
+      worker.wake();
+      return true;
+    }
+    switch (this.overflow) {
+      case CONFLATE:
+        worker.park(message.substring(this.symbolStart, this.symbolEnd), message, received);
+        break;
+      case DROP_OLDEST:
+        this.overflows.increment();
+        while (!worker.ring.offer(message, received)) {
+          if (worker.ring.dropOldest()) {
+            this.dropped.increment();
+          }
+        }
+        break;
+      default:
+        this.overflows.increment();
+        final long blocked = System.nanoTime();
+        while (!worker.ring.offer(message, received)) {
+          worker.wake();
+          if (!this.running) {
+            this.dropped.increment();
+            break;
+          }
+          LockSupport.parkNanos(BLOCK_NANOS);
+        }
+        this.blockedNanos.add(System.nanoTime() - blocked);
+    }
+    worker.wake();
+    return true;
+  }
+
+  /**
+   * Finds the frame's top-level {@code event} and {@code symbol}, allowing
+   * whitespace anywhere JSON does, as {@link PriceFrameDecoder} does. Nested
+   * objects and arrays are skipped, so a symbol inside a subscribe-status is
+   * never taken for the frame's own.
+   *
+   * @return {@code true} only for a price with a symbol, which is then where
+   * {@link #partition(String)} finds it
+   */
+  boolean route(String message) {
+    this.symbolStart = -1;
+    this.symbolEnd = -1;
+    final int length = message.length();
+    int eventStart = -1;
+    int eventEnd = -1;
+    int symbolStart = -1;
+    int symbolEnd = -1;
+    int i = skipWhitespace(message, 0, length);
+    if (i >= length || message.charAt(i) != '{') {
+      return false;
+    }
+    i = skipWhitespace(message, i + 1, length);
+    while (i < length && message.charAt(i) == '"') {
+      final int keyStart = i + 1;
+      final int keyEnd = endOfString(message, keyStart, length);
+      if (keyEnd < 0) {
+        return false;
+      }
+      i = skipWhitespace(message, keyEnd + 1, length);
+      if (i >= length || message.charAt(i) != ':') {
+        return false;
+      }
+      i = skipWhitespace(message, i + 1, length);
+      if (i >= length) {
+        return false;
+      }
+      if (message.charAt(i) == '"') {
+        final int valueEnd = endOfString(message, i + 1, length);
+        if (valueEnd < 0) {
+          return false;
+        }
+        if (isKey(message, keyStart, keyEnd, "event")) {
+          eventStart = i + 1;
+          eventEnd = valueEnd;
+        } else if (isKey(message, keyStart, keyEnd, "symbol")) {
+          symbolStart = i + 1;
+          symbolEnd = valueEnd;
+        }
+        i = valueEnd + 1;
+      } else {
+        i = skipValue(message, i, length);
+        if (i < 0) {
+          return false;
+        }
+      }
+      i = skipWhitespace(message, i, length);
+      if (i >= length || message.charAt(i) != ',') {
+        break;
+      }
+      i = skipWhitespace(message, i + 1, length);
+    }
+    if (!isKey(message, eventStart, eventEnd, "price") || symbolStart < 0) {
+      return false;
+    }
+    this.symbolStart = symbolStart;
+    this.symbolEnd = symbolEnd;
+    return true;
+  }
+
+  // Where the frame's symbol, found by route, hashes to.
+  int partition(String message) {
+    int h = 0;
+    for (int i = this.symbolStart; i < this.symbolEnd; i++) {
+      h = 31 * h + message.charAt(i);
+    }
+    h ^= h >>> 16;
+    return (h & 0x7fffffff) % this.workers.length;
+  }
+
+  static boolean isKey(String s, int start, int end, String key) {
+    return end - start == key.length() && s.startsWith(key, start);
+  }
+
+  static int skipWhitespace(String s, int i, int length) {
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  // Returns the index of the closing quote, or -1 for an unterminated string.
+  static int endOfString(String s, int i, int length) {
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c == '"') {
+        return i;
+      } else if (c == '\\') {
+        i++;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  // Returns the index just past a number, literal, object or array, or -1 if it does not end.
+  static int skipValue(String s, int i, int length) {
+    int depth = 0;
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c == '"') {
+        i = endOfString(s, i + 1, length);
+        if (i < 0) {
+          return -1;
+        }
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        if (depth == 0) {
+          return i;
+        }
+        if (--depth == 0) {
+          return i + 1;
+        }
+      } else if (depth == 0 && (c == ',' || c == ' ' || c == '\t' || c == '\n' || c == '\r')) {
+        return i;
+      }
+      i++;
+    }
+    return depth == 0 ? i : -1;
+  }
+
+  long depth() {
+    long depth = 0L;
+    for (Worker worker : this.workers) {
+      depth += worker.depth();
+    }
+    return depth;
+  }
+
+  public Value stats() {
+    final Record depths = Record.create(this.workers.length);
+    for (Worker worker : this.workers) {
+      depths.item(worker.depth());
+    }
+    return Record.create(8)
+        .slot("workers", this.workers.length)
+        .slot("capacity", this.workers[0].ring.capacity())
+        .slot("overflow", this.overflow.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+        .slot("depth", depths)
+        .slot("overflows", this.overflows.sum())
+        .slot("conflated", this.conflated.sum())
+        .slot("dropped", this.dropped.sum())
+        .slot("blockedMillis", TimeUnit.NANOSECONDS.toMillis(this.blockedNanos.sum()));
+  }
+}
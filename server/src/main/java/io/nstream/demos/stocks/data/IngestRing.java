@@ -0,0 +1,112 @@
+package io.nstream.demos.stocks.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded single producer, single consumer ring of raw frames and their
+ * receive times. The producer publishes a slot with a release store of
+ * {@code tail} and the consumer claims one by advancing {@code head}, so
+ * neither side takes a lock. When {@code producerDrops} is set the producer
+ * may also advance {@code head} through {@link #dropOldest()}, and the
+ * consumer claims slots with a compare and set instead of a plain store.
+ * Consumed slots are not cleared, so up to {@link #capacity()} frames stay
+ * reachable until they are overwritten.
+ */
+final class IngestRing {
+  private final String[] frames;
+  private final long[] received;
+  private final int mask;
+  private final boolean producerDrops;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  // Producer only.
+  private long headCache;
+  // Consumer only.
+  private long tailCache;
+  private long polledReceived;
+
+  IngestRing(int capacity, boolean producerDrops) {
+    final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.frames = new String[size];
+    this.received = new long[size];
+    this.mask = size - 1;
+    this.producerDrops = producerDrops;
+  }
+
+  int capacity() {
+    return this.frames.length;
+  }
+
+  int size() {
+    return (int) Math.max(0L, this.tail.get() - this.head.get());
+  }
+
+  boolean isEmpty() {
+    return this.tail.get() == this.head.get();
+  }
+
+  /**
+   * Producer side.
+   *
+   * @return {@code false} if the ring is full
+   */
+  boolean offer(String frame, long receivedAt) {
+    final long t = this.tail.getPlain();
+    if (t - this.headCache >= this.frames.length) {
+      this.headCache = this.head.getAcquire();
+      if (t - this.headCache >= this.frames.length) {
+        return false;
+      }
+    }
+    final int slot = (int) t & this.mask;
+    this.frames[slot] = frame;
+    this.received[slot] = receivedAt;
+    this.tail.setRelease(t + 1L);
+    return true;
+  }
+
+  /**
+   * Producer side, only for rings created with {@code producerDrops}: discards
+   * the oldest frame to make room.
+   *
+   * @return {@code false} if the consumer got to it first
+   */
+  boolean dropOldest() {
+    final long h = this.head.getAcquire();
+    return h != this.tail.getPlain() && this.head.compareAndSet(h, h + 1L);
+  }
+
+  /**
+   * Consumer side.
+   *
+   * @return the oldest frame, its receive time then being available from
+   * {@link #polledReceived()}, or {@code null} if the ring is empty
+   */
+  String poll() {
+    while (true) {
+      final long h = this.head.getAcquire();
+      if (h >= this.tailCache) {
+        this.tailCache = this.tail.getAcquire();
+        if (h >= this.tailCache) {
+          return null;
+        }
+      }
+      final int slot = (int) h & this.mask;
+      final String frame = this.frames[slot];
+      final long stamp = this.received[slot];
+      if (!this.producerDrops) {
+        this.head.setRelease(h + 1L);
+      } else if (!this.head.compareAndSet(h, h + 1L)) {
+        // The producer dropped this slot and may already have reused it.
+        continue;
+      }
+      this.polledReceived = stamp;
+      return frame;
+    }
+  }
+
+  long polledReceived() {
+    return this.polledReceived;
+  }
+}
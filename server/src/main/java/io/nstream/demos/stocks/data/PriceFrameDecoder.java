@@ -0,0 +1,311 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.data.pricing.AbstractPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerIndex;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import swim.structure.Num;
+import swim.structure.Record;
+
+/**
+ * Single pass decoder for the flat TwelveData {@code price} event. It locates
+ * the event type and symbol directly in the frame, resolves the handler from
+ * the symbol slice and only builds the fields {@code StockAgent.update} reads.
+ * Anything it does not recognize (other events, escapes, nested values,
+ * malformed input) is reported back so the caller can use {@code Json.parse}.
+ * Instances keep scratch state and must only be used from one thread.
+ */
+public class PriceFrameDecoder {
+  static final int FIELD_TIMESTAMP = 0;
+  static final int FIELD_PRICE = 1;
+  static final int FIELD_DAY_VOLUME = 2;
+  static final int FIELD_BID = 3;
+  static final int FIELD_ASK = 4;
+  static final int FIELD_COUNT = 5;
+
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  private final PricingHandlerIndex pricingHandlers;
+
+  private final double[] fields = new double[FIELD_COUNT];
+  private int present;
+  private long timestamp;
+  private int eventStart;
+  private int eventEnd;
+  private int symbolStart;
+  private int symbolEnd;
+  private int position;
+  private double number;
+  private long received;
+  private long parsedAt;
+
+  public PriceFrameDecoder(PricingHandlerIndex pricingHandlers) {
+    this.pricingHandlers = pricingHandlers;
+  }
+
+  /**
+   * @return {@code true} when the frame was a price event and has been
+   * dispatched (or dropped because no handler is subscribed for its symbol),
+   * {@code false} when the caller must fall back to the generic parser.
+   */
+  public boolean decode(String message) {
+    return decode(message, 0L);
+  }
+
+  /**
+   * Decodes and dispatches like {@link #decode(String)}, also stamping the
+   * payload with {@code received} (a {@code System.nanoTime()}, 0 for none)
+   * and noting when it was built in {@link #parsedAt()}. Payloads for another
+   * replica are not stamped.
+   */
+  public boolean decode(String message, long received) {
+    this.received = received;
+    this.parsedAt = 0L;
+    if (!scan(message)) {
+      return false;
+    }
+    if (!isPriceEvent(message) || this.symbolStart < 0) {
+      return false;
+    }
+    AbstractPricingHandler handler = this.pricingHandlers.get(message, this.symbolStart, this.symbolEnd);
+    if (null != handler) {
+      final Record payload = payload(0L != received && !handler.isRemote());
+      if (0L != received) {
+        this.parsedAt = System.nanoTime();
+      }
+      handler.handleUpdate(payload);
+    }
+    return true;
+  }
+
+  /**
+   * @return when the last stamped payload was built, or 0 if the last frame
+   * was not stamped or not dispatched
+   */
+  public long parsedAt() {
+    return this.parsedAt;
+  }
+
+  Record payload(boolean stamped) {
+    Record payload = Record.create(Integer.bitCount(this.present) + (stamped ? 1 : 0));
+    if (has(FIELD_TIMESTAMP)) {
+      payload.slot("timestamp", Num.from(this.timestamp));
+    }
+    if (has(FIELD_PRICE)) {
+      payload.slot("price", Num.from(this.fields[FIELD_PRICE]));
+    }
+    if (has(FIELD_DAY_VOLUME)) {
+      payload.slot("day_volume", Num.from(this.fields[FIELD_DAY_VOLUME]));
+    }
+    if (has(FIELD_BID)) {
+      payload.slot("bid", Num.from(this.fields[FIELD_BID]));
+    }
+    if (has(FIELD_ASK)) {
+      payload.slot("ask", Num.from(this.fields[FIELD_ASK]));
+    }
+    if (stamped) {
+      payload.slot(PipelineMetrics.RECEIVED, Num.from(this.received));
+    }
+    return payload;
+  }
+
+  private boolean has(int field) {
+    return (this.present & (1 << field)) != 0;
+  }
+
+  private boolean isPriceEvent(String message) {
+    return this.eventEnd - this.eventStart == 5 && message.startsWith("price", this.eventStart);
+  }
+
+  private boolean scan(String s) {
+    this.present = 0;
+    this.eventStart = -1;
+    this.eventEnd = -1;
+    this.symbolStart = -1;
+    this.symbolEnd = -1;
+
+    final int length = s.length();
+    int i = skipWhitespace(s, 0, length);
+    if (i >= length || s.charAt(i) != '{') {
+      return false;
+    }
+    i = skipWhitespace(s, i + 1, length);
+    if (i < length && s.charAt(i) == '}') {
+      return true;
+    }
+    while (i < length) {
+      if (s.charAt(i) != '"') {
+        return false;
+      }
+      final int keyStart = i + 1;
+      final int keyEnd = endOfString(s, keyStart, length);
+      if (keyEnd < 0) {
+        return false;
+      }
+      i = skipWhitespace(s, keyEnd + 1, length);
+      if (i >= length || s.charAt(i) != ':') {
+        return false;
+      }
+      i = skipWhitespace(s, i + 1, length);
+      if (i >= length) {
+        return false;
+      }
+      final char c = s.charAt(i);
+      if (c == '"') {
+        final int valueStart = i + 1;
+        final int valueEnd = endOfString(s, valueStart, length);
+        if (valueEnd < 0) {
+          return false;
+        }
+        if (isKey(s, keyStart, keyEnd, "event")) {
+          this.eventStart = valueStart;
+          this.eventEnd = valueEnd;
+        } else if (isKey(s, keyStart, keyEnd, "symbol")) {
+          this.symbolStart = valueStart;
+          this.symbolEnd = valueEnd;
+        } else if (isNumericField(s, keyStart, keyEnd)) {
+          return false;
+        }
+        i = valueEnd + 1;
+      } else if (c == '-' || (c >= '0' && c <= '9')) {
+        if (!parseNumber(s, i, length)) {
+          return false;
+        }
+        storeNumber(s, keyStart, keyEnd);
+        i = this.position;
+      } else if (s.startsWith("null", i)) {
+        i += 4;
+      } else if (s.startsWith("true", i)) {
+        i += 4;
+      } else if (s.startsWith("false", i)) {
+        i += 5;
+      } else {
+        // nested objects and arrays only show up in non price events
+        return false;
+      }
+      i = skipWhitespace(s, i, length);
+      if (i >= length) {
+        return false;
+      }
+      if (s.charAt(i) == '}') {
+        return true;
+      } else if (s.charAt(i) != ',') {
+        return false;
+      }
+      i = skipWhitespace(s, i + 1, length);
+    }
+    return false;
+  }
+
+  private void storeNumber(String s, int keyStart, int keyEnd) {
+    if (isKey(s, keyStart, keyEnd, "price")) {
+      store(FIELD_PRICE, this.number);
+    } else if (isKey(s, keyStart, keyEnd, "timestamp")) {
+      this.timestamp = (long) this.number;
+      this.present |= 1 << FIELD_TIMESTAMP;
+    } else if (isKey(s, keyStart, keyEnd, "day_volume")) {
+      store(FIELD_DAY_VOLUME, this.number);
+    } else if (isKey(s, keyStart, keyEnd, "bid")) {
+      store(FIELD_BID, this.number);
+    } else if (isKey(s, keyStart, keyEnd, "ask")) {
+      store(FIELD_ASK, this.number);
+    }
+  }
+
+  // The fields we care about are numbers; a quoted one is rare enough to defer to Json.parse.
+  private static boolean isNumericField(String s, int keyStart, int keyEnd) {
+    return isKey(s, keyStart, keyEnd, "price")
+        || isKey(s, keyStart, keyEnd, "timestamp")
+        || isKey(s, keyStart, keyEnd, "day_volume")
+        || isKey(s, keyStart, keyEnd, "bid")
+        || isKey(s, keyStart, keyEnd, "ask");
+  }
+
+  private void store(int field, double value) {
+    this.fields[field] = value;
+    this.present |= 1 << field;
+  }
+
+  private static boolean isKey(String s, int start, int end, String key) {
+    return end - start == key.length() && s.startsWith(key, start);
+  }
+
+  private static int skipWhitespace(String s, int i, int length) {
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  // Returns the index of the closing quote, or -1 for escapes and unterminated strings.
+  private static int endOfString(String s, int i, int length) {
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c == '"') {
+        return i;
+      } else if (c == '\\') {
+        return -1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  private boolean parseNumber(String s, int start, int length) {
+    int i = start;
+    final boolean negative = s.charAt(i) == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0L;
+    int digits = 0;
+    int decimals = 0;
+    boolean fraction = false;
+    boolean exact = true;
+    while (i < length) {
+      final char c = s.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (digits < 18) {
+          mantissa = mantissa * 10L + (c - '0');
+          if (mantissa != 0L) {
+            digits++;
+          }
+          if (fraction) {
+            decimals++;
+          }
+        } else {
+          exact = false;
+        }
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else if (c == 'e' || c == 'E' || c == '+' || (c == '-' && i > start)) {
+        exact = false;
+      } else {
+        break;
+      }
+      i++;
+    }
+    if (i == start || (negative && i == start + 1)) {
+      return false;
+    }
+    this.position = i;
+    if (exact && mantissa < MAX_EXACT_MANTISSA && decimals < POW10.length) {
+      final double value = decimals == 0 ? (double) mantissa : mantissa / POW10[decimals];
+      this.number = negative ? -value : value;
+      return true;
+    }
+    try {
+      this.number = Double.parseDouble(s.substring(start, i));
+      return true;
+    } catch (NumberFormatException ex) {
+      return false;
+    }
+  }
+}
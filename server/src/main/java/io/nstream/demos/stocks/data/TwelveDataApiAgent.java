@@ -1,60 +1,169 @@
 package io.nstream.demos.stocks.data;
 
+import io.nstream.demos.stocks.Partitions;
+import io.nstream.demos.stocks.data.pricing.PricingContext;
+import io.nstream.demos.stocks.journal.TickJournal;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import swim.api.SwimLane;
 import swim.api.agent.AbstractAgent;
 import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
 import swim.structure.Item;
+import swim.structure.Record;
+import swim.structure.Text;
 import swim.structure.Value;
 import swim.uri.Uri;
-import swim.util.Builder;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 public class TwelveDataApiAgent extends AbstractAgent {
   TwelveDataClient client;
+  FeedSource source;
   private static final Logger log = LoggerFactory.getLogger(TwelveDataApiAgent.class);
 
-  private ExecutorService executor;
+  EodPipeline eodPipeline;
+
+  TimerRef statsTimer;
+
+  static final long STATS_INTERVAL = 10000L;
+
+  @SwimLane("ingestStats")
+  final ValueLane<Value> ingestStats = this.valueLane();
+
+  @SwimLane("eodStats")
+  final ValueLane<Value> eodStats = this.valueLane();
 
   @Override
   public void willStart() {
     log.trace("willStart() - ");
+    final Partitions partitions = Partitions.shared();
+    if (!partitions.isIngest()) {
+      // Stock agents on this replica are fed by partition 0, which runs the only adapter.
+      log.info("willStart() - partition {} of {}, not ingesting", partitions.index(), partitions.count());
+      super.willStart();
+      return;
+    }
     String token = System.getenv("TOKEN");
+    String replayFile = System.getenv("REPLAY_FILE");
 
-    this.executor = Executors.newFixedThreadPool(8);
-
-    if (null == token) {
-      throw new IllegalStateException("Environment Variable TOKEN must be configured.");
+    if (null == token && null == replayFile) {
+      throw new IllegalStateException("Environment Variable TOKEN or REPLAY_FILE must be configured.");
     }
 
+    // Recover the journal before any stock agent starts or the feed connects.
+    TickJournal.shared();
+    // Starts /metrics so its intervals line up with the feed.
+    this.command(Uri.parse("/metrics"), Uri.parse("reset"), Value.absent());
+
     Value symbols = getProp("symbols");
-    symbols.forEach(symbol -> {
-      Uri stockUri = Uri.parse("/")
-          .appendedPath("stock")
-          .appendedPath(symbol.stringValue());
-      this.command(stockUri, Uri.parse("init"), Value.empty());
-    });
+    symbols.forEach(symbol -> commandStock(symbol.stringValue(), Uri.parse("init"), Value.empty()));
+
+    deriveCrosses();
 
-    this.client = new TwelveDataClient(this, this.nodeUri(), token);
-    log.info("Connecting to twelvedata");
-    this.client.connect();
+    Value subscriptions = getProp("subscriptions");
+    this.demandDriven = subscriptions.get("demandDriven").booleanValue(false);
+    this.subscribeBatchSize = Math.max(1, subscriptions.get("batchSize").intValue(50));
+    this.subscribeInterval = subscriptions.get("interval").longValue(250L);
+    symbols.forEach(symbol -> this.universe.add(symbol.stringValue()));
+    getProp("forex").get("pairs").forEach(pair -> this.universe.add(pair.stringValue()));
+    log.info("willStart() - {} symbols, demandDriven = {}", this.universe.size(), this.demandDriven);
 
+    long conflationInterval = getProp("conflationInterval").longValue(0L);
+    log.info("willStart() - conflationInterval = {}ms", conflationInterval);
+    if (null != replayFile) {
+      double speed = FeedReplay.parseSpeed(System.getenv("REPLAY_SPEED"));
+      boolean loop = Boolean.parseBoolean(System.getenv("REPLAY_LOOP"));
+      this.source = new FeedReplay(this, Path.of(replayFile), speed, loop, conflationInterval);
+    } else {
+      String feedUri = System.getenv("TWELVEDATA_WS_URI");
+      this.client = new TwelveDataClient(this, this.nodeUri(), null != feedUri ? feedUri : TwelveDataClient.FEED_URI,
+          token, conflationInterval);
+      String recordFile = System.getenv("RECORD_FILE");
+      if (null != recordFile) {
+        try {
+          this.client.recordTo(new FeedRecorder(Path.of(recordFile)));
+        } catch (IOException ex) {
+          log.error("willStart() - could not record to {}", recordFile, ex);
+        }
+      }
+      this.source = this.client;
+      log.info("Connecting to twelvedata");
+    }
+    Value ingest = getProp("ingest");
+    if (ingest.get("workers").intValue(0) > 0) {
+      this.source.dispatcher().startIngest(ingest);
+    }
+    this.source.start();
+
+    if (null != token) {
+      this.eodPipeline = new EodPipeline(this, token, getProp("eod"));
+    }
 
+    this.statsTimer = this.setTimer(STATS_INTERVAL, this::publishStats);
     super.willStart();
   }
 
+  /**
+   * Commands {@code /stock/:symbol} on whichever replica owns it.
+   */
+  void commandStock(String symbol, Uri laneUri, Value body) {
+    final Uri stockUri = Uri.parse("/").appendedPath("stock").appendedPath(symbol);
+    final Uri hostUri = Partitions.shared().hostOf(symbol);
+    if (null == hostUri) {
+      this.command(stockUri, laneUri, body);
+    } else {
+      this.command(hostUri, stockUri, laneUri, body);
+    }
+  }
+
+  void publishStats() {
+    PricingContext context = this.source.dispatcher().pricingContext();
+    IngestPipeline ingest = this.source.dispatcher().ingest();
+    this.ingestStats.set(
+        Record.of()
+            .slot("ticksReceived", context.ticksReceived())
+            .slot("commandsEmitted", context.commandsEmitted())
+            .slot("conflationInterval", context.conflationIntervalMillis())
+            .slot("ingest", null != ingest ? ingest.stats() : Value.absent())
+    );
+    if (null != this.eodPipeline) {
+      this.eodStats.set(this.eodPipeline.stats());
+    }
+    this.statsTimer = this.setTimer(STATS_INTERVAL, this::publishStats);
+  }
+
   @Override
   public void willStop() {
-    this.executor.shutdownNow();
+    if (null != this.statsTimer) {
+      this.statsTimer.cancel();
+    }
+    if (null != this.subscribeTimer) {
+      this.subscribeTimer.cancel();
+    }
+    if (null != this.eodPipeline) {
+      this.eodPipeline.stop();
+    }
+    if (null != this.source) {
+      this.source.stop();
+      this.source.dispatcher().stopIngest();
+    }
     super.willStop();
   }
 
@@ -69,38 +178,235 @@ public class TwelveDataApiAgent extends AbstractAgent {
         ).map(Item::stringValue)
         .collect(Collectors.joining(","));
 
-    this.client.subscribe(symbol);
+    this.source.subscribe(symbol);
   }
 
   @SwimLane("connectionOpen")
   final CommandLane<Value> connectionOpen = this.<Value>commandLane()
       .onCommand(input -> {
-        Value symbols = getProp("symbols");
-        final List<Item> items = new ArrayList<>();
-
-        symbols.forEach(symbol -> {
-          items.add(symbol);
-          if (items.size() == 50) {
-            Builder<Item, Value> builder = Value.builder();
-            items.forEach(builder::add);
-            this.doSubscribe(builder.bind());
-            items.clear();
+        // A new connection starts with no subscriptions; resubscribe what is wanted right now.
+        this.connected = true;
+        this.streaming.clear();
+        this.pendingSubscribe.clear();
+        this.pendingUnsubscribe.clear();
+        this.universe.forEach(this::reconcile);
+        flushSubscriptions();
+      });
+
+  // Every symbol that may be streamed: the configured symbols and forex pairs plus those added at runtime.
+  final Set<String> universe = new LinkedHashSet<>();
+  // Symbols subscribed, or about to be, on the current connection.
+  final Set<String> streaming = new HashSet<>();
+  final Set<String> pendingSubscribe = new LinkedHashSet<>();
+  final Set<String> pendingUnsubscribe = new LinkedHashSet<>();
+  // The symbols each agent with watching clients needs, and how many such agents need each symbol.
+  final Map<String, Set<String>> demands = new HashMap<>();
+  final Map<String, Integer> observers = new HashMap<>();
+  boolean connected;
+  boolean demandDriven;
+  int subscribeBatchSize;
+  long subscribeInterval;
+  TimerRef subscribeTimer;
+
+  // Whether each symbol in the universe is streaming and how many agents with clients need it.
+  @SwimLane("subscriptions")
+  final MapLane<String, Value> subscriptions = this.mapLane();
+
+  @SwimLane("addSymbols")
+  final CommandLane<Value> addSymbols = this.<Value>commandLane()
+      .onCommand(input -> symbolsOf(input).forEach(symbol -> {
+        if (this.universe.add(symbol)) {
+          log.info("addSymbols() - adding {}", symbol);
+          if (!isForex(symbol)) {
+            commandStock(symbol, Uri.parse("init"), Value.empty());
+          }
+          reconcile(symbol);
+        }
+      }));
+
+  @SwimLane("removeSymbols")
+  final CommandLane<Value> removeSymbols = this.<Value>commandLane()
+      .onCommand(input -> symbolsOf(input).forEach(symbol -> {
+        if (this.universe.remove(symbol)) {
+          log.info("removeSymbols() - removing {}", symbol);
+          reconcile(symbol);
+          this.subscriptions.remove(symbol);
+          if (!isForex(symbol)) {
+            // The owner's /symbols drops it from its partition, and the others from their copies.
+            final Uri hostUri = Partitions.shared().hostOf(symbol);
+            if (null == hostUri) {
+              this.command(Uri.parse("/symbols"), Uri.parse("remove"), Text.from(symbol));
+            } else {
+              this.command(hostUri, Uri.parse("/symbols"), Uri.parse("remove"), Text.from(symbol));
+            }
           }
-        });
+        }
+      }));
 
-        if (!items.isEmpty()) {
-          Builder<Item, Value> builder = Value.builder();
-          items.forEach(builder::add);
-          this.doSubscribe(builder.bind());
+  /**
+   * {@code {source: "/stock/AAPL", partition: 0, symbols: {"AAPL"}, active: true}}
+   * from an agent's {@code Demand}: the symbols replace whatever that agent
+   * needed before, and an inactive report releases them all.
+   */
+  @SwimLane("demand")
+  final CommandLane<Value> demand = this.<Value>commandLane()
+      .onCommand(input -> {
+        // Every replica has a /symbols, so the source alone is not unique.
+        final String source = input.get("partition").intValue(0) + input.get("source").stringValue();
+        final Set<String> previous = this.demands.remove(source);
+        final Set<String> next = new HashSet<>();
+        if (input.get("active").booleanValue(false)) {
+          symbolsOf(input.get("symbols")).forEach(next::add);
+          this.demands.put(source, next);
+        }
+        if (null != previous) {
+          for (String symbol : previous) {
+            if (!next.contains(symbol)) {
+              observe(symbol, -1);
+            }
+          }
+        }
+        for (String symbol : next) {
+          if (null == previous || !previous.contains(symbol)) {
+            observe(symbol, 1);
+          }
         }
       });
 
+  static List<String> symbolsOf(Value input) {
+    final List<String> symbols = new ArrayList<>();
+    if (input instanceof Record) {
+      input.forEach(item -> symbols.add(item.stringValue()));
+    } else if (input.isDefined()) {
+      symbols.add(input.stringValue());
+    }
+    return symbols;
+  }
+
+  static boolean isForex(String symbol) {
+    return symbol.indexOf('/') >= 0;
+  }
+
+  void observe(String symbol, int delta) {
+    final int count = this.observers.getOrDefault(symbol, 0) + delta;
+    if (count > 0) {
+      this.observers.put(symbol, count);
+    } else {
+      this.observers.remove(symbol);
+    }
+    if (this.universe.contains(symbol)) {
+      reconcile(symbol);
+    }
+  }
+
+  boolean wanted(String symbol) {
+    return this.universe.contains(symbol) && (!this.demandDriven || this.observers.containsKey(symbol));
+  }
+
+  /**
+   * Queues a subscribe or unsubscribe if whether {@code symbol} should stream
+   * changed. A symbol queued one way and then the other before the flush
+   * cancels out, so nothing is sent for it.
+   */
+  void reconcile(String symbol) {
+    final boolean wanted = wanted(symbol);
+    if (this.connected) {
+      if (wanted && this.streaming.add(symbol)) {
+        if (!this.pendingUnsubscribe.remove(symbol)) {
+          this.pendingSubscribe.add(symbol);
+        }
+        scheduleFlush();
+      } else if (!wanted && this.streaming.remove(symbol)) {
+        if (!this.pendingSubscribe.remove(symbol)) {
+          this.pendingUnsubscribe.add(symbol);
+        }
+        scheduleFlush();
+      }
+    }
+    if (this.universe.contains(symbol)) {
+      this.subscriptions.put(symbol,
+          Record.create(2)
+              .slot("streaming", this.streaming.contains(symbol))
+              .slot("observers", this.observers.getOrDefault(symbol, 0))
+      );
+    }
+  }
+
+  void scheduleFlush() {
+    if (null == this.subscribeTimer) {
+      this.subscribeTimer = this.setTimer(this.subscribeInterval, this::flushSubscriptions);
+    }
+  }
+
+  /**
+   * Sends the queued changes as unsubscribe and subscribe frames of up to
+   * {@code batchSize} symbols each.
+   */
+  void flushSubscriptions() {
+    if (null != this.subscribeTimer) {
+      this.subscribeTimer.cancel();
+      this.subscribeTimer = null;
+    }
+    try {
+      sendBatches(this.pendingUnsubscribe, this.source::unsubscribe);
+      sendBatches(this.pendingSubscribe, this.source::subscribe);
+    } catch (Exception ex) {
+      log.error("flushSubscriptions() - could not send, resubscribing on reconnect", ex);
+    }
+  }
+
+  void sendBatches(Set<String> pending, Consumer<String> send) {
+    final List<String> batch = new ArrayList<>(this.subscribeBatchSize);
+    final Iterator<String> symbols = pending.iterator();
+    while (symbols.hasNext()) {
+      batch.add(symbols.next());
+      symbols.remove();
+      if (batch.size() == this.subscribeBatchSize || !symbols.hasNext()) {
+        send.accept(String.join(",", batch));
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Tells each configured cross which two quoted pairs it is derived from,
+   * going through the pivot currency: EUR/JPY is EUR/USD times USD/JPY, with a
+   * leg inverted when only its reverse pair is quoted.
+   */
+  void deriveCrosses() {
+    Value forex = getProp("forex");
+    String pivot = forex.get("pivot").stringValue("USD");
+    Set<String> pairs = new HashSet<>();
+    forex.get("pairs").forEach(pair -> pairs.add(pair.stringValue()));
+    forex.get("crosses").forEach(item -> {
+      String cross = item.stringValue();
+      String[] currencies = cross.split("/");
+      Value first = currencies.length == 2 ? leg(currencies[0], pivot, pairs) : null;
+      Value second = currencies.length == 2 ? leg(pivot, currencies[1], pairs) : null;
+      if (null == first || null == second) {
+        log.warn("deriveCrosses() - {} has no legs through {} among {}", cross, pivot, pairs);
+        return;
+      }
+      this.command(Uri.parse("/forex/" + cross), Uri.parse("derive"), Record.of(first, second));
+    });
+  }
+
+  static Value leg(String base, String quote, Set<String> pairs) {
+    if (pairs.contains(base + "/" + quote)) {
+      return Record.of().slot("symbol", base + "/" + quote).slot("inverse", false);
+    } else if (pairs.contains(quote + "/" + base)) {
+      return Record.of().slot("symbol", quote + "/" + base).slot("inverse", true);
+    }
+    return null;
+  }
 
   @SwimLane("eod")
   final CommandLane<Value> eod = this.<Value>commandLane()
       .onCommand(input -> {
-        this.executor.submit(() -> {
-          this.client.eod(input);
-        });
+        if (null == this.eodPipeline) {
+          log.debug("eod - no TOKEN configured, skipping {}", input);
+          return;
+        }
+        this.eodPipeline.submit(input);
       });
 }
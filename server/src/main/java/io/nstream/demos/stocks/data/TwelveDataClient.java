@@ -1,8 +1,6 @@
 package io.nstream.demos.stocks.data;
 
-import io.nstream.demos.stocks.Utils;
-import io.nstream.demos.stocks.data.pricing.AbstractPricingHandler;
-import io.nstream.demos.stocks.data.pricing.PricingHandlerFactory;
+import io.nstream.demos.stocks.data.pricing.PricingContext;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.enums.ReadyState;
 import org.java_websocket.handshake.ServerHandshake;
@@ -20,16 +18,12 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
 
-public class TwelveDataClient extends WebSocketClient {
+public class TwelveDataClient extends WebSocketClient implements FeedSource {
   private static final Logger log = LoggerFactory.getLogger(TwelveDataClient.class);
   private final WarpRef warpRef;
   private final Uri nodeUri;
@@ -38,9 +32,25 @@ public class TwelveDataClient extends WebSocketClient {
   private final HttpClient httpClient;
 
   private final ScheduledExecutorService executorService;
+  private final TwelveDataDispatcher dispatcher;
+  private FeedRecorder recorder;
+
+  public static final String FEED_URI = "wss://ws.twelvedata.com/v1/quotes/price";
 
   public TwelveDataClient(WarpRef warpRef, Uri nodeUri, String token) {
-    super(URI.create(String.format("wss://ws.twelvedata.com/v1/quotes/price?apikey=%s", token)));
+    this(warpRef, nodeUri, token, 0L);
+  }
+
+  public TwelveDataClient(WarpRef warpRef, Uri nodeUri, String token, long conflationIntervalMillis) {
+    this(warpRef, nodeUri, FEED_URI, token, conflationIntervalMillis);
+  }
+
+  /**
+   * @param feedUri the price WebSocket, {@link #FEED_URI} unless pointed at a
+   *                stand-in such as the load test's synthetic feed
+   */
+  public TwelveDataClient(WarpRef warpRef, Uri nodeUri, String feedUri, String token, long conflationIntervalMillis) {
+    super(URI.create(String.format("%s?apikey=%s", feedUri, token)));
     this.warpRef = warpRef;
     this.nodeUri = nodeUri;
     this.restApiUri = Uri.parse("https://api.twelvedata.com/");
@@ -48,6 +58,32 @@ public class TwelveDataClient extends WebSocketClient {
     this.httpClient = HttpClient.newBuilder().build();
     this.executorService = Executors.newScheduledThreadPool(1);
     this.executorService.scheduleAtFixedRate(this::sendKeepAlive, 10, 10, TimeUnit.SECONDS);
+    this.dispatcher = new TwelveDataDispatcher(
+        warpRef, new PricingContext(conflationIntervalMillis, this.executorService)
+    );
+  }
+
+  @Override
+  public TwelveDataDispatcher dispatcher() {
+    return this.dispatcher;
+  }
+
+  public void recordTo(FeedRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  @Override
+  public void start() {
+    this.connect();
+  }
+
+  @Override
+  public void stop() {
+    this.executorService.shutdownNow();
+    this.close();
+    if (null != this.recorder) {
+      this.recorder.close();
+    }
   }
 
   void sendKeepAlive() {
@@ -81,6 +117,7 @@ public class TwelveDataClient extends WebSocketClient {
     this.send(message);
   }
 
+  @Override
   public void subscribe(String symbol) {
     Value subscribe = Record.of()
         .slot("action", "subscribe")
@@ -92,61 +129,25 @@ public class TwelveDataClient extends WebSocketClient {
     sendValue(subscribe);
   }
 
-
-  void handlePrice(Value value) {
-    String symbol = value.get("symbol").stringValue();
-    AbstractPricingHandler pricingHandler = pricingHandlers.get(symbol);
-    if (null != pricingHandler) {
-      pricingHandler.handleUpdate(value);
-    }
-  }
-
-  private final Map<String, AbstractPricingHandler> pricingHandlers = new ConcurrentHashMap<>();
-
-  void handleSubscribeStatus(Value value) {
-    String status = value.get("status").stringValue();
-
-    if ("ok".equals(status)) {
-      value.get("success").forEach(item -> {
-        String symbol = item.get("symbol").stringValue();
-        String type = item.get("type").stringValue();
-        AbstractPricingHandler handler = PricingHandlerFactory.create(type, symbol, this.warpRef);
-        if (null == handler) {
-          log.warn("Could not configure handler for {}:{}", symbol, type);
-        } else {
-          pricingHandlers.put(symbol, handler);
-        }
-      });
-    } else if ("error".equals(status)) {
-      value.get("fails").forEach(item -> {
-        String symbol = item.get("symbol").stringValue();
-        log.error("Subscription failed for {}", symbol);
-      });
-    }
-  }
-
-  void handleHeartBeat(Value value) {
-
+  @Override
+  public void unsubscribe(String symbols) {
+    Value unsubscribe = Record.of()
+        .slot("action", "unsubscribe")
+        .slot(
+            "params",
+            Record.of()
+                .slot("symbols", symbols)
+        );
+    sendValue(unsubscribe);
   }
 
-  final Map<String, Consumer<Value>> messageHandlers = Map.of(
-      "subscribe-status", this::handleSubscribeStatus,
-      "price", this::handlePrice,
-      "heartbeat", this::handleHeartBeat
-  );
-
-  AtomicInteger messagesPerSecond = new AtomicInteger(0);
 
   @Override
   public void onMessage(String message) {
-    log.trace("onMessage() - message: {}", message);
-    Value value = Json.parse(message);
-    final String event = value.getSlot("event").stringValue();
-    Consumer<Value> messageHandler = messageHandlers.getOrDefault(
-        event, v -> log.warn("Could not process event '{}': {}", event, message)
-    );
-    messageHandler.accept(value);
-    this.messagesPerSecond.incrementAndGet();
+    if (null != this.recorder) {
+      this.recorder.append(message);
+    }
+    this.dispatcher.onMessage(message);
   }
 
   @Override
@@ -196,31 +197,4 @@ public class TwelveDataClient extends WebSocketClient {
 
     return result;
   }
-
-  public void eod(Value input) {
-
-
-    Value symbols = Utils.join(input);
-
-    Value requestParams = Record.of()
-        .slot("symbol", symbols);
-
-    Uri requestUri = buildUri("eod", requestParams);
-
-    try {
-      Value response = requestJson(requestUri);
-
-      input.forEach(item -> {
-        String symbol = item.stringValue();
-        Uri symbolPath = Uri.parse("/")
-            .appendedPath("stock")
-            .appendedPath(symbol);
-        Value eodValue = response.get(symbol);
-        this.warpRef.command(symbolPath, Uri.parse("updatePreviousClose"), eodValue);
-      });
-    } catch (Exception e) {
-      log.error("Exception while calling eod api", e);
-    }
-
-  }
 }
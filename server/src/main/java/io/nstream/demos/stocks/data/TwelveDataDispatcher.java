@@ -0,0 +1,155 @@
+package io.nstream.demos.stocks.data;
+
+import io.nstream.demos.stocks.data.pricing.AbstractPricingHandler;
+import io.nstream.demos.stocks.data.pricing.PricingContext;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerFactory;
+import io.nstream.demos.stocks.data.pricing.PricingHandlerIndex;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.ref.WarpRef;
+import swim.json.Json;
+import swim.structure.Num;
+import swim.structure.Value;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Routes raw TwelveData frames to the pricing handlers, regardless of whether
+ * they came off the live WebSocket or a recorded feed. Must be driven by a
+ * single thread; with {@link #startIngest(Value)} price frames are decoded and
+ * dispatched on the ingest workers instead.
+ */
+public class TwelveDataDispatcher {
+  private static final Logger log = LoggerFactory.getLogger(TwelveDataDispatcher.class);
+  private final WarpRef warpRef;
+  private final PricingContext pricingContext;
+  private final PricingHandlerIndex pricingHandlers = new PricingHandlerIndex();
+  private final PriceFrameDecoder priceFrameDecoder = new PriceFrameDecoder(this.pricingHandlers);
+
+  public TwelveDataDispatcher(WarpRef warpRef, PricingContext pricingContext) {
+    this.warpRef = warpRef;
+    this.pricingContext = pricingContext;
+  }
+
+  public PricingContext pricingContext() {
+    return this.pricingContext;
+  }
+
+  public PricingHandlerIndex pricingHandlers() {
+    return this.pricingHandlers;
+  }
+
+  void handlePrice(Value value) {
+    handlePrice(value, 0L);
+  }
+
+  // Stamps the update with received like PriceFrameDecoder does, so frames it falls back on still count.
+  void handlePrice(Value value, long received) {
+    String symbol = value.get("symbol").stringValue();
+    AbstractPricingHandler pricingHandler = pricingHandlers.get(symbol);
+    if (null != pricingHandler) {
+      if (0L != received && !pricingHandler.isRemote()) {
+        value = value.updatedSlot(PipelineMetrics.RECEIVED, Num.from(received));
+      }
+      pricingHandler.handleUpdate(value);
+    }
+  }
+
+  void handleSubscribeStatus(Value value) {
+    String status = value.get("status").stringValue();
+
+    if ("ok".equals(status)) {
+      final Map<String, AbstractPricingHandler> handlers = new HashMap<>();
+      value.get("success").forEach(item -> {
+        String symbol = item.get("symbol").stringValue();
+        String type = item.get("type").stringValue();
+        AbstractPricingHandler handler = PricingHandlerFactory.create(type, symbol, this.warpRef, this.pricingContext);
+        if (null == handler) {
+          log.warn("Could not configure handler for {}:{}", symbol, type);
+        } else {
+          handlers.put(symbol, handler);
+        }
+      });
+      pricingHandlers.putAll(handlers);
+    } else if ("error".equals(status)) {
+      value.get("fails").forEach(item -> {
+        String symbol = item.get("symbol").stringValue();
+        log.error("Subscription failed for {}", symbol);
+      });
+    }
+  }
+
+  void handleHeartBeat(Value value) {
+
+  }
+
+  final Map<String, Consumer<Value>> messageHandlers = Map.of(
+      "subscribe-status", this::handleSubscribeStatus,
+      "price", this::handlePrice,
+      "heartbeat", this::handleHeartBeat
+  );
+
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+
+  private IngestPipeline ingest;
+
+  /**
+   * Hands price frames to an {@link IngestPipeline} from now on, so the
+   * thread calling {@link #onMessage(String)} never waits on the agents.
+   */
+  public void startIngest(Value settings) {
+    this.ingest = new IngestPipeline(this, settings);
+    this.ingest.start();
+  }
+
+  public IngestPipeline ingest() {
+    return this.ingest;
+  }
+
+  public void stopIngest() {
+    if (null != this.ingest) {
+      this.ingest.stop();
+    }
+  }
+
+  public void onMessage(String message) {
+    log.trace("onMessage() - message: {}", message);
+    final long received = System.nanoTime();
+    this.metrics.messages.increment();
+    if (null != this.ingest && this.ingest.offer(message, received)) {
+      return;
+    }
+    dispatch(this.priceFrameDecoder, message, received, received);
+  }
+
+  /**
+   * Decodes and dispatches one frame with {@code decoder}, which belongs to
+   * the calling thread. Parse time is measured from {@code started}.
+   */
+  void dispatch(PriceFrameDecoder decoder, String message, long received, long started) {
+    if (decoder.decode(message, received)) {
+      final long parsedAt = decoder.parsedAt();
+      if (0L != parsedAt) {
+        this.metrics.parse.recordValue(parsedAt - started);
+        this.metrics.dispatch.recordValue(System.nanoTime() - parsedAt);
+      }
+      return;
+    }
+    Value value = Json.parse(message);
+    final long parsedAt = System.nanoTime();
+    final String event = value.getSlot("event").stringValue();
+    if ("price".equals(event)) {
+      handlePrice(value, received);
+      this.metrics.parse.recordValue(parsedAt - started);
+      this.metrics.dispatch.recordValue(System.nanoTime() - parsedAt);
+      return;
+    }
+    Consumer<Value> messageHandler = messageHandlers.getOrDefault(
+        event, v -> log.warn("Could not process event '{}': {}", event, message)
+    );
+    messageHandler.accept(value);
+  }
+}
@@ -1,24 +1,119 @@
 package io.nstream.demos.stocks.data.pricing;
 
 import swim.api.ref.WarpRef;
+import swim.structure.Item;
 import swim.structure.Value;
 import swim.uri.Uri;
 
+import java.util.concurrent.TimeUnit;
+
 public abstract class AbstractPricingHandler {
 //  protected final String symbol;
   protected final WarpRef warpRef;
+  // The replica the agent lives on, or null when it is local.
+  protected final Uri hostUri;
   protected final Uri nodeUri;
   protected final Uri commandLane;
+  protected final PricingContext context;
+
+  // Conflation state, guarded by this.
+  private Value pending;
+  private boolean flushScheduled;
+  private long lastEmitNanos;
 
   public AbstractPricingHandler(WarpRef warpRef, Uri nodeUri, Uri commandLane) {
+    this(warpRef, nodeUri, commandLane, PricingContext.direct());
+  }
+
+  public AbstractPricingHandler(WarpRef warpRef, Uri nodeUri, Uri commandLane, PricingContext context) {
+    this(warpRef, null, nodeUri, commandLane, context);
+  }
+
+  public AbstractPricingHandler(WarpRef warpRef, Uri hostUri, Uri nodeUri, Uri commandLane, PricingContext context) {
     this.warpRef = warpRef;
+    this.hostUri = hostUri;
     this.nodeUri = nodeUri;
     this.commandLane = commandLane;
+    this.context = context;
+    this.lastEmitNanos = System.nanoTime() - context.conflationIntervalNanos;
   }
 
   public abstract void handleUpdate(Value value);
 
+  /**
+   * @return whether updates go to another replica, where a receive time taken
+   * from this process's {@code System.nanoTime()} means nothing
+   */
+  public boolean isRemote() {
+    return null != this.hostUri;
+  }
+
+  /**
+   * Sends the update to the agent. When conflating, the first tick after a
+   * quiet interval goes out immediately; ticks that arrive while the interval
+   * is still running are merged field by field into one pending update, which
+   * is flushed when the interval expires.
+   */
   protected void fireCommand(Value value) {
-    this.warpRef.command(this.nodeUri, this.commandLane, value);
+    this.context.ticksReceived.increment();
+    if (!this.context.isConflating()) {
+      emit(value);
+      return;
+    }
+
+    Value ready = null;
+    synchronized (this) {
+      this.pending = null == this.pending ? value : merge(this.pending, value);
+      if (!this.flushScheduled) {
+        final long wait = this.lastEmitNanos + this.context.conflationIntervalNanos - System.nanoTime();
+        if (wait <= 0L) {
+          ready = takePending();
+        } else {
+          this.flushScheduled = true;
+          this.context.scheduler.schedule(this::flush, wait, TimeUnit.NANOSECONDS);
+        }
+      }
+    }
+    if (null != ready) {
+      emit(ready);
+    }
+  }
+
+  void flush() {
+    Value ready;
+    synchronized (this) {
+      this.flushScheduled = false;
+      ready = takePending();
+    }
+    if (null != ready) {
+      emit(ready);
+    }
+  }
+
+  private Value takePending() {
+    final Value ready = this.pending;
+    this.pending = null;
+    this.lastEmitNanos = System.nanoTime();
+    return ready;
+  }
+
+  static Value merge(Value pending, Value update) {
+    Value result = pending;
+    for (Item item : update) {
+      final Value key = item.key();
+      if (key.isDefined()) {
+        result = result.updated(key.stringValue(), item.toValue());
+      }
+    }
+    return result;
+  }
+
+  private void emit(Value value) {
+    this.context.commandsEmitted.increment();
+    if (null == this.hostUri) {
+      this.warpRef.command(this.nodeUri, this.commandLane, value);
+    } else {
+      this.warpRef.command(this.hostUri, this.nodeUri, this.commandLane, value);
+    }
   }
 }
@@ -0,0 +1,46 @@
+package io.nstream.demos.stocks.data.pricing;
+
+import swim.api.ref.WarpRef;
+import swim.structure.Value;
+import swim.uri.Uri;
+
+/**
+ * Currency pairs such as {@code EUR/USD}, routed to {@code /forex/EUR/USD}.
+ * FX quotes often repeat while only the timestamp moves, so a tick whose
+ * price, bid and ask all equal the last one sent is dropped before it costs a
+ * command.
+ */
+public class ForexPricingHandler extends AbstractPricingHandler {
+  protected final String symbol;
+
+  // Last forwarded quote; only touched by the dispatch thread.
+  private double price = Double.NaN;
+  private double bid = Double.NaN;
+  private double ask = Double.NaN;
+  private boolean forwarded;
+
+  public ForexPricingHandler(String symbol, WarpRef warpRef) {
+    this(symbol, warpRef, PricingContext.direct());
+  }
+
+  public ForexPricingHandler(String symbol, WarpRef warpRef, PricingContext context) {
+    super(warpRef, Uri.parse(String.format("/forex/%s", symbol)), Uri.parse("update"), context);
+    this.symbol = symbol;
+  }
+
+  @Override
+  public void handleUpdate(Value value) {
+    final double price = value.get("price").doubleValue(Double.NaN);
+    final double bid = value.get("bid").doubleValue(Double.NaN);
+    final double ask = value.get("ask").doubleValue(Double.NaN);
+    if (this.forwarded && Double.compare(price, this.price) == 0
+        && Double.compare(bid, this.bid) == 0 && Double.compare(ask, this.ask) == 0) {
+      return;
+    }
+    this.forwarded = true;
+    this.price = price;
+    this.bid = bid;
+    this.ask = ask;
+    fireCommand(value);
+  }
+}
@@ -0,0 +1,41 @@
+package io.nstream.demos.stocks.data.pricing;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Settings and counters shared by every pricing handler of one client. A
+ * conflation interval of zero forwards every tick as its own command.
+ */
+public class PricingContext {
+  final long conflationIntervalNanos;
+  final ScheduledExecutorService scheduler;
+  final LongAdder ticksReceived = new LongAdder();
+  final LongAdder commandsEmitted = new LongAdder();
+
+  public PricingContext(long conflationIntervalMillis, ScheduledExecutorService scheduler) {
+    this.conflationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, conflationIntervalMillis));
+    this.scheduler = scheduler;
+  }
+
+  public static PricingContext direct() {
+    return new PricingContext(0L, null);
+  }
+
+  public boolean isConflating() {
+    return this.conflationIntervalNanos > 0L && null != this.scheduler;
+  }
+
+  public long conflationIntervalMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(this.conflationIntervalNanos);
+  }
+
+  public long ticksReceived() {
+    return this.ticksReceived.sum();
+  }
+
+  public long commandsEmitted() {
+    return this.commandsEmitted.sum();
+  }
+}
@@ -4,6 +4,10 @@ import swim.api.ref.WarpRef;
 
 public class PricingHandlerFactory {
   public static AbstractPricingHandler create(String type, String symbol, WarpRef warpRef) {
+    return create(type, symbol, warpRef, PricingContext.direct());
+  }
+
+  public static AbstractPricingHandler create(String type, String symbol, WarpRef warpRef, PricingContext context) {
     AbstractPricingHandler handler;
     switch (type) {
       case "COMMON_STOCK":
@@ -12,7 +16,10 @@ public class PricingHandlerFactory {
       case "REIT":
       case "MUTUALFUND":
       case "LIMITED_PARTNERSHIP":
-        handler = new StockPricingHandler(symbol, warpRef);
+        handler = new StockPricingHandler(symbol, warpRef, context);
+        break;
+      case "Physical Currency":
+        handler = new ForexPricingHandler(symbol, warpRef, context);
         break;
       default:
         handler = null;
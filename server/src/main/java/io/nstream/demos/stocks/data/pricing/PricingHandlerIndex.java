@@ -0,0 +1,125 @@
+package io.nstream.demos.stocks.data.pricing;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Symbol to handler lookup that can be probed with a slice of a frame, so the
+ * price path never has to materialize the symbol as a String. Writes only
+ * happen on subscribe-status and copy the table once per message, reads are
+ * lock free.
+ */
+public class PricingHandlerIndex {
+  private static final class Table {
+    final String[] keys;
+    final AbstractPricingHandler[] handlers;
+    final int size;
+
+    Table(int capacity, int size) {
+      this.keys = new String[capacity];
+      this.handlers = new AbstractPricingHandler[capacity];
+      this.size = size;
+    }
+  }
+
+  private volatile Table table = new Table(64, 0);
+
+  static int hash(CharSequence chars, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; i++) {
+      h = 31 * h + chars.charAt(i);
+    }
+    return h;
+  }
+
+  static int mix(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  static boolean matches(String key, CharSequence chars, int start, int end) {
+    final int length = end - start;
+    if (key.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key.charAt(i) != chars.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public AbstractPricingHandler get(CharSequence chars, int start, int end) {
+    final Table table = this.table;
+    final int mask = table.keys.length - 1;
+    int slot = mix(hash(chars, start, end)) & mask;
+    String key;
+    while (null != (key = table.keys[slot])) {
+      if (matches(key, chars, start, end)) {
+        return table.handlers[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+
+  public AbstractPricingHandler get(String symbol) {
+    return get(symbol, 0, symbol.length());
+  }
+
+  public void put(String symbol, AbstractPricingHandler handler) {
+    putAll(Map.of(symbol, handler));
+  }
+
+  /**
+   * Adds or replaces every handler in one copy of the table, so a
+   * subscribe-status for n symbols costs one rebuild rather than n.
+   */
+  public synchronized void putAll(Map<String, AbstractPricingHandler> handlers) {
+    if (handlers.isEmpty()) {
+      return;
+    }
+    final Table current = this.table;
+    int size = current.size;
+    for (String symbol : handlers.keySet()) {
+      if (null == get(symbol)) {
+        size++;
+      }
+    }
+    int capacity = current.keys.length;
+    while (size * 2 > capacity) {
+      capacity <<= 1;
+    }
+    final Table next = new Table(capacity, size);
+    for (int i = 0; i < current.keys.length; i++) {
+      if (null != current.keys[i] && !handlers.containsKey(current.keys[i])) {
+        insert(next, current.keys[i], current.handlers[i]);
+      }
+    }
+    handlers.forEach((symbol, handler) -> insert(next, symbol, handler));
+    this.table = next;
+  }
+
+  private static void insert(Table table, String key, AbstractPricingHandler handler) {
+    final int mask = table.keys.length - 1;
+    int slot = mix(key.hashCode()) & mask;
+    while (null != table.keys[slot]) {
+      slot = (slot + 1) & mask;
+    }
+    table.keys[slot] = key;
+    table.handlers[slot] = handler;
+  }
+
+  public int size() {
+    return this.table.size;
+  }
+
+  public void forEach(BiConsumer<String, AbstractPricingHandler> action) {
+    final Table table = this.table;
+    for (int i = 0; i < table.keys.length; i++) {
+      if (null != table.keys[i]) {
+        action.accept(table.keys[i], table.handlers[i]);
+      }
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package io.nstream.demos.stocks.data.pricing;
 
+import io.nstream.demos.stocks.Partitions;
 import swim.api.ref.WarpRef;
 import swim.structure.Value;
 import swim.uri.Uri;
@@ -8,7 +9,12 @@ public class StockPricingHandler extends AbstractPricingHandler {
   protected final String symbol;
 
   public StockPricingHandler(String symbol, WarpRef warpRef) {
-    super(warpRef, Uri.parse(String.format("/stock/%s", symbol)), Uri.parse("update"));
+    this(symbol, warpRef, PricingContext.direct());
+  }
+
+  public StockPricingHandler(String symbol, WarpRef warpRef, PricingContext context) {
+    super(warpRef, Partitions.shared().hostOf(symbol), Uri.parse(String.format("/stock/%s", symbol)),
+        Uri.parse("update"), context);
     this.symbol = symbol;
   }
 
@@ -0,0 +1,36 @@
+package io.nstream.demos.stocks.history;
+
+/**
+ * Reads what a {@link BitOutput} wrote.
+ */
+final class BitInput {
+  private final long[] words;
+  private int position;
+
+  BitInput(long[] words) {
+    this.words = words;
+  }
+
+  /**
+   * @return the next {@code n} bits, 1 to 64, as the low bits of the result
+   */
+  long read(int n) {
+    final int index = this.position >>> 6;
+    final int offset = this.position & 63;
+    final int available = 64 - offset;
+    final long result;
+    if (n <= available) {
+      result = (this.words[index] << offset) >>> (64 - n);
+    } else {
+      final int rest = n - available;
+      final long high = (this.words[index] << offset) >>> offset;
+      result = (high << rest) | (this.words[index + 1] >>> (64 - rest));
+    }
+    this.position += n;
+    return result;
+  }
+
+  boolean readBit() {
+    return read(1) != 0L;
+  }
+}
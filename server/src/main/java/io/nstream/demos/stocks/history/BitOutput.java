@@ -0,0 +1,45 @@
+package io.nstream.demos.stocks.history;
+
+import java.util.Arrays;
+
+/**
+ * Growable bit buffer, filled from the most significant bit of each word.
+ */
+final class BitOutput {
+  long[] words;
+  int bits;
+
+  BitOutput(int initialWords) {
+    this.words = new long[Math.max(1, initialWords)];
+  }
+
+  /**
+   * Appends the low {@code n} bits of {@code value}, 1 to 64.
+   */
+  void write(long value, int n) {
+    if (this.bits + n > this.words.length << 6) {
+      this.words = Arrays.copyOf(this.words, Math.max(this.words.length << 1, (this.bits + n + 63) >>> 6));
+    }
+    final long v = n == 64 ? value : value & ((1L << n) - 1L);
+    final int index = this.bits >>> 6;
+    final int free = 64 - (this.bits & 63);
+    if (n <= free) {
+      this.words[index] |= v << (free - n);
+    } else {
+      this.words[index] |= v >>> (n - free);
+      this.words[index + 1] |= v << (64 - (n - free));
+    }
+    this.bits += n;
+  }
+
+  int wordCount() {
+    return (this.bits + 63) >>> 6;
+  }
+
+  /**
+   * @return the written words, trimmed
+   */
+  long[] toWords() {
+    return Arrays.copyOf(this.words, wordCount());
+  }
+}
@@ -0,0 +1,39 @@
+package io.nstream.demos.stocks.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A sealed block in a segment file: where its words are and the range of
+ * ticks they hold, so a query only decodes the blocks it overlaps.
+ */
+final class Block {
+  final long segment;
+  final ByteBuffer buffer;
+  final int offset;
+  final int words;
+  final int count;
+  final long firstTime;
+  final long lastTime;
+
+  Block(long segment, ByteBuffer buffer, int offset, int words, int count, long firstTime, long lastTime) {
+    this.segment = segment;
+    this.buffer = buffer;
+    this.offset = offset;
+    this.words = words;
+    this.count = count;
+    this.firstTime = firstTime;
+    this.lastTime = lastTime;
+  }
+
+  boolean overlaps(long from, long to) {
+    return this.lastTime >= from && this.firstTime <= to;
+  }
+
+  void decode(long from, long to, TickBuffer into) {
+    final long[] words = new long[this.words];
+    for (int i = 0; i < words.length; i++) {
+      words[i] = this.buffer.getLong(this.offset + (i << 3));
+    }
+    TickBlockWriter.decode(words, this.count, from, to, into);
+  }
+}
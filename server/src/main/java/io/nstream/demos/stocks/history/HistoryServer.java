@@ -0,0 +1,161 @@
+package io.nstream.demos.stocks.history;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves chart queries on the tick history over plain HTTP:
+ * <pre>
+ * GET /history/AAPL?from=1700000000000&amp;to=1700023400000&amp;points=1000
+ * </pre>
+ * {@code from} and {@code to} are epoch millis and default to the last day and
+ * now; the ticks between them are downsampled to at most {@code points}
+ * (default 1000) with {@link Lttb}. The answer is JSON,
+ * {@code {"symbol":"AAPL","ticks":52310,"points":[[time,price,volume],...]}},
+ * with {@code null} for a volume the feed did not send. A query that fails
+ * answers 500 with an {@code error}.
+ * <p>
+ * Only the ticks of symbols this partition owns are recorded, so with
+ * partitions a symbol must be asked of its owner; any other partition answers
+ * with no ticks.
+ * <p>
+ * A range of ticks is a single response rather than a stream, which is what
+ * HTTP is for; the Swim lanes stay for live updates.
+ */
+public class HistoryServer {
+  private static final Logger log = LoggerFactory.getLogger(HistoryServer.class);
+
+  static final String PREFIX = "/history/";
+  static final int DEFAULT_POINTS = 1000;
+  static final int MAX_POINTS = 10000;
+  static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+  final TickHistory history;
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+  HttpServer server;
+
+  public HistoryServer(TickHistory history) {
+    this.history = history;
+  }
+
+  public void start(int port) throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(port), 0);
+    this.server.createContext(PREFIX, this::handle);
+    this.server.setExecutor(Executors.newFixedThreadPool(2, runnable -> {
+      Thread thread = new Thread(runnable, "history-http");
+      thread.setDaemon(true);
+      return thread;
+    }));
+    this.server.start();
+    log.info("start() - serving tick history on port {}", port);
+  }
+
+  public void stop() {
+    if (null != this.server) {
+      this.server.stop(0);
+    }
+  }
+
+  void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      try {
+        serve(exchange);
+      } catch (RuntimeException ex) {
+        log.error("handle() - {} failed", exchange.getRequestURI(), ex);
+        // Once headers are sent the response is under way, and closing the exchange is all that is left.
+        if (-1 == exchange.getResponseCode()) {
+          respond(exchange, 500, "{\"error\":\"history query failed\"}");
+        }
+      }
+    }
+  }
+
+  void serve(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+    if (!"GET".equals(exchange.getRequestMethod())) {
+      respond(exchange, 405, "{\"error\":\"only GET is supported\"}");
+      return;
+    }
+    final String symbol = exchange.getRequestURI().getPath().substring(PREFIX.length());
+    final Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+    final long now = System.currentTimeMillis();
+    final long from;
+    final long to;
+    final int points;
+    try {
+      to = query.containsKey("to") ? Long.parseLong(query.get("to")) : now;
+      from = query.containsKey("from") ? Long.parseLong(query.get("from")) : to - DAY_MILLIS;
+      points = query.containsKey("points") ? Integer.parseInt(query.get("points")) : DEFAULT_POINTS;
+    } catch (NumberFormatException ex) {
+      respond(exchange, 400, "{\"error\":\"from, to and points must be integers\"}");
+      return;
+    }
+    if (symbol.isEmpty() || from > to || points < 2 || points > MAX_POINTS) {
+      respond(exchange, 400, "{\"error\":\"expected /history/:symbol with from <= to and 2 <= points <= "
+          + MAX_POINTS + "\"}");
+      return;
+    }
+    final long started = System.nanoTime();
+    final String body = render(symbol, this.history.query(symbol, from, to), points);
+    this.metrics.history.recordValue(System.nanoTime() - started);
+    respond(exchange, 200, body);
+  }
+
+  static String render(String symbol, TickBuffer ticks, int points) {
+    final int[] selected = Lttb.select(ticks, points);
+    final StringBuilder json = new StringBuilder(64 + selected.length * 40);
+    json.append("{\"symbol\":\"").append(symbol.replace("\\", "\\\\").replace("\"", "\\\""))
+        .append("\",\"ticks\":").append(ticks.size())
+        .append(",\"points\":[");
+    for (int i = 0; i < selected.length; i++) {
+      final int tick = selected[i];
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append('[').append(ticks.time(tick)).append(',');
+      appendNumber(json, ticks.price(tick)).append(',');
+      appendNumber(json, ticks.volume(tick)).append(']');
+    }
+    return json.append("]}").toString();
+  }
+
+  static StringBuilder appendNumber(StringBuilder json, double value) {
+    return Double.isFinite(value) ? json.append(value) : json.append("null");
+  }
+
+  static Map<String, String> parseQuery(String query) {
+    final Map<String, String> parameters = new HashMap<>();
+    if (null == query || query.isEmpty()) {
+      return parameters;
+    }
+    for (String pair : query.split("&")) {
+      final int equals = pair.indexOf('=');
+      if (equals > 0) {
+        parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+            URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+      }
+    }
+    return parameters;
+  }
+
+  static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package io.nstream.demos.stocks.history;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013): keeps the
+ * first and last tick and, from each of {@code points - 2} equal buckets in
+ * between, the tick forming the largest triangle with the tick kept from the
+ * previous bucket and the average of the next one. Peaks and troughs survive,
+ * which evenly spaced sampling would miss.
+ */
+public final class Lttb {
+  private Lttb() {
+  }
+
+  /**
+   * @return the indices of the ticks to keep, in order; all of them when
+   * there are no more than {@code points}
+   */
+  public static int[] select(TickBuffer ticks, int points) {
+    final int size = ticks.size();
+    if (points >= size || points < 3) {
+      final int[] all = new int[size];
+      for (int i = 0; i < size; i++) {
+        all[i] = i;
+      }
+      return all;
+    }
+    final long[] x = ticks.times;
+    final double[] y = ticks.prices;
+    final int[] selected = new int[points];
+    final double every = (double) (size - 2) / (points - 2);
+    int a = 0;
+    selected[0] = 0;
+    for (int bucket = 0; bucket < points - 2; bucket++) {
+      final int nextStart = (int) Math.floor((bucket + 1) * every) + 1;
+      final int nextEnd = Math.min(size, (int) Math.floor((bucket + 2) * every) + 1);
+      double averageX = 0D;
+      double averageY = 0D;
+      for (int i = nextStart; i < nextEnd; i++) {
+        averageX += x[i];
+        averageY += y[i];
+      }
+      final int nextLength = nextEnd - nextStart;
+      averageX /= nextLength;
+      averageY /= nextLength;
+
+      final int start = (int) Math.floor(bucket * every) + 1;
+      final int end = (int) Math.floor((bucket + 1) * every) + 1;
+      final double ax = x[a];
+      final double ay = y[a];
+      double largest = -1D;
+      int chosen = start;
+      for (int i = start; i < end; i++) {
+        final double area = Math.abs((ax - averageX) * (y[i] - ay) - (ax - x[i]) * (averageY - ay));
+        if (area > largest) {
+          largest = area;
+          chosen = i;
+        }
+      }
+      selected[bucket + 1] = chosen;
+      a = chosen;
+    }
+    selected[points - 1] = size - 1;
+    return selected;
+  }
+}
@@ -0,0 +1,91 @@
+package io.nstream.demos.stocks.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sealed blocks and the open block of one symbol. Appends come from its
+ * stock agent and queries from the HTTP threads; a query copies what it needs
+ * under the lock and decodes outside it.
+ */
+final class Series {
+  final TickHistory history;
+  final String symbol;
+  final List<Block> sealed = new ArrayList<>();
+  TickBlockWriter open;
+  long lastTime = Long.MIN_VALUE;
+
+  Series(TickHistory history, String symbol) {
+    this.history = history;
+    this.symbol = symbol;
+  }
+
+  /**
+   * Appends to the open block, sealing it once it has {@code blockTicks}
+   * ticks or spans {@code blockMillis}. Writing the sealed block happens under
+   * the lock, so a query never sees it in neither place.
+   */
+  synchronized void append(long time, double price, double volume) {
+    if (time < this.lastTime) {
+      // Closed ticks never change; a late tick is dropped, as it is for the bars.
+      return;
+    }
+    this.lastTime = time;
+    if (null == this.open) {
+      this.open = new TickBlockWriter(this.history.blockTicks);
+    }
+    this.open.append(time, price, volume);
+    if (this.open.count >= this.history.blockTicks
+        || this.open.lastTime - this.open.firstTime >= this.history.blockMillis) {
+      seal();
+    }
+  }
+
+  synchronized void seal() {
+    if (null == this.open) {
+      return;
+    }
+    final Block block = this.history.write(this.symbol, this.open);
+    if (null != block) {
+      this.sealed.add(block);
+    }
+    this.open = null;
+  }
+
+  synchronized void recovered(Block block) {
+    this.sealed.add(block);
+    this.lastTime = Math.max(this.lastTime, block.lastTime);
+  }
+
+  synchronized void dropSegment(long segment) {
+    this.sealed.removeIf(block -> block.segment == segment);
+  }
+
+  synchronized int blocks() {
+    return this.sealed.size();
+  }
+
+  void query(long from, long to, TickBuffer into) {
+    final List<Block> blocks = new ArrayList<>();
+    long[] openWords = null;
+    int openCount = 0;
+    synchronized (this) {
+      for (Block block : this.sealed) {
+        if (block.overlaps(from, to)) {
+          blocks.add(block);
+        }
+      }
+      if (null != this.open && this.open.lastTime >= from && this.open.firstTime <= to) {
+        openWords = Arrays.copyOf(this.open.out.words, this.open.out.wordCount());
+        openCount = this.open.count;
+      }
+    }
+    for (Block block : blocks) {
+      block.decode(from, to, into);
+    }
+    if (null != openWords) {
+      TickBlockWriter.decode(openWords, openCount, from, to, into);
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package io.nstream.demos.stocks.history;
+
+/**
+ * The open block of one symbol, compressed as it is appended, after Gorilla
+ * (Pelkonen et al., VLDB 2015). A tick is its time in epoch millis, price and
+ * day volume. The first tick is written raw. After that the time is stored as
+ * the change in its delta from the previous tick:
+ * <pre>
+ * 0                      unchanged
+ * 10   + 7 bits          -64 to 63
+ * 110  + 9 bits          -256 to 255
+ * 1110 + 12 bits         -2048 to 2047
+ * 1111 + 64 bits         anything else
+ * </pre>
+ * Each double is XORed with the previous value of its column:
+ * <pre>
+ * 0                                  same value
+ * 10 + meaningful bits               inside the previous leading and trailing zeros
+ * 11 + 5 bits leading zeros + 6 bits length - 1 + meaningful bits
+ * </pre>
+ * A price tick that only moves the last digits costs a few bits, and an
+ * unchanged volume one.
+ */
+final class TickBlockWriter {
+  static final class Column {
+    long previous;
+    int leading = -1;
+    int trailing;
+  }
+
+  final BitOutput out;
+  final Column price = new Column();
+  final Column volume = new Column();
+  int count;
+  long firstTime;
+  long lastTime;
+  long lastDelta;
+
+  TickBlockWriter(int expectedTicks) {
+    // About 40 bits a tick once the columns settle.
+    this.out = new BitOutput(Math.max(16, expectedTicks * 40 / 64));
+  }
+
+  void append(long time, double price, double volume) {
+    if (this.count == 0) {
+      this.firstTime = time;
+      this.out.write(time, 64);
+      this.price.previous = Double.doubleToRawLongBits(price);
+      this.out.write(this.price.previous, 64);
+      this.volume.previous = Double.doubleToRawLongBits(volume);
+      this.out.write(this.volume.previous, 64);
+    } else {
+      final long delta = time - this.lastTime;
+      writeDeltaOfDelta(this.out, delta - this.lastDelta);
+      this.lastDelta = delta;
+      writeDouble(this.out, this.price, price);
+      writeDouble(this.out, this.volume, volume);
+    }
+    this.lastTime = time;
+    this.count++;
+  }
+
+  int bytes() {
+    return this.out.wordCount() << 3;
+  }
+
+  static void writeDeltaOfDelta(BitOutput out, long dod) {
+    if (dod == 0L) {
+      out.write(0L, 1);
+    } else if (dod >= -64L && dod <= 63L) {
+      out.write(0b10L, 2);
+      out.write(dod, 7);
+    } else if (dod >= -256L && dod <= 255L) {
+      out.write(0b110L, 3);
+      out.write(dod, 9);
+    } else if (dod >= -2048L && dod <= 2047L) {
+      out.write(0b1110L, 4);
+      out.write(dod, 12);
+    } else {
+      out.write(0b1111L, 4);
+      out.write(dod, 64);
+    }
+  }
+
+  static void writeDouble(BitOutput out, Column column, double value) {
+    final long bits = Double.doubleToRawLongBits(value);
+    final long xor = bits ^ column.previous;
+    column.previous = bits;
+    if (xor == 0L) {
+      out.write(0L, 1);
+      return;
+    }
+    final int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+    final int trailing = Long.numberOfTrailingZeros(xor);
+    if (column.leading >= 0 && leading >= column.leading && trailing >= column.trailing) {
+      out.write(0b10L, 2);
+      out.write(xor >>> column.trailing, 64 - column.leading - column.trailing);
+    } else {
+      final int length = 64 - leading - trailing;
+      out.write(0b11L, 2);
+      out.write(leading, 5);
+      out.write(length - 1, 6);
+      out.write(xor >>> trailing, length);
+      column.leading = leading;
+      column.trailing = trailing;
+    }
+  }
+
+  /**
+   * Decodes the {@code count} ticks in {@code words}, passing those between
+   * {@code from} and {@code to} inclusive to {@code into}.
+   */
+  static void decode(long[] words, int count, long from, long to, TickBuffer into) {
+    final BitInput in = new BitInput(words);
+    long time = in.read(64);
+    long price = in.read(64);
+    long volume = in.read(64);
+    long delta = 0L;
+    int priceLeading = -1;
+    int priceTrailing = 0;
+    int volumeLeading = -1;
+    int volumeTrailing = 0;
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        delta += readDeltaOfDelta(in);
+        time += delta;
+        if (time > to) {
+          return;
+        }
+        if (in.readBit()) {
+          if (in.readBit()) {
+            priceLeading = (int) in.read(5);
+            final int length = (int) in.read(6) + 1;
+            priceTrailing = 64 - priceLeading - length;
+          }
+          price ^= in.read(64 - priceLeading - priceTrailing) << priceTrailing;
+        }
+        if (in.readBit()) {
+          if (in.readBit()) {
+            volumeLeading = (int) in.read(5);
+            final int length = (int) in.read(6) + 1;
+            volumeTrailing = 64 - volumeLeading - length;
+          }
+          volume ^= in.read(64 - volumeLeading - volumeTrailing) << volumeTrailing;
+        }
+      } else if (time > to) {
+        return;
+      }
+      if (time >= from) {
+        into.add(time, Double.longBitsToDouble(price), Double.longBitsToDouble(volume));
+      }
+    }
+  }
+
+  static long readDeltaOfDelta(BitInput in) {
+    if (!in.readBit()) {
+      return 0L;
+    }
+    if (!in.readBit()) {
+      return signExtend(in.read(7), 7);
+    }
+    if (!in.readBit()) {
+      return signExtend(in.read(9), 9);
+    }
+    if (!in.readBit()) {
+      return signExtend(in.read(12), 12);
+    }
+    return in.read(64);
+  }
+
+  static long signExtend(long value, int bits) {
+    return (value << (64 - bits)) >> (64 - bits);
+  }
+}
@@ -0,0 +1,48 @@
+package io.nstream.demos.stocks.history;
+
+import java.util.Arrays;
+
+/**
+ * Ticks decoded for a query, in time order, as parallel primitive arrays.
+ */
+public final class TickBuffer {
+  long[] times;
+  double[] prices;
+  double[] volumes;
+  int size;
+
+  public TickBuffer(int capacity) {
+    this.times = new long[Math.max(16, capacity)];
+    this.prices = new double[this.times.length];
+    this.volumes = new double[this.times.length];
+  }
+
+  void add(long time, double price, double volume) {
+    if (this.size == this.times.length) {
+      final int capacity = this.size << 1;
+      this.times = Arrays.copyOf(this.times, capacity);
+      this.prices = Arrays.copyOf(this.prices, capacity);
+      this.volumes = Arrays.copyOf(this.volumes, capacity);
+    }
+    this.times[this.size] = time;
+    this.prices[this.size] = price;
+    this.volumes[this.size] = volume;
+    this.size++;
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public long time(int i) {
+    return this.times[i];
+  }
+
+  public double price(int i) {
+    return this.prices[i];
+  }
+
+  public double volume(int i) {
+    return this.volumes[i];
+  }
+}
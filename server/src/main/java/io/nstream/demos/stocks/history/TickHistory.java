@@ -0,0 +1,338 @@
+package io.nstream.demos.stocks.history;
+
+import io.nstream.demos.stocks.metrics.PipelineMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Every tick of every symbol, compressed per symbol into blocks (see
+ * {@link TickBlockWriter}) and kept on local disk, for chart queries over a
+ * time range.
+ * <p>
+ * A symbol's open block lives in memory until it holds
+ * {@code HISTORY_BLOCK_TICKS} ticks (default 4096) or spans
+ * {@code HISTORY_BLOCK_SECONDS} (default 300). It is then sealed and appended
+ * to the current memory mapped segment ({@code history-N.seg},
+ * {@code HISTORY_SEGMENT_MB}, default 64), which is never written again once
+ * the next one is opened. A record is {@code [byte type][int length][length
+ * bytes]} with the type written last, as in the tick journal. Only the block
+ * index is on the heap; queries read the sealed blocks they overlap straight
+ * from the mapped segments. Segments older than
+ * {@code HISTORY_RETENTION_HOURS} (default 48) are deleted. Restarting
+ * rebuilds the index from the segments; open blocks are sealed on shutdown.
+ * <p>
+ * Enabled by setting {@code HISTORY_DIR}.
+ */
+public class TickHistory {
+  private static final Logger log = LoggerFactory.getLogger(TickHistory.class);
+
+  static final byte END = 0;
+  static final byte BLOCK = 1;
+  static final int RECORD_HEADER_SIZE = 5;
+  static final String SEGMENT_PREFIX = "history-";
+  static final String SEGMENT_SUFFIX = ".seg";
+  static final long RETENTION_CHECK_MINUTES = 10L;
+
+  private static TickHistory shared;
+
+  private final Path directory;
+  private final int segmentSize;
+  final int blockTicks;
+  final long blockMillis;
+  private final long retentionMillis;
+  private final Map<String, Series> series = new ConcurrentHashMap<>();
+  // Segments on disk and the bytes used in each, guarded by this.
+  private final NavigableMap<Long, ByteBuffer> segments = new TreeMap<>();
+  private final NavigableMap<Long, Integer> segmentBytes = new TreeMap<>();
+  private ScheduledExecutorService executorService;
+  private FileChannel channel;
+  private MappedByteBuffer segment;
+  private long segmentSequence;
+
+  TickHistory(Path directory, int segmentSize, int blockTicks, long blockMillis, long retentionMillis) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.blockTicks = blockTicks;
+    this.blockMillis = blockMillis;
+    this.retentionMillis = retentionMillis;
+  }
+
+  public static synchronized TickHistory shared() {
+    if (null == shared) {
+      String directory = System.getenv("HISTORY_DIR");
+      if (null == directory || directory.isBlank()) {
+        log.info("shared() - HISTORY_DIR is not set, tick history disabled");
+        shared = new TickHistory(null, 0, 1, 0L, 0L);
+      } else {
+        shared = new TickHistory(Path.of(directory), intEnv("HISTORY_SEGMENT_MB", 64) << 20,
+            Math.max(2, intEnv("HISTORY_BLOCK_TICKS", 4096)),
+            TimeUnit.SECONDS.toMillis(intEnv("HISTORY_BLOCK_SECONDS", 300)),
+            TimeUnit.HOURS.toMillis(intEnv("HISTORY_RETENTION_HOURS", 48)));
+        try {
+          shared.open();
+        } catch (IOException ex) {
+          log.error("shared() - could not open tick history in {}, tick history disabled", directory, ex);
+          shared = new TickHistory(null, 0, 1, 0L, 0L);
+        }
+      }
+    }
+    return shared;
+  }
+
+  static int intEnv(String name, int defaultValue) {
+    String value = System.getenv(name);
+    return null == value || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public boolean isEnabled() {
+    return null != this.channel;
+  }
+
+  synchronized void open() throws IOException {
+    final long started = System.nanoTime();
+    Files.createDirectories(this.directory);
+    long last = 0L;
+    int blocks = 0;
+    for (long sequence : sequences()) {
+      blocks += recover(sequence);
+      last = sequence;
+    }
+    openSegment(last + 1L);
+    log.info("open() - recovered {} blocks of {} symbols from {} in {}ms", blocks, this.series.size(),
+        this.directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+    this.executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tick-history");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executorService.scheduleWithFixedDelay(this::expire, RETENTION_CHECK_MINUTES, RETENTION_CHECK_MINUTES,
+        TimeUnit.MINUTES);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close, "tick-history-close"));
+
+    final PipelineMetrics metrics = PipelineMetrics.shared();
+    metrics.gauge("historyBytes", this::bytes);
+    metrics.gauge("historyBlocks", () -> this.series.values().stream().mapToLong(Series::blocks).sum());
+  }
+
+  /**
+   * Called from the stock agent of {@code symbol}, with ticks in time order.
+   */
+  public void record(String symbol, long time, double price, double volume) {
+    if (!isEnabled()) {
+      return;
+    }
+    this.series.computeIfAbsent(symbol, key -> new Series(this, key)).append(time, price, volume);
+  }
+
+  /**
+   * @return the ticks of {@code symbol} from {@code from} to {@code to}
+   * inclusive, in epoch millis
+   */
+  public TickBuffer query(String symbol, long from, long to) {
+    final TickBuffer ticks = new TickBuffer(1024);
+    final Series series = this.series.get(symbol);
+    if (null != series) {
+      series.query(from, to, ticks);
+    }
+    return ticks;
+  }
+
+  synchronized long bytes() {
+    long bytes = 0L;
+    for (int used : this.segmentBytes.values()) {
+      bytes += used;
+    }
+    return bytes;
+  }
+
+  /**
+   * Appends a sealed block to the current segment.
+   *
+   * @return where it was written, or null if it could not be
+   */
+  synchronized Block write(String symbol, TickBlockWriter writer) {
+    if (!isEnabled()) {
+      return null;
+    }
+    final byte[] name = symbol.getBytes(StandardCharsets.UTF_8);
+    final int words = writer.out.wordCount();
+    final int length = 2 + name.length + 4 + 8 + 8 + 4 + (words << 3);
+    try {
+      if (RECORD_HEADER_SIZE + length + 1 > this.segmentSize) {
+        log.warn("write() - block of {} is larger than a segment, dropped", symbol);
+        return null;
+      }
+      if (this.segment.remaining() < RECORD_HEADER_SIZE + length + 1) {
+        openSegment(this.segmentSequence + 1L);
+      }
+    } catch (IOException ex) {
+      log.error("write() - could not roll segment, tick history disabled", ex);
+      close();
+      return null;
+    }
+    final int position = this.segment.position();
+    int at = position + RECORD_HEADER_SIZE;
+    this.segment.putInt(position + 1, length);
+    this.segment.putShort(at, (short) name.length);
+    this.segment.put(at + 2, name);
+    at += 2 + name.length;
+    this.segment.putInt(at, writer.count);
+    this.segment.putLong(at + 4, writer.firstTime);
+    this.segment.putLong(at + 12, writer.lastTime);
+    this.segment.putInt(at + 20, words);
+    at += 24;
+    final int offset = at;
+    for (int i = 0; i < words; i++) {
+      this.segment.putLong(at, writer.out.words[i]);
+      at += 8;
+    }
+    this.segment.put(position, BLOCK);
+    this.segment.position(position + RECORD_HEADER_SIZE + length);
+    this.segmentBytes.put(this.segmentSequence, this.segment.position());
+    return new Block(this.segmentSequence, this.segments.get(this.segmentSequence), offset, words, writer.count,
+        writer.firstTime, writer.lastTime);
+  }
+
+  private void openSegment(long sequence) throws IOException {
+    if (null != this.channel) {
+      this.segment.force();
+      this.channel.close();
+    }
+    final Path path = segmentPath(sequence);
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L, this.segmentSize);
+    this.segmentSequence = sequence;
+    this.segments.put(sequence, this.segment.asReadOnlyBuffer());
+    this.segmentBytes.put(sequence, 0);
+  }
+
+  /**
+   * @return how many blocks segment {@code sequence} held
+   */
+  private int recover(long sequence) throws IOException {
+    final Path path = segmentPath(sequence);
+    final MappedByteBuffer buffer;
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      buffer = in.map(FileChannel.MapMode.READ_ONLY, 0L, in.size());
+    }
+    int position = 0;
+    int blocks = 0;
+    while (buffer.limit() - position >= RECORD_HEADER_SIZE) {
+      final byte type = buffer.get(position);
+      final int length = buffer.getInt(position + 1);
+      if (type == END || length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.limit()) {
+        break;
+      }
+      int at = position + RECORD_HEADER_SIZE;
+      final byte[] name = new byte[buffer.getShort(at)];
+      buffer.get(at + 2, name);
+      at += 2 + name.length;
+      final int count = buffer.getInt(at);
+      final long firstTime = buffer.getLong(at + 4);
+      final long lastTime = buffer.getLong(at + 12);
+      final int words = buffer.getInt(at + 20);
+      final String symbol = new String(name, StandardCharsets.UTF_8);
+      this.series.computeIfAbsent(symbol, key -> new Series(this, key))
+          .recovered(new Block(sequence, buffer, at + 24, words, count, firstTime, lastTime));
+      blocks++;
+      position += RECORD_HEADER_SIZE + length;
+    }
+    this.segments.put(sequence, buffer);
+    this.segmentBytes.put(sequence, position);
+    return blocks;
+  }
+
+  /**
+   * Deletes the segments last written more than the retention ago.
+   */
+  void expire() {
+    final List<Long> expired = new ArrayList<>();
+    final long cutoff = System.currentTimeMillis() - this.retentionMillis;
+    synchronized (this) {
+      for (long sequence : this.segments.keySet()) {
+        if (sequence == this.segmentSequence) {
+          continue;
+        }
+        final Path path = segmentPath(sequence);
+        try {
+          if (Files.getLastModifiedTime(path).toMillis() < cutoff) {
+            expired.add(sequence);
+          }
+        } catch (IOException ex) {
+          log.warn("expire() - could not read {}", path, ex);
+        }
+      }
+    }
+    for (long sequence : expired) {
+      this.series.values().forEach(series -> series.dropSegment(sequence));
+      synchronized (this) {
+        this.segments.remove(sequence);
+        this.segmentBytes.remove(sequence);
+        try {
+          Files.deleteIfExists(segmentPath(sequence));
+        } catch (IOException ex) {
+          log.warn("expire() - could not delete segment {}", sequence, ex);
+        }
+      }
+    }
+    if (!expired.isEmpty()) {
+      log.info("expire() - deleted {} segments", expired.size());
+    }
+  }
+
+  private List<Long> sequences() throws IOException {
+    final List<Long> sequences = new ArrayList<>();
+    try (Stream<Path> files = Files.list(this.directory)) {
+      files.map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+          .forEach(name -> sequences.add(Long.parseLong(
+              name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()))));
+    }
+    sequences.sort(Long::compare);
+    return sequences;
+  }
+
+  private Path segmentPath(long sequence) {
+    return this.directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+  }
+
+  public void close() {
+    this.series.values().forEach(Series::seal);
+    synchronized (this) {
+      if (null != this.executorService) {
+        this.executorService.shutdownNow();
+      }
+      if (null != this.channel) {
+        try {
+          this.segment.force();
+          this.channel.close();
+        } catch (IOException ex) {
+          log.error("close() - could not close segment {}", this.segmentSequence, ex);
+        }
+        this.channel = null;
+        this.segment = null;
+      }
+    }
+  }
+}
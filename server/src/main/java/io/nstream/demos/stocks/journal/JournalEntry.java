@@ -0,0 +1,69 @@
+package io.nstream.demos.stocks.journal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Last journaled state of one symbol: the quote fields as primitives plus the
+ * previous close as the JSON the {@code previousClose} lane was set to.
+ * Guarded by its own monitor, so only the symbol's agent and the journal
+ * thread ever wait on it.
+ */
+public class JournalEntry {
+  final String symbol;
+  int defined;
+  long timestamp;
+  double price;
+  double volume;
+  double bid;
+  double ask;
+  String previousClose;
+  // What changed since the journal thread last wrote the entry, and whether it is queued to be written.
+  boolean quoteChanged;
+  boolean previousCloseChanged;
+  final AtomicBoolean queued = new AtomicBoolean();
+
+  JournalEntry(String symbol) {
+    this.symbol = symbol;
+  }
+
+  public String symbol() {
+    return this.symbol;
+  }
+
+  public int defined() {
+    return this.defined;
+  }
+
+  public long timestamp() {
+    return this.timestamp;
+  }
+
+  public double price() {
+    return this.price;
+  }
+
+  public double volume() {
+    return this.volume;
+  }
+
+  public double bid() {
+    return this.bid;
+  }
+
+  public double ask() {
+    return this.ask;
+  }
+
+  public String previousClose() {
+    return this.previousClose;
+  }
+
+  void setQuote(int defined, long timestamp, double price, double volume, double bid, double ask) {
+    this.defined = defined;
+    this.timestamp = timestamp;
+    this.price = price;
+    this.volume = volume;
+    this.bid = bid;
+    this.ask = ask;
+  }
+}
@@ -0,0 +1,220 @@
+package io.nstream.demos.stocks.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.json.Json;
+import swim.structure.Value;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End of day values keyed by symbol and the trading date they close, so a
+ * restart only asks TwelveData for symbols whose close is missing or older
+ * than the last trading day.
+ * <p>
+ * The file is {@code [int magic][int version][int count]} followed by
+ * {@code [UTF symbol][int epoch day][UTF json]} per symbol. It is loaded once
+ * at startup and rewritten (temporary file plus atomic move) a few seconds
+ * after it changes and on shutdown.
+ * <p>
+ * Stored in {@code PREVIOUS_CLOSE_FILE}, or in {@code previous-close.bin}
+ * under {@code JOURNAL_DIR} when only that is set; otherwise it is kept in
+ * memory only.
+ */
+public class PreviousCloseCache {
+  private static final Logger log = LoggerFactory.getLogger(PreviousCloseCache.class);
+
+  static final int MAGIC = 0x50434c53;
+  static final int VERSION = 1;
+  static final long FLUSH_SECONDS = 5L;
+  // Trading dates are New York dates.
+  public static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+  private static PreviousCloseCache shared;
+
+  static final class Entry {
+    final int tradingDate;
+    final String json;
+
+    Entry(int tradingDate, String json) {
+      this.tradingDate = tradingDate;
+      this.json = json;
+    }
+  }
+
+  private final Path file;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private volatile boolean dirty;
+  private ScheduledExecutorService executorService;
+
+  PreviousCloseCache(Path file) {
+    this.file = file;
+  }
+
+  public static synchronized PreviousCloseCache shared() {
+    if (null == shared) {
+      String file = System.getenv("PREVIOUS_CLOSE_FILE");
+      String directory = System.getenv("JOURNAL_DIR");
+      if ((null == file || file.isBlank()) && null != directory && !directory.isBlank()) {
+        file = Path.of(directory, "previous-close.bin").toString();
+      }
+      if (null == file || file.isBlank()) {
+        log.info("shared() - PREVIOUS_CLOSE_FILE is not set, previous closes are not persisted");
+        shared = new PreviousCloseCache(null);
+      } else {
+        shared = new PreviousCloseCache(Path.of(file));
+        shared.open();
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * @return the trading day whose close is the previous close today in New
+   * York
+   */
+  public static LocalDate previousTradingDay() {
+    return previousTradingDay(LocalDate.now(NEW_YORK));
+  }
+
+  /**
+   * The trading day whose close is the previous close on {@code today}. Market
+   * holidays are not known here, so on the day after one this is a day the
+   * exchange never closed and cached values look stale once.
+   */
+  public static LocalDate previousTradingDay(LocalDate today) {
+    LocalDate day = today.minusDays(1);
+    while (DayOfWeek.SATURDAY == day.getDayOfWeek() || DayOfWeek.SUNDAY == day.getDayOfWeek()) {
+      day = day.minusDays(1);
+    }
+    return day;
+  }
+
+  void open() {
+    if (Files.exists(this.file)) {
+      try {
+        load();
+        log.info("open() - loaded {} previous closes from {}", this.entries.size(), this.file);
+      } catch (IOException ex) {
+        log.error("open() - could not load {}, starting empty", this.file, ex);
+        this.entries.clear();
+      }
+    }
+    this.executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "previous-close-cache");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executorService.scheduleWithFixedDelay(this::flush, FLUSH_SECONDS, FLUSH_SECONDS, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "previous-close-cache-flush"));
+  }
+
+  void load() throws IOException {
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        throw new IOException("not a previous close cache");
+      }
+      final int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        final String symbol = input.readUTF();
+        final int tradingDate = input.readInt();
+        this.entries.put(symbol, new Entry(tradingDate, input.readUTF()));
+      }
+    }
+  }
+
+  synchronized void flush() {
+    if (!this.dirty || null == this.file) {
+      return;
+    }
+    this.dirty = false;
+    final Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+    try {
+      final Path parent = this.file.toAbsolutePath().getParent();
+      if (null != parent) {
+        Files.createDirectories(parent);
+      }
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+        final Map<String, Entry> entries = Map.copyOf(this.entries);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          output.writeUTF(entry.getKey());
+          output.writeInt(entry.getValue().tradingDate);
+          output.writeUTF(entry.getValue().json);
+        }
+      }
+      Files.move(temporary, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException ex) {
+      log.error("flush() - could not write {}", this.file, ex);
+      this.dirty = true;
+    }
+  }
+
+  /**
+   * Caches an eod value under the trading date in its {@code datetime} slot.
+   * Values without one are not cached.
+   */
+  public void put(String symbol, Value eod) {
+    final LocalDate tradingDate = tradingDateOf(eod);
+    if (null == tradingDate) {
+      log.debug("put() - {} has no trading date, not cached", symbol);
+      return;
+    }
+    this.entries.put(symbol, new Entry((int) tradingDate.toEpochDay(), Json.toString(eod)));
+    this.dirty = true;
+  }
+
+  /**
+   * @return the cached eod value for {@code symbol}, or null
+   */
+  public Value get(String symbol) {
+    final Entry entry = this.entries.get(symbol);
+    return null == entry ? null : Json.parse(entry.json);
+  }
+
+  /**
+   * @return the trading date in the {@code datetime} slot of an eod value, or
+   * null if it has none
+   */
+  public static LocalDate tradingDateOf(Value eod) {
+    try {
+      return LocalDate.parse(eod.get("datetime").stringValue(""));
+    } catch (DateTimeParseException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if {@code eod} is the close of {@code tradingDate} or later
+   */
+  public static boolean isFresh(Value eod, LocalDate tradingDate) {
+    final LocalDate date = tradingDateOf(eod);
+    return null != date && !date.isBefore(tradingDate);
+  }
+
+  /**
+   * @return true if {@code symbol} has a close for {@code tradingDate} or later
+   */
+  public boolean isFresh(String symbol, LocalDate tradingDate) {
+    final Entry entry = this.entries.get(symbol);
+    return null != entry && entry.tradingDate >= tradingDate.toEpochDay();
+  }
+}
@@ -0,0 +1,442 @@
+package io.nstream.demos.stocks.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of quote updates and previous closes, used to rebuild
+ * every StockAgent after a restart without waiting for the market.
+ * <p>
+ * Records go into fixed size memory mapped segments ({@code segment-N.log}).
+ * A record is {@code [byte type][short length][length bytes]}; the type byte is
+ * written last so a reader never sees a half written record, and the zeroed
+ * tail of a segment reads as the end. Every snapshot interval the journal
+ * rolls to a new segment, writes the latest state of every symbol to
+ * {@code snapshot-N.bin} in the same record format and deletes the segments
+ * and snapshots it replaces. Recovery loads the newest snapshot and replays
+ * the segments after it.
+ * <p>
+ * Appending only updates the symbol's entry under its own monitor and queues
+ * it once; the {@code tick-journal} thread owns the segment and writes the
+ * latest state of every queued entry each flush interval. A symbol that
+ * ticks several times in between is written once, and recovery only needs
+ * its latest state anyway.
+ * <p>
+ * Enabled by setting {@code JOURNAL_DIR}; {@code JOURNAL_SEGMENT_MB} (default
+ * 64), {@code JOURNAL_SNAPSHOT_SECONDS} (default 300) and
+ * {@code JOURNAL_FLUSH_MILLIS} (default 10) tune it.
+ */
+public class TickJournal {
+  private static final Logger log = LoggerFactory.getLogger(TickJournal.class);
+
+  static final byte END = 0;
+  static final byte QUOTE = 1;
+  static final byte PREVIOUS_CLOSE = 2;
+  static final int RECORD_HEADER_SIZE = 3;
+  static final String SEGMENT_PREFIX = "segment-";
+  static final String SEGMENT_SUFFIX = ".log";
+  static final String SNAPSHOT_PREFIX = "snapshot-";
+  static final String SNAPSHOT_SUFFIX = ".bin";
+
+  private static TickJournal shared;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final Map<String, JournalEntry> entries = new ConcurrentHashMap<>();
+  private final Queue<JournalEntry> queue = new ConcurrentLinkedQueue<>();
+  private final ByteBuffer scratch = ByteBuffer.allocate(Short.MAX_VALUE);
+  private ScheduledExecutorService executorService;
+  private FileChannel channel;
+  private MappedByteBuffer segment;
+  private long segmentSequence;
+  private volatile boolean enabled;
+
+  TickJournal(Path directory, int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  public static synchronized TickJournal shared() {
+    if (null == shared) {
+      String directory = System.getenv("JOURNAL_DIR");
+      if (null == directory || directory.isBlank()) {
+        log.info("shared() - JOURNAL_DIR is not set, journal disabled");
+        shared = new TickJournal(null, 0);
+      } else {
+        int segmentMb = intEnv("JOURNAL_SEGMENT_MB", 64);
+        int snapshotSeconds = intEnv("JOURNAL_SNAPSHOT_SECONDS", 300);
+        int flushMillis = intEnv("JOURNAL_FLUSH_MILLIS", 10);
+        shared = new TickJournal(Path.of(directory), segmentMb << 20);
+        try {
+          shared.open(snapshotSeconds, flushMillis);
+        } catch (IOException ex) {
+          log.error("shared() - could not open journal in {}, journal disabled", directory, ex);
+          shared = new TickJournal(null, 0);
+        }
+      }
+    }
+    return shared;
+  }
+
+  static int intEnv(String name, int defaultValue) {
+    String value = System.getenv(name);
+    return null == value || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  synchronized void open(int snapshotSeconds, int flushMillis) throws IOException {
+    final long started = System.nanoTime();
+    Files.createDirectories(this.directory);
+    final long snapshot = recover();
+    final long last = Math.max(snapshot, lastSequence(SEGMENT_PREFIX, SEGMENT_SUFFIX));
+    openSegment(last + 1);
+    this.enabled = true;
+    log.info("open() - recovered {} symbols from {} in {}ms", this.entries.size(), this.directory,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+    this.executorService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tick-journal");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.executorService.scheduleWithFixedDelay(this::flush, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    this.executorService.scheduleWithFixedDelay(this::snapshot, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+    Runtime.getRuntime().addShutdownHook(new Thread(this::close, "tick-journal-close"));
+  }
+
+  /**
+   * @return a copy of the last journaled state of {@code symbol}, or null
+   */
+  public JournalEntry entry(String symbol) {
+    final JournalEntry entry = this.entries.get(symbol);
+    if (null == entry) {
+      return null;
+    }
+    final JournalEntry copy = new JournalEntry(symbol);
+    synchronized (entry) {
+      copy.setQuote(entry.defined, entry.timestamp, entry.price, entry.volume, entry.bid, entry.ask);
+      copy.previousClose = entry.previousClose;
+    }
+    return copy;
+  }
+
+  public void appendQuote(String symbol, int defined, long timestamp, double price,
+                          double volume, double bid, double ask) {
+    if (!isEnabled()) {
+      return;
+    }
+    final JournalEntry entry = entryFor(symbol);
+    synchronized (entry) {
+      entry.setQuote(defined, timestamp, price, volume, bid, ask);
+      entry.quoteChanged = true;
+    }
+    enqueue(entry);
+  }
+
+  public void appendPreviousClose(String symbol, String previousCloseJson) {
+    if (!isEnabled()) {
+      return;
+    }
+    if (previousCloseJson.getBytes(StandardCharsets.UTF_8).length > Short.MAX_VALUE - 64) {
+      log.warn("appendPreviousClose() - previous close of {} is too large to journal", symbol);
+      return;
+    }
+    final JournalEntry entry = entryFor(symbol);
+    synchronized (entry) {
+      entry.previousClose = previousCloseJson;
+      entry.previousCloseChanged = true;
+    }
+    enqueue(entry);
+  }
+
+  private void enqueue(JournalEntry entry) {
+    if (entry.queued.compareAndSet(false, true)) {
+      this.queue.add(entry);
+    }
+  }
+
+  /**
+   * Writes the latest state of every queued entry, on the journal thread.
+   */
+  synchronized void flush() {
+    JournalEntry entry;
+    while (isEnabled() && null != (entry = this.queue.poll())) {
+      // Cleared before reading, so a change made while it is written queues it again.
+      entry.queued.set(false);
+      final boolean quote;
+      String previousClose = null;
+      this.scratch.clear();
+      synchronized (entry) {
+        quote = entry.quoteChanged;
+        if (quote) {
+          putQuote(this.scratch, entry);
+        }
+        if (entry.previousCloseChanged) {
+          previousClose = entry.previousClose;
+        }
+        entry.quoteChanged = false;
+        entry.previousCloseChanged = false;
+      }
+      if (quote) {
+        append(QUOTE);
+      }
+      if (null != previousClose) {
+        this.scratch.clear();
+        putPreviousClose(this.scratch, entry.symbol, previousClose);
+        append(PREVIOUS_CLOSE);
+      }
+    }
+  }
+
+  /**
+   * Keeps the latest state of {@code symbol} in memory whether or not the
+   * journal is enabled, so an agent that closes while idle is restored from
+   * {@link #entry(String)} when it starts again.
+   */
+  public void retain(String symbol, int defined, long timestamp, double price,
+                     double volume, double bid, double ask, String previousCloseJson) {
+    final JournalEntry entry = entryFor(symbol);
+    synchronized (entry) {
+      entry.setQuote(defined, timestamp, price, volume, bid, ask);
+      if (null != previousCloseJson) {
+        entry.previousClose = previousCloseJson;
+      }
+    }
+  }
+
+  private JournalEntry entryFor(String symbol) {
+    return this.entries.computeIfAbsent(symbol, JournalEntry::new);
+  }
+
+  private static void putSymbol(ByteBuffer buffer, String symbol) {
+    final byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+    buffer.put((byte) bytes.length).put(bytes);
+  }
+
+  private static void putQuote(ByteBuffer buffer, JournalEntry entry) {
+    putSymbol(buffer, entry.symbol);
+    buffer.putInt(entry.defined).putLong(entry.timestamp)
+        .putDouble(entry.price).putDouble(entry.volume).putDouble(entry.bid).putDouble(entry.ask);
+  }
+
+  private static void putPreviousClose(ByteBuffer buffer, String symbol, String previousClose) {
+    final byte[] json = previousClose.getBytes(StandardCharsets.UTF_8);
+    putSymbol(buffer, symbol);
+    buffer.putShort((short) json.length).put(json);
+  }
+
+  private static String getSymbol(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.get() & 0xff];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void append(byte type) {
+    this.scratch.flip();
+    final int length = this.scratch.remaining();
+    try {
+      if (this.segment.remaining() < RECORD_HEADER_SIZE + length + 1) {
+        openSegment(this.segmentSequence + 1);
+      }
+      final int position = this.segment.position();
+      this.segment.putShort(position + 1, (short) length);
+      this.segment.put(position + RECORD_HEADER_SIZE, this.scratch, 0, length);
+      this.segment.put(position, type);
+      this.segment.position(position + RECORD_HEADER_SIZE + length);
+    } catch (IOException ex) {
+      log.error("append() - could not roll segment, journal disabled", ex);
+      this.enabled = false;
+      close();
+    }
+  }
+
+  private void openSegment(long sequence) throws IOException {
+    if (null != this.channel) {
+      this.segment.force();
+      this.channel.close();
+    }
+    final Path path = this.directory.resolve(name(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.segment = this.channel.map(FileChannel.MapMode.READ_WRITE, 0L, this.segmentSize);
+    this.segmentSequence = sequence;
+  }
+
+  /**
+   * Rolls to a new segment and compacts everything before it into a snapshot.
+   */
+  void snapshot() {
+    final long sequence;
+    final List<ByteBuffer> records = new ArrayList<>();
+    synchronized (this) {
+      if (!isEnabled()) {
+        return;
+      }
+      flush();
+      try {
+        openSegment(this.segmentSequence + 1);
+      } catch (IOException ex) {
+        log.error("snapshot() - could not roll segment, journal disabled", ex);
+        this.enabled = false;
+        close();
+        return;
+      }
+      sequence = this.segmentSequence - 1;
+      for (JournalEntry entry : this.entries.values()) {
+        final String previousClose;
+        this.scratch.clear();
+        synchronized (entry) {
+          putQuote(this.scratch, entry);
+          previousClose = entry.previousClose;
+        }
+        records.add(record(QUOTE));
+        if (null != previousClose) {
+          this.scratch.clear();
+          putPreviousClose(this.scratch, entry.symbol, previousClose);
+          records.add(record(PREVIOUS_CLOSE));
+        }
+      }
+    }
+
+    try {
+      final long started = System.nanoTime();
+      final Path target = this.directory.resolve(name(SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+      final Path temporary = this.directory.resolve(target.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        for (ByteBuffer record : records) {
+          while (record.hasRemaining()) {
+            out.write(record);
+          }
+        }
+        out.force(true);
+      }
+      Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      deleteBefore(SEGMENT_PREFIX, SEGMENT_SUFFIX, sequence + 1);
+      deleteBefore(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX, sequence);
+      log.debug("snapshot() - wrote {} records to {} in {}ms", records.size(), target,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    } catch (IOException ex) {
+      log.error("snapshot() - could not write snapshot {}", sequence, ex);
+    }
+  }
+
+  private ByteBuffer record(byte type) {
+    this.scratch.flip();
+    final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + this.scratch.remaining());
+    record.put(type).putShort((short) this.scratch.remaining()).put(this.scratch).flip();
+    return record;
+  }
+
+  /**
+   * @return the sequence of the snapshot recovery started from, or 0
+   */
+  private long recover() throws IOException {
+    final long snapshot = lastSequence(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+    if (snapshot > 0L) {
+      replay(this.directory.resolve(name(SNAPSHOT_PREFIX, snapshot, SNAPSHOT_SUFFIX)));
+    }
+    for (long sequence : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+      if (sequence > snapshot) {
+        replay(this.directory.resolve(name(SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX)));
+      }
+    }
+    return snapshot;
+  }
+
+  private void replay(Path path) throws IOException {
+    try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+      final MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0L, in.size());
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        final int position = buffer.position();
+        final byte type = buffer.get(position);
+        final int length = buffer.getShort(position + 1) & 0xffff;
+        if (type == END || position + RECORD_HEADER_SIZE + length > buffer.limit()) {
+          break;
+        }
+        final ByteBuffer body = buffer.slice(position + RECORD_HEADER_SIZE, length);
+        final String symbol = getSymbol(body);
+        if (type == QUOTE) {
+          entryFor(symbol).setQuote(body.getInt(), body.getLong(), body.getDouble(), body.getDouble(),
+              body.getDouble(), body.getDouble());
+        } else if (type == PREVIOUS_CLOSE) {
+          final byte[] json = new byte[body.getShort() & 0xffff];
+          body.get(json);
+          entryFor(symbol).previousClose = new String(json, StandardCharsets.UTF_8);
+        }
+        buffer.position(position + RECORD_HEADER_SIZE + length);
+      }
+    }
+  }
+
+  static String name(String prefix, long sequence, String suffix) {
+    return String.format("%s%016d%s", prefix, sequence, suffix);
+  }
+
+  private List<Long> sequences(String prefix, String suffix) throws IOException {
+    final List<Long> sequences = new ArrayList<>();
+    try (Stream<Path> files = Files.list(this.directory)) {
+      files.map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+          .forEach(name -> sequences.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()))));
+    }
+    sequences.sort(Long::compare);
+    return sequences;
+  }
+
+  private long lastSequence(String prefix, String suffix) throws IOException {
+    final List<Long> sequences = sequences(prefix, suffix);
+    return sequences.isEmpty() ? 0L : sequences.get(sequences.size() - 1);
+  }
+
+  private void deleteBefore(String prefix, String suffix, long sequence) throws IOException {
+    for (long existing : sequences(prefix, suffix)) {
+      if (existing < sequence) {
+        Files.deleteIfExists(this.directory.resolve(name(prefix, existing, suffix)));
+      }
+    }
+  }
+
+  public synchronized void close() {
+    if (null != this.executorService) {
+      this.executorService.shutdownNow();
+    }
+    if (this.enabled) {
+      flush();
+      this.enabled = false;
+    }
+    if (null != this.channel) {
+      try {
+        this.segment.force();
+        this.channel.close();
+      } catch (IOException ex) {
+        log.error("close() - could not close segment {}", this.segmentSequence, ex);
+      }
+      this.channel = null;
+      this.segment = null;
+    }
+  }
+}
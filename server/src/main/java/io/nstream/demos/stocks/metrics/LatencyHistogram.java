@@ -0,0 +1,109 @@
+package io.nstream.demos.stocks.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram: every power of
+ * two range is split into 32 linear buckets, so a recorded value is off by at
+ * most about 3%. Values are nanoseconds below 2^41, about 36 minutes, as the
+ * top power of two starts at 2^(MAX_SHIFT + SUB_BITS); larger ones land in the
+ * last bucket. Recording is one atomic increment with no locks or
+ * allocation, and any number of threads may record while another takes a
+ * snapshot; {@link #snapshot()} drains the counts, so each snapshot covers the
+ * interval since the previous one.
+ */
+public class LatencyHistogram {
+  static final int SUB_BITS = 5;
+  static final int SUB_COUNT = 1 << SUB_BITS;
+  static final int MAX_SHIFT = 40 - SUB_BITS;
+  static final int BUCKETS = (MAX_SHIFT + 2) * SUB_COUNT;
+
+  final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  public void recordValue(long nanos) {
+    this.counts.getAndIncrement(bucket(nanos));
+  }
+
+  static int bucket(long value) {
+    if (value < SUB_COUNT) {
+      return value < 0L ? 0 : (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    if (shift > MAX_SHIFT) {
+      return BUCKETS - 1;
+    }
+    return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+  }
+
+  static long lowerBound(int bucket) {
+    if (bucket < SUB_COUNT) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_COUNT - 1;
+    return (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+  }
+
+  static long upperBound(int bucket) {
+    return bucket + 1 == BUCKETS ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1L;
+  }
+
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKETS];
+    long total = 0L;
+    for (int i = 0; i < BUCKETS; i++) {
+      if (this.counts.get(i) != 0L) {
+        counts[i] = this.counts.getAndSet(i, 0L);
+        total += counts[i];
+      }
+    }
+    return new Snapshot(counts, total);
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.counts.set(i, 0L);
+    }
+  }
+
+  public static final class Snapshot {
+    final long[] counts;
+    final long count;
+
+    Snapshot(long[] counts, long count) {
+      this.counts = counts;
+      this.count = count;
+    }
+
+    public long count() {
+      return this.count;
+    }
+
+    /**
+     * @return the midpoint of the bucket holding the {@code quantile}, in
+     * nanoseconds, or 0 if nothing was recorded
+     */
+    public long valueAt(double quantile) {
+      if (this.count == 0L) {
+        return 0L;
+      }
+      final long rank = Math.max(1L, (long) Math.ceil(quantile * this.count));
+      long seen = 0L;
+      for (int i = 0; i < this.counts.length; i++) {
+        seen += this.counts[i];
+        if (seen >= rank) {
+          return (lowerBound(i) + Math.min(upperBound(i), lowerBound(i) * 2L)) / 2L;
+        }
+      }
+      return upperBound(this.counts.length - 1);
+    }
+
+    public long max() {
+      for (int i = this.counts.length - 1; i >= 0; i--) {
+        if (this.counts[i] != 0L) {
+          return upperBound(i);
+        }
+      }
+      return 0L;
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package io.nstream.demos.stocks.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import swim.api.SwimLane;
+import swim.api.agent.AbstractAgent;
+import swim.api.lane.CommandLane;
+import swim.api.lane.MapLane;
+import swim.api.lane.ValueLane;
+import swim.concurrent.TimerRef;
+import swim.structure.Num;
+import swim.structure.Record;
+import swim.structure.Value;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes {@link PipelineMetrics} every {@code interval} milliseconds:
+ * latency percentiles per stage in microseconds over the last interval, the
+ * frame rate off the feed, the tick rate of every symbol and the gauges.
+ */
+public class MetricsAgent extends AbstractAgent {
+  private static final Logger log = LoggerFactory.getLogger(MetricsAgent.class);
+
+  @SwimLane("stages")
+  final MapLane<String, Value> stages = this.mapLane();
+
+  @SwimLane("throughput")
+  final ValueLane<Value> throughput = this.valueLane();
+
+  // Ticks per second by symbol; an entry is only re-published when its rate changes.
+  @SwimLane("symbolRates")
+  final MapLane<String, Double> symbolRates = this.mapLane();
+
+  // Current value of every registered gauge, such as the ingest queue depth.
+  @SwimLane("gauges")
+  final ValueLane<Value> gauges = this.valueLane();
+
+  // Heap in megabytes and CPU load of this process, so a load test can watch the server.
+  @SwimLane("jvm")
+  final ValueLane<Value> jvm = this.valueLane();
+
+  @SwimLane("reset")
+  final CommandLane<Value> reset = this.<Value>commandLane()
+      .onCommand(input -> {
+        log.info("reset() - clearing pipeline metrics");
+        this.metrics.reset();
+        this.lastPublish = System.nanoTime();
+      });
+
+  final PipelineMetrics metrics = PipelineMetrics.shared();
+  final Map<String, Double> lastRates = new HashMap<>();
+  long interval;
+  long lastPublish;
+  TimerRef publishTimer;
+
+  @Override
+  public void didStart() {
+    super.didStart();
+    this.interval = getProp("interval").longValue(1000L);
+    this.lastPublish = System.nanoTime();
+    this.publishTimer = this.setTimer(this.interval, this::publish);
+  }
+
+  void publish() {
+    final long now = System.nanoTime();
+    final double seconds = Math.max(1L, now - this.lastPublish) / 1e9;
+    this.lastPublish = now;
+
+    this.metrics.stages.forEach((stage, histogram) -> {
+      final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+      this.stages.put(stage,
+          Record.create(7)
+              .slot("count", snapshot.count())
+              .slot("rate", snapshot.count() / seconds)
+              .slot("p50", micros(snapshot.valueAt(0.5D)))
+              .slot("p90", micros(snapshot.valueAt(0.9D)))
+              .slot("p99", micros(snapshot.valueAt(0.99D)))
+              .slot("p999", micros(snapshot.valueAt(0.999D)))
+              .slot("max", micros(snapshot.max()))
+      );
+    });
+
+    long ticks = 0L;
+    for (Map.Entry<String, LongAdder> entry : this.metrics.symbolTicks.entrySet()) {
+      final long count = entry.getValue().sumThenReset();
+      ticks += count;
+      final double rate = Math.round(count / seconds * 100D) / 100D;
+      if (!Double.valueOf(rate).equals(this.lastRates.put(entry.getKey(), rate))) {
+        this.symbolRates.put(entry.getKey(), rate);
+      }
+    }
+
+    this.throughput.set(
+        Record.create(3)
+            .slot("messagesPerSecond", this.metrics.messages.sumThenReset() / seconds)
+            .slot("ticksPerSecond", ticks / seconds)
+            .slot("symbols", this.metrics.symbolTicks.size())
+    );
+    if (!this.metrics.gauges.isEmpty()) {
+      final Record gauges = Record.create(this.metrics.gauges.size());
+      this.metrics.gauges.forEach((name, gauge) -> gauges.slot(name, gauge.getAsLong()));
+      this.gauges.set(gauges);
+    }
+    publishJvm();
+    this.publishTimer = this.setTimer(this.interval, this::publish);
+  }
+
+  void publishJvm() {
+    final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long gcCount = 0L;
+    long gcTime = 0L;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcCount += Math.max(0L, collector.getCollectionCount());
+      gcTime += Math.max(0L, collector.getCollectionTime());
+    }
+    double cpu = Double.NaN;
+    final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      cpu = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuLoad();
+    }
+    this.jvm.set(
+        Record.create(6)
+            .slot("heapUsed", heap.getUsed() >> 20)
+            .slot("heapCommitted", heap.getCommitted() >> 20)
+            .slot("heapMax", heap.getMax() >> 20)
+            .slot("processCpuLoad", cpu < 0D || Double.isNaN(cpu) ? Value.absent() : Num.from(cpu))
+            .slot("gcCount", gcCount)
+            .slot("gcTime", gcTime)
+    );
+  }
+
+  static double micros(long nanos) {
+    return Math.round(nanos / 10D) / 100D;
+  }
+}
@@ -0,0 +1,84 @@
+package io.nstream.demos.stocks.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process wide latency histograms and counters for the tick pipeline, read by
+ * {@link MetricsAgent}. Ticks are stamped with {@link System#nanoTime()} when
+ * the frame is received; the stages are:
+ * <ul>
+ * <li>ingest: receive until a dispatch worker takes the frame off its ring</li>
+ * <li>parse: start of dispatch until the update payload is built</li>
+ * <li>dispatch: payload built until the handler has sent its command</li>
+ * <li>queue: receive until {@code StockAgent.update} starts</li>
+ * <li>update: the whole {@code StockAgent.update} callback</li>
+ * <li>publish: setting the {@code status} lane</li>
+ * <li>eod: one end of day REST request</li>
+ * <li>history: one tick history query, read and downsampled</li>
+ * <li>correlation: one interval of the correlation matrix, all symbols</li>
+ * </ul>
+ * Gauges are sampled by {@link MetricsAgent} every interval.
+ */
+public final class PipelineMetrics {
+  private static final PipelineMetrics SHARED = new PipelineMetrics();
+
+  /** Slot the receive time travels in, from the decoder to the stock agent. */
+  public static final String RECEIVED = "received";
+
+  public final LatencyHistogram ingest = new LatencyHistogram();
+  public final LatencyHistogram parse = new LatencyHistogram();
+  public final LatencyHistogram dispatch = new LatencyHistogram();
+  public final LatencyHistogram queue = new LatencyHistogram();
+  public final LatencyHistogram update = new LatencyHistogram();
+  public final LatencyHistogram publish = new LatencyHistogram();
+  public final LatencyHistogram eod = new LatencyHistogram();
+  public final LatencyHistogram history = new LatencyHistogram();
+  public final LatencyHistogram correlation = new LatencyHistogram();
+  public final LongAdder messages = new LongAdder();
+
+  final Map<String, LatencyHistogram> stages = new LinkedHashMap<>();
+  final Map<String, LongAdder> symbolTicks = new ConcurrentHashMap<>();
+  final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+  PipelineMetrics() {
+    this.stages.put("ingest", this.ingest);
+    this.stages.put("parse", this.parse);
+    this.stages.put("dispatch", this.dispatch);
+    this.stages.put("queue", this.queue);
+    this.stages.put("update", this.update);
+    this.stages.put("publish", this.publish);
+    this.stages.put("eod", this.eod);
+    this.stages.put("history", this.history);
+    this.stages.put("correlation", this.correlation);
+  }
+
+  public static PipelineMetrics shared() {
+    return SHARED;
+  }
+
+  /**
+   * The tick counter of {@code symbol}; callers keep the reference so counting
+   * a tick is a single uncontended add.
+   */
+  public LongAdder symbolTicks(String symbol) {
+    return this.symbolTicks.computeIfAbsent(symbol, key -> new LongAdder());
+  }
+
+  /**
+   * Publishes {@code gauge} as {@code name}, replacing any gauge of that name.
+   */
+  public void gauge(String name, LongSupplier gauge) {
+    this.gauges.put(name, gauge);
+  }
+
+  public void reset() {
+    this.stages.values().forEach(LatencyHistogram::reset);
+    this.messages.reset();
+    this.symbolTicks.values().forEach(LongAdder::reset);
+  }
+}
@@ -0,0 +1,203 @@
+package io.nstream.demos.stocks.alerts;
+
+import org.junit.jupiter.api.Test;
+import swim.structure.Value;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AlertEngineTest {
+  static final String[] SYMBOLS = {"A", "B", "C", "D"};
+
+  @Test
+  void firesOnReachingTheThresholdAndNotOnLeavingIt() {
+    final AlertEngine engine = new AlertEngine();
+    engine.add(new AlertRule("up", "A", AlertRule.PRICE, 100D, true, 0D, 1L));
+    engine.add(new AlertRule("down", "A", AlertRule.PRICE, 90D, false, 0D, 2L));
+    final AlertEngine.Watch watch = engine.watch("A");
+    assertEquals(List.of(), ids(engine.evaluate(watch, 0L, 99D, Double.NaN)));
+    assertEquals(List.of("up"), ids(engine.evaluate(watch, 1L, 100D, Double.NaN)), "rising onto the threshold");
+    assertEquals(List.of(), ids(engine.evaluate(watch, 2L, 101D, Double.NaN)), "rising off the threshold");
+    assertEquals(List.of(), ids(engine.evaluate(watch, 3L, 91D, Double.NaN)));
+    assertEquals(List.of("down"), ids(engine.evaluate(watch, 4L, 90D, Double.NaN)), "falling onto the threshold");
+    assertEquals(List.of(), ids(engine.evaluate(watch, 5L, 89D, Double.NaN)), "falling off the threshold");
+  }
+
+  @Test
+  void rearmsOnlyPastTheHysteresis() {
+    final AlertEngine engine = new AlertEngine();
+    engine.add(new AlertRule("up", "A", AlertRule.PRICE, 100D, true, 1D, 1L));
+    final AlertEngine.Watch watch = engine.watch("A");
+    engine.evaluate(watch, 0L, 98D, Double.NaN);
+    assertEquals(List.of("up"), ids(engine.evaluate(watch, 1L, 100D, Double.NaN)));
+    engine.evaluate(watch, 2L, 99.5D, Double.NaN);
+    assertEquals(List.of(), ids(engine.evaluate(watch, 3L, 100.5D, Double.NaN)), "not re-armed inside the band");
+    // The re-arm level is inclusive, like the trigger.
+    engine.evaluate(watch, 4L, 99D, Double.NaN);
+    assertEquals(List.of("up"), ids(engine.evaluate(watch, 5L, 100D, Double.NaN)), "re-armed at the band's edge");
+  }
+
+  @Test
+  void rearmsAGlobalRulePerSymbol() {
+    final AlertEngine engine = new AlertEngine();
+    engine.add(new AlertRule("all", null, AlertRule.MOVEMENT, 2D, true, 0.5D, 1L));
+    final AlertEngine.Watch a = engine.watch("A");
+    final AlertEngine.Watch b = engine.watch("B");
+    engine.evaluate(a, 0L, 10D, 0D);
+    engine.evaluate(b, 0L, 10D, 0D);
+    assertEquals(List.of("all"), ids(engine.evaluate(a, 1L, 10D, 2D)));
+    assertEquals(List.of("all"), ids(engine.evaluate(b, 1L, 10D, 3D)), "fired for A, still armed for B");
+    engine.evaluate(a, 2L, 10D, 1.6D);
+    assertEquals(List.of(), ids(engine.evaluate(a, 3L, 10D, 2.1D)), "A not re-armed");
+    engine.evaluate(a, 4L, 10D, 1.5D);
+    assertEquals(List.of("all"), ids(engine.evaluate(a, 5L, 10D, 2D)), "A re-armed");
+  }
+
+  @Test
+  void forgetsARemovedGlobalRule() {
+    final AlertEngine engine = new AlertEngine();
+    engine.add(new AlertRule("all", null, AlertRule.MOVEMENT, 2D, true, 0.5D, 1L));
+    final AlertEngine.Watch watch = engine.watch("A");
+    engine.evaluate(watch, 0L, 10D, 0D);
+    assertEquals(List.of("all"), ids(engine.evaluate(watch, 1L, 10D, 2D)));
+    assertTrue(engine.remove("all"));
+    assertTrue(watch.disarmed.isEmpty(), "no disarmed state left behind");
+    assertTrue(engine.movementBook.isEmpty(), "no levels left behind");
+    engine.evaluate(watch, 2L, 10D, 0D);
+    assertEquals(List.of(), ids(engine.evaluate(watch, 3L, 10D, 2D)), "removed");
+    // The same id again is a new rule, armed for every symbol.
+    engine.add(new AlertRule("all", null, AlertRule.MOVEMENT, 2D, true, 0.5D, 2L));
+    engine.evaluate(watch, 4L, 10D, 2.5D);
+    engine.evaluate(watch, 5L, 10D, 1D);
+    assertEquals(List.of("all"), ids(engine.evaluate(watch, 6L, 10D, 2D)), "added again");
+  }
+
+  @Test
+  void matchesANaiveScan() {
+    for (long seed = 0L; seed < 10L; seed++) {
+      final Random random = new Random(seed);
+      final AlertEngine engine = new AlertEngine();
+      final Scan scan = new Scan();
+      final Map<String, AlertEngine.Watch> watches = new HashMap<>();
+      final Map<String, double[]> last = new HashMap<>();
+      final Map<String, Double> prices = new HashMap<>();
+      for (String symbol : SYMBOLS) {
+        watches.put(symbol, engine.watch(symbol));
+        prices.put(symbol, 100D);
+      }
+      long seq = 0L;
+      for (int i = 0; i < 600; i++) {
+        final AlertRule rule = randomRule(random, "r" + i, ++seq);
+        engine.add(rule);
+        scan.add(rule);
+      }
+      for (int tick = 0; tick < 20000; tick++) {
+        if (tick % 500 == 499) {
+          // Remove some rules, global ones included, and add some back, reusing ids.
+          for (int k = 0; k < 20; k++) {
+            final String id = "r" + random.nextInt(700);
+            assertEquals(scan.remove(id), engine.remove(id), "seed " + seed + " remove " + id);
+          }
+          for (int k = 0; k < 20; k++) {
+            final AlertRule rule = randomRule(random, "r" + random.nextInt(700), ++seq);
+            engine.add(rule);
+            scan.add(rule);
+          }
+        }
+        final String symbol = SYMBOLS[random.nextInt(SYMBOLS.length)];
+        // Cent prices on a 0.05 grid of thresholds, so ticks often land exactly on a level.
+        double price = Math.round((prices.get(symbol) + random.nextInt(41) - 20) * 100D / 5D) * 5D / 100D;
+        price = Math.round((price + (random.nextInt(21) - 10) / 100D) * 100D) / 100D;
+        if (price < 80D || price > 120D) {
+          price = 100D;
+        }
+        prices.put(symbol, price);
+        final double movement = random.nextInt(10) == 0 ? Double.NaN : Math.round((price - 100D) * 100D) / 100D;
+        final List<String> fired = ids(engine.evaluate(watches.get(symbol), tick, price, movement));
+        final List<String> expected = scan.evaluate(symbol, last.get(symbol), price, movement);
+        last.put(symbol, new double[] {price, movement});
+        Collections.sort(fired);
+        Collections.sort(expected);
+        assertEquals(expected, fired, "seed " + seed + " tick " + tick + " " + symbol);
+      }
+    }
+  }
+
+  static AlertRule randomRule(Random random, String id, long seq) {
+    final int kind = random.nextInt(3);
+    final String symbol = kind == 2 ? null : SYMBOLS[random.nextInt(SYMBOLS.length)];
+    final String field = kind == 0 ? AlertRule.PRICE : AlertRule.MOVEMENT;
+    final double threshold = kind == 0 ? 80D + random.nextInt(801) * 0.05D : -20D + random.nextInt(801) * 0.05D;
+    return new AlertRule(id, symbol, field, Math.round(threshold * 100D) / 100D, random.nextBoolean(),
+        random.nextInt(4) * 0.5D, seq);
+  }
+
+  static List<String> ids(List<Value> fired) {
+    final List<String> ids = new ArrayList<>(fired.size());
+    for (Value alert : fired) {
+      ids.add(alert.get("id").stringValue());
+    }
+    return ids;
+  }
+
+  /**
+   * Every live rule checked on every tick, with its armed state per symbol.
+   */
+  static final class Scan {
+    final Map<String, AlertRule> rules = new HashMap<>();
+    final Map<AlertRule, Map<String, Boolean>> armed = new IdentityHashMap<>();
+
+    void add(AlertRule rule) {
+      this.rules.put(rule.id, rule);
+    }
+
+    boolean remove(String id) {
+      return null != this.rules.remove(id);
+    }
+
+    List<String> evaluate(String symbol, double[] last, double price, double movement) {
+      final List<String> fired = new ArrayList<>();
+      if (null == last) {
+        return fired;
+      }
+      for (AlertRule rule : this.rules.values()) {
+        if (null != rule.symbol && !rule.symbol.equals(symbol)) {
+          continue;
+        }
+        final boolean isPrice = AlertRule.PRICE.equals(rule.field);
+        final double from = isPrice ? last[0] : last[1];
+        final double to = isPrice ? price : movement;
+        if (Double.isNaN(from) || Double.isNaN(to)) {
+          continue;
+        }
+        final Map<String, Boolean> states = this.armed.computeIfAbsent(rule, key -> new HashMap<>());
+        final boolean armed = states.getOrDefault(symbol, true);
+        final double rearm = rule.above ? rule.threshold - rule.hysteresis : rule.threshold + rule.hysteresis;
+        if (rule.above) {
+          if (armed && from < rule.threshold && to >= rule.threshold) {
+            fired.add(rule.id);
+            states.put(symbol, false);
+          } else if (!armed && from > rearm && to <= rearm) {
+            states.put(symbol, true);
+          }
+        } else {
+          if (armed && from > rule.threshold && to <= rule.threshold) {
+            fired.add(rule.id);
+            states.put(symbol, false);
+          } else if (!armed && from < rearm && to >= rearm) {
+            states.put(symbol, true);
+          }
+        }
+      }
+      return fired;
+    }
+  }
+}
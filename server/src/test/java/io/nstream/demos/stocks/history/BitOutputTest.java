@@ -0,0 +1,59 @@
+package io.nstream.demos.stocks.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BitOutputTest {
+
+  @Test
+  void readsBackEveryWidth() {
+    final BitOutput out = new BitOutput(1);
+    for (int n = 1; n <= 64; n++) {
+      out.write(-1L, n);
+      out.write(0L, n);
+    }
+    final BitInput in = new BitInput(out.toWords());
+    for (int n = 1; n <= 64; n++) {
+      assertEquals(mask(-1L, n), in.read(n), "ones of width " + n);
+      assertEquals(0L, in.read(n), "zeros of width " + n);
+    }
+  }
+
+  @Test
+  void readsBackRandomWidthsAcrossWords() {
+    final Random random = new Random(42L);
+    final int count = 10000;
+    final long[] values = new long[count];
+    final int[] widths = new int[count];
+    final BitOutput out = new BitOutput(1);
+    for (int i = 0; i < count; i++) {
+      values[i] = random.nextLong();
+      widths[i] = 1 + random.nextInt(64);
+      out.write(values[i], widths[i]);
+    }
+    final long[] words = out.toWords();
+    assertEquals(out.wordCount(), words.length);
+    final BitInput in = new BitInput(words);
+    for (int i = 0; i < count; i++) {
+      assertEquals(mask(values[i], widths[i]), in.read(widths[i]), "value " + i);
+    }
+  }
+
+  @Test
+  void trimsToTheLastPartialWord() {
+    final BitOutput out = new BitOutput(8);
+    out.write(0b101L, 3);
+    assertEquals(1, out.toWords().length);
+    out.write(-1L, 61);
+    assertEquals(1, out.toWords().length);
+    out.write(1L, 1);
+    assertEquals(2, out.toWords().length);
+  }
+
+  static long mask(long value, int n) {
+    return n == 64 ? value : value & ((1L << n) - 1L);
+  }
+}
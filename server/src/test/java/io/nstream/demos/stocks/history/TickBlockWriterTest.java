@@ -0,0 +1,207 @@
+package io.nstream.demos.stocks.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TickBlockWriterTest {
+
+  @Test
+  void roundTripsRandomTicks() {
+    for (long seed = 0L; seed < 200L; seed++) {
+      final Random random = new Random(seed);
+      final Ticks ticks = randomTicks(random, 1 + random.nextInt(2000));
+      final TickBlockWriter writer = ticks.write();
+      assertDecodes(ticks, writer.out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "seed " + seed);
+    }
+  }
+
+  @Test
+  void clipsToFromAndTo() {
+    for (long seed = 0L; seed < 200L; seed++) {
+      final Random random = new Random(seed);
+      final Ticks ticks = randomTicks(random, 1 + random.nextInt(500));
+      final long[] words = ticks.write().out.toWords();
+      for (int k = 0; k < 20; k++) {
+        // Bounds on, between and outside the tick times, duplicates included.
+        long from = ticks.times[random.nextInt(ticks.count)] + random.nextInt(3) - 1;
+        long to = ticks.times[random.nextInt(ticks.count)] + random.nextInt(3) - 1;
+        if (from > to) {
+          final long swap = from;
+          from = to;
+          to = swap;
+        }
+        assertDecodes(ticks, words, from, to, "seed " + seed + " [" + from + ", " + to + "]");
+      }
+      assertDecodes(ticks, words, ticks.times[ticks.count - 1] + 1L, Long.MAX_VALUE, "after the last tick");
+      assertDecodes(ticks, words, Long.MIN_VALUE, ticks.times[0] - 1L, "before the first tick");
+    }
+  }
+
+  @Test
+  void decodesEveryPrefixFromItsTrimmedWords() {
+    // Each prefix ends at a different bit, mostly in the middle of a word.
+    final Ticks ticks = randomTicks(new Random(7L), 300);
+    final TickBlockWriter writer = new TickBlockWriter(16);
+    for (int i = 0; i < ticks.count; i++) {
+      writer.append(ticks.times[i], ticks.prices[i], ticks.volumes[i]);
+      assertDecodes(ticks.prefix(i + 1), writer.out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "prefix " + (i + 1));
+    }
+  }
+
+  @Test
+  void escapesLargeDeltaOfDeltas() {
+    final Ticks ticks = new Ticks(8);
+    ticks.add(1_700_000_000_000L, 1D, 1D);
+    ticks.add(1_700_000_000_001L, 1D, 1D);
+    ticks.add(1_700_000_000_001L + (1L << 40), 1D, 1D);
+    ticks.add(1_700_000_000_002L + (1L << 40), 1D, 1D);
+    ticks.add(1_700_000_002_050L + (1L << 40), 1D, 1D);
+    ticks.add(1_700_000_004_099L + (1L << 40), 1D, 1D);
+    ticks.add(Long.MAX_VALUE - 1L, 1D, 1D);
+    ticks.add(Long.MAX_VALUE, 1D, 1D);
+    assertDecodes(ticks, ticks.write().out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "escapes");
+  }
+
+  @Test
+  void roundTripsFullWidthXors() {
+    final Ticks ticks = new Ticks(8);
+    ticks.add(0L, 1D, 1D);
+    // Differs from 1.0 in every bit but the low exponent ones: no leading or trailing zeros.
+    ticks.add(1L, Double.longBitsToDouble(0xC00FFFFFFFFFFFFFL), 1D);
+    // Full width again, through the reuse path.
+    ticks.add(2L, Double.longBitsToDouble(0x3FF0000000000001L), 1D);
+    // Only the lowest bit changes: 63 leading zeros, stored as 31.
+    ticks.add(3L, Double.longBitsToDouble(0x3FF0000000000000L), 1D);
+    ticks.add(4L, Math.nextUp(Double.longBitsToDouble(0x3FF0000000000000L)), -0D);
+    ticks.add(5L, -Double.MIN_VALUE, 0D);
+    ticks.add(6L, Double.MAX_VALUE, Double.NEGATIVE_INFINITY);
+    ticks.add(7L, Double.MIN_VALUE, Double.POSITIVE_INFINITY);
+    assertDecodes(ticks, ticks.write().out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "full width");
+  }
+
+  @Test
+  void capsLeadingZerosAt31() {
+    // Each XOR has 32 or more leading zeros and fewer trailing zeros than the one before, so each one writes
+    // a new header and its leading count must fit in 5 bits.
+    final Ticks ticks = new Ticks(6);
+    ticks.add(0L, 1D, 1000D);
+    ticks.add(1L, Double.longBitsToDouble(0x3FF0000080000000L), Double.longBitsToDouble(0x408F400080000000L));
+    ticks.add(2L, Double.longBitsToDouble(0x3FF0000080100000L), Double.longBitsToDouble(0x408F400080100000L));
+    ticks.add(3L, Double.longBitsToDouble(0x3FF0000080100400L), Double.longBitsToDouble(0x408F400080100400L));
+    ticks.add(4L, Double.longBitsToDouble(0x3FF0000080100401L), Double.longBitsToDouble(0x408F400080100401L));
+    ticks.add(5L, 1D, 1000D);
+    assertDecodes(ticks, ticks.write().out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "leading zeros");
+  }
+
+  @Test
+  void keepsNaNVolumesBitForBit() {
+    final Ticks ticks = new Ticks(6);
+    ticks.add(0L, 10D, Double.NaN);
+    ticks.add(1L, 10.01D, Double.NaN);
+    ticks.add(2L, 10.02D, 1000D);
+    ticks.add(3L, 10.03D, Double.longBitsToDouble(0x7FF8000000000001L));
+    ticks.add(4L, Double.NaN, Double.longBitsToDouble(0xFFF0000000000001L));
+    ticks.add(5L, 10.05D, Double.NaN);
+    assertDecodes(ticks, ticks.write().out.toWords(), Long.MIN_VALUE, Long.MAX_VALUE, "NaN");
+  }
+
+  static void assertDecodes(Ticks ticks, long[] words, long from, long to, String message) {
+    final TickBuffer decoded = new TickBuffer(16);
+    TickBlockWriter.decode(words, ticks.count, from, to, decoded);
+    int j = 0;
+    for (int i = 0; i < ticks.count; i++) {
+      if (ticks.times[i] < from || ticks.times[i] > to) {
+        continue;
+      }
+      assertEquals(ticks.times[i], decoded.time(j), message + ": time of tick " + i);
+      assertEquals(Double.doubleToRawLongBits(ticks.prices[i]), Double.doubleToRawLongBits(decoded.price(j)),
+          message + ": price of tick " + i);
+      assertEquals(Double.doubleToRawLongBits(ticks.volumes[i]), Double.doubleToRawLongBits(decoded.volume(j)),
+          message + ": volume of tick " + i);
+      j++;
+    }
+    assertEquals(j, decoded.size(), message + ": decoded ticks");
+  }
+
+  // Non-decreasing times with deltas in every delta-of-delta range, cent prices with the odd arbitrary double,
+  // and volumes that mostly repeat or grow, with some missing.
+  static Ticks randomTicks(Random random, int count) {
+    final Ticks ticks = new Ticks(count);
+    long time = 1_700_000_000_000L + random.nextInt(1000);
+    double price = 1D + random.nextInt(50000) / 100D;
+    double volume = random.nextInt(1000);
+    for (int i = 0; i < count; i++) {
+      switch (random.nextInt(6)) {
+        case 0:
+          break;
+        case 1:
+          time += random.nextInt(64);
+          break;
+        case 2:
+          time += random.nextInt(256);
+          break;
+        case 3:
+          time += random.nextInt(2048);
+          break;
+        case 4:
+          time += random.nextInt(100000);
+          break;
+        default:
+          time += (long) random.nextInt(1 << 20) << random.nextInt(20);
+      }
+      final int move = random.nextInt(20);
+      if (move < 10) {
+        price = Math.max(0.01D, Math.round(price * 100D + random.nextInt(21) - 10) / 100D);
+      } else if (move == 10) {
+        price = Double.longBitsToDouble(random.nextLong());
+      }
+      final int trade = random.nextInt(10);
+      if (trade < 4) {
+        volume = Double.isNaN(volume) ? random.nextInt(1000) : volume + random.nextInt(5000);
+      } else if (trade == 4) {
+        volume = Double.NaN;
+      }
+      ticks.add(time, price, volume);
+    }
+    return ticks;
+  }
+
+  static final class Ticks {
+    final long[] times;
+    final double[] prices;
+    final double[] volumes;
+    int count;
+
+    Ticks(int capacity) {
+      this.times = new long[capacity];
+      this.prices = new double[capacity];
+      this.volumes = new double[capacity];
+    }
+
+    void add(long time, double price, double volume) {
+      this.times[this.count] = time;
+      this.prices[this.count] = price;
+      this.volumes[this.count] = volume;
+      this.count++;
+    }
+
+    Ticks prefix(int count) {
+      final Ticks prefix = new Ticks(count);
+      for (int i = 0; i < count; i++) {
+        prefix.add(this.times[i], this.prices[i], this.volumes[i]);
+      }
+      return prefix;
+    }
+
+    TickBlockWriter write() {
+      final TickBlockWriter writer = new TickBlockWriter(this.count);
+      for (int i = 0; i < this.count; i++) {
+        writer.append(this.times[i], this.prices[i], this.volumes[i]);
+      }
+      return writer;
+    }
+  }
+}
@@ -1,12 +1,11 @@
 import { FC, useCallback, useEffect, useMemo, useRef, useState } from "react";
-import { Form } from "@swim/structure";
 import { AgGridReact } from "ag-grid-react";
 import { CellStyle, ColDef, GridOptions, RowStyle } from "ag-grid-community";
 import { throttle } from "lodash-es";
 import { TableProps, Stock, StockRow, PriceChangeState, StockMeta } from "./Table.types";
 import { numValueFormatter, pctValueFormatter, volumeValueFormatter } from "../../lib/helpers/formatting";
 import { StockForm } from "./StockForm";
-import { useMapDownlink } from "../../lib/hooks/useMapDownlink";
+import { useBatchDownlink } from "../../lib/hooks/useBatchDownlink";
 import "ag-grid-community/styles/ag-grid.css";
 
 const NEW_STOCK_METADATA: StockMeta = { timer: null, priceLastUpdated: 0, prevDisplayedPrice: 0 };
@@ -149,15 +148,13 @@ export const Table: FC<TableProps> = (props) => {
     [updateRowData]
   );
 
-  // callback which handles individual Stock updates
-  const didRemove: (key: string, oldStock: Stock | undefined) => void = useCallback(
-    (key, stock) => {
-      // handle invalid message
-      if (!stock) {
-        return;
+  // drops rows for symbols removed from /symbols
+  const didRemove: (key: string) => void = useCallback(
+    (key) => {
+      const timer = stocksMetaRef.current[key]?.timer;
+      if (timer != null) {
+        clearTimeout(timer);
       }
-
-      // Delete key for this stock key in stocksRef and stocksMetaRef. This will not trigger a rerender.
       delete stocksMetaRef.current[key];
       delete stocksRef.current[key];
 
@@ -167,11 +164,11 @@ export const Table: FC<TableProps> = (props) => {
   );
 
   // open downlink on component mount
-  const downlink = useMapDownlink<string, Stock | undefined>({
+  /* Changed stocks arrive as one batch per interval rather than one event per tick; the snapshot lane
+     provides the initial state in a single message */
+  const downlink = useBatchDownlink<Stock | undefined>({
     hostUri,
     nodeUri: "/symbols",
-    laneUri: "stocks",
-    keyForm: Form.forString(),
     valueForm: new StockForm(), // coerces content of WARP message to strongly-typed JS object
     didUpdate,
     didRemove,
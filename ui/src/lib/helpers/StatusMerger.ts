@@ -0,0 +1,43 @@
+import { Record as SwimRecord, Value } from "@swim/structure";
+
+const CONTROL_KEYS = new Set(["seq", "keyframe"]);
+
+/* Rebuilds whole statuses from delta encoded ones, such as /symbols batches with "delta: true" or a stock's
+   statusDelta lane. A delta only has the fields that changed; they are merged into the last whole status of its
+   key, so valueForm.cast and everything after it still see every field. A keyframe or snapshot entry replaces
+   the status instead. */
+export class StatusMerger {
+  private readonly statuses: Record<string, Value> = {};
+
+  // replaces the status of key, for snapshot entries and keyframes
+  set(key: string, status: Value): Value {
+    const result = SwimRecord.create();
+    status.forEach((item) => {
+      if (!CONTROL_KEYS.has(item.key.stringValue() ?? "")) {
+        result.push(item);
+      }
+    });
+    this.statuses[key] = result;
+    return result;
+  }
+
+  // merges the fields of delta into the status of key
+  merge(key: string, delta: Value): Value {
+    if (delta.get("keyframe").booleanValue(false)) {
+      return this.set(key, delta);
+    }
+    let status = this.statuses[key] ?? SwimRecord.create();
+    delta.forEach((item) => {
+      const field = item.key.stringValue();
+      if (field !== void 0 && !CONTROL_KEYS.has(field)) {
+        status = status.updated(field, item.toValue());
+      }
+    });
+    this.statuses[key] = status;
+    return status;
+  }
+
+  remove(key: string): void {
+    delete this.statuses[key];
+  }
+}
@@ -0,0 +1,125 @@
+import { ValueDownlink, WarpClient, WarpRef } from '@swim/client';
+import { Form, Value } from '@swim/structure';
+import { useEffect, useRef } from 'react';
+import { StatusMerger } from '../helpers/StatusMerger';
+
+export interface BatchDownlinkOptions<V> {
+  hostUri: string;
+  nodeUri: string;
+  valueForm: Form<V>;
+  didUpdate: (key: string, newValue: V, oldValue: V | undefined) => void;
+  didRemove?: (key: string, oldValue: V | undefined) => void;
+}
+
+export interface BatchDownlink {
+  open(): void;
+  close(): void;
+}
+
+/* Follows the batch and snapshot lanes of an agent such as /symbols. The snapshot is read once for the initial
+   state, then every batch carries the entries that changed since the previous one. An entry is applied only if
+   its batch is at least as new as the last one seen for its key, so it does not matter which lane arrives first.
+   A batch lists keys removed since the previous one under "removed".
+   A batch marked "delta: true" only has the fields that changed; a StatusMerger keeps every key whole. If any batch
+   is skipped (a value lane only sends a slow link the latest one) the gap in seq re-reads the snapshot. */
+export const useBatchDownlink = <V,>(options: BatchDownlinkOptions<V>): BatchDownlink => {
+  const { hostUri, nodeUri, valueForm, didUpdate, didRemove } = options;
+
+  const client = useRef<WarpClient>(new WarpClient());
+  const didUpdateRef = useRef(didUpdate);
+  const didRemoveRef = useRef(didRemove);
+  const valuesRef = useRef<Record<string, V>>({});
+  const sequencesRef = useRef<Record<string, number>>({});
+  const mergerRef = useRef(new StatusMerger());
+  const batchSeqRef = useRef(0);
+
+  useEffect(() => {
+    didUpdateRef.current = didUpdate;
+  }, [didUpdate]);
+
+  useEffect(() => {
+    didRemoveRef.current = didRemove;
+  }, [didRemove]);
+
+  // returns false if the message carried no entries
+  const applyRef = useRef((message: Value, snapshot: boolean): boolean => {
+    const seq = message.get("seq").numberValue(0);
+    const delta = message.get("delta").booleanValue(false);
+    message.get("removed").forEach((item) => {
+      const key = item.stringValue();
+      if (key === void 0 || (sequencesRef.current[key] ?? 0) > seq) {
+        return;
+      }
+      sequencesRef.current[key] = seq;
+      mergerRef.current.remove(key);
+      const oldValue = valuesRef.current[key];
+      delete valuesRef.current[key];
+      didRemoveRef.current?.(key, oldValue);
+    });
+
+    const entries = message.get("stocks");
+    if (!entries.isDefined()) {
+      return false;
+    }
+
+    entries.forEach((item) => {
+      const key = item.key.stringValue();
+      if (key === void 0 || (sequencesRef.current[key] ?? 0) > seq) {
+        return;
+      }
+      sequencesRef.current[key] = seq;
+      const entry = snapshot ? mergerRef.current.set(key, item.toValue())
+        : delta ? mergerRef.current.merge(key, item.toValue()) : item.toValue();
+      const newValue = valueForm.cast(entry);
+      const oldValue = valuesRef.current[key];
+      valuesRef.current[key] = newValue as V;
+      didUpdateRef.current(key, newValue as V, oldValue);
+    });
+
+    return true;
+  });
+
+  const snapshotRef = useRef<ValueDownlink<WarpRef, Value>>(
+    client.current.downlinkValue({
+      hostUri,
+      nodeUri,
+      laneUri: "snapshot",
+      didSet(newValue: Value) {
+        // only needed for the initial state; batches keep it current from here
+        if (applyRef.current(newValue, true)) {
+          snapshotRef.current.close();
+        }
+      },
+    })
+  );
+
+  const batchRef = useRef<ValueDownlink<WarpRef, Value>>(
+    client.current.downlinkValue({
+      hostUri,
+      nodeUri,
+      laneUri: "batch",
+      didSet(newValue: Value) {
+        const seq = newValue.get("seq").numberValue(0);
+        if (batchSeqRef.current > 0 && seq > batchSeqRef.current + 1) {
+          // a missed batch leaves its entries and removals, or a delta's fields, stale until the snapshot is read again
+          snapshotRef.current.open();
+        }
+        batchSeqRef.current = seq;
+        applyRef.current(newValue, false);
+      },
+    })
+  );
+
+  const downlinkRef = useRef<BatchDownlink>({
+    open() {
+      batchRef.current.open();
+      snapshotRef.current.open();
+    },
+    close() {
+      snapshotRef.current.close();
+      batchRef.current.close();
+    },
+  });
+
+  return downlinkRef.current;
+}